@@ -0,0 +1,111 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compile time and memory of generated programs against their size, one row per shape and size, also written
+ * as CSV for plotting. The memory is what the compile allocated, little of it outlives the compile since
+ * the scopes are gone by then. A shape stops growing once a compile takes longer than TIME_LIMIT_MS,
+ * at that point the next size would only show the cliff again, slower.
+ * <p>
+ * gradle compileScaling -PscalingArgs="1000 10000 100000", results go to build/reports/compile-scaling.csv.
+ */
+public final class CompileScaling {
+    private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+
+    private static final long TIME_LIMIT_MS = 60_000;
+    // smaller programs are compiled again until this much time has passed and the fastest compile is kept
+    private static final long REPEAT_MS = 1000;
+    private static final int WARMUP = 20;
+
+    private CompileScaling() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CompileScaling <results.csv> [lines...]");
+            System.exit(2);
+        }
+
+        Path csv = Path.of(args[0]);
+        int[] sizes = SIZES;
+
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        Files.createDirectories(csv.toAbsolutePath().getParent());
+
+        // the parser reports "Program too large" for every compile of a big program, the table is enough
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // so the first row isn't class loading and the interpreter
+        String warmup = ProgramGenerator.generate(ProgramGenerator.Shape.METHODS, 1000, 1);
+        for (int i = 0; i < WARMUP; i++) CompileScalingBenchmark.parse(new Scanner(new StringReader(warmup)));
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+            out.println("shape,lines,bytes,tokens,code,errors,ms,allocated");
+
+            console.printf("%-8s %8s %10s %9s %8s %6s %10s %12s%n",
+                    "shape", "lines", "bytes", "tokens", "code", "errors", "ms", "allocated");
+
+            for (ProgramGenerator.Shape shape : ProgramGenerator.Shape.values()) {
+                for (int lines : sizes) {
+                    String source = ProgramGenerator.generate(shape, lines, 42);
+
+                    Row row = measure(source);
+
+                    double ms = row.nanos / 1e6;
+
+                    console.printf("%-8s %8d %10d %9d %8d %6d %10.2f %12d%n",
+                            shape, lines, source.length(), row.tokens, row.code, row.errors, ms, row.allocated);
+                    out.printf("%s,%d,%d,%d,%d,%d,%.3f,%d%n",
+                            shape, lines, source.length(), row.tokens, row.code, row.errors, ms, row.allocated);
+                    out.flush();
+
+                    if (ms > TIME_LIMIT_MS) {
+                        console.printf("%-8s stopping, the last compile took over %d s%n", shape, TIME_LIMIT_MS / 1000);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private record Row(int tokens, int code, int errors, long nanos, long allocated) {}
+
+    private static Row measure(String source) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+
+        Scanner scanner = new Scanner(new StringReader(source));
+        Parser parser = CompileScalingBenchmark.parse(scanner);
+
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        int code = OpCodeBuffer.pc;
+
+        long spent = nanos;
+        while (spent < REPEAT_MS * 1_000_000) {
+            start = System.nanoTime();
+            CompileScalingBenchmark.parse(new Scanner(new StringReader(source)));
+            long again = System.nanoTime() - start;
+
+            nanos = Math.min(nanos, again);
+            spent += again;
+        }
+
+        return new Row(scanner.getTokenCount(), code, parser.getErrorCount(), nanos, allocated);
+    }
+}
@@ -0,0 +1,66 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling generated programs of growing size into the code buffer, for each shape of ProgramGenerator.
+ * Run with -prof gc for the memory, gc.alloc.rate.norm is the bytes allocated per compile.
+ * CompileScaling prints the same as a table, and goes on to bigger sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CompileScalingBenchmark {
+    @Param({"METHODS", "GLOBALS", "NESTING", "CLASSES"})
+    public ProgramGenerator.Shape shape;
+
+    @Param({"1000", "10000", "50000"})
+    public int lines;
+
+    private String source;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the parser reports "Program too large" on every compile of the big programs
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        source = ProgramGenerator.generate(shape, lines, 42);
+
+        Parser parser = parse(new Scanner(new StringReader(source)));
+
+        // the only error a generated program can have is being too big for an object file
+        if (!parser.parsedSuccessfully() && OpCodeBuffer.pc <= OpCodeBuffer.MAX_CODE_SIZE) {
+            throw new IllegalStateException("Generated program doesn't compile: " + shape + " " + lines);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public int compile() {
+        return parse(new Scanner(new StringReader(source))).getErrorCount();
+    }
+
+    static Parser parse(Scanner scanner) {
+        Parser parser = new Parser(scanner);
+
+        OpCodeBuffer.reset();
+        parser.parse();
+
+        return parser;
+    }
+}
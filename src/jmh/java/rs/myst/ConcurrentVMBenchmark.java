@@ -0,0 +1,64 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many independent runs of one program on a thread pool, every run has its own VM over a shared CodeImage.
+ * The score is runs per second, it should grow with the number of threads up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentVMBenchmark {
+    private static final int RUNS = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"DECODED", "TIERED"})
+    public ExecutionMode mode;
+
+    @Param({"FibBench.mj"})
+    public String program;
+
+    private CodeImage image;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = CodeImage.load(Programs.compile(program));
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RUNS)
+    public void runAll() throws InterruptedException, ExecutionException {
+        List<Future<?>> runs = new ArrayList<>(RUNS);
+
+        for (int i = 0; i < RUNS; i++) {
+            runs.add(pool.submit(() -> Programs.quietVM(image, VMOptions.DEFAULT).run(mode)));
+        }
+
+        for (Future<?> run : runs) {
+            run.get();
+        }
+    }
+}
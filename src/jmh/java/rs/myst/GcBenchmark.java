@@ -0,0 +1,48 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An allocation heavy program with the nursery and with every collection a full mark-compact of the heap.
+ * JMH reports the counters per second: pauseNanos / collections is the mean pause,
+ * pauseNanos / 1e9 the part of the time the program was stopped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GcBenchmark {
+    @Param({"0", "16384"})
+    public int nurseryWords;
+
+    @Param({"AllocBench.mj"})
+    public String program;
+
+    private VM vm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long collections;
+        public long pauseNanos;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VMOptions options = VMOptions.builder().nurseryWords(nurseryWords).build();
+        vm = Programs.quietVM(CodeImage.load(Programs.compile(program)), options);
+    }
+
+    @Benchmark
+    public void run(Counters counters) {
+        vm.run(ExecutionMode.DECODED);
+        counters.collections += vm.getGcStats().getCollections();
+        counters.pauseNanos += vm.getGcStats().getTotalPauseNanos();
+    }
+}
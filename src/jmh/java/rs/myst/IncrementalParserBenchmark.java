@@ -0,0 +1,59 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One keystroke in a big generated source and the errors after it, the way an editor asks for them. The body
+ * edit types a digit in front of an expression in a method in the middle and takes it out again on the next
+ * call, the space edit does the same with a space, and full parses the whole source from scratch like the
+ * editor did before. The generated methods are about 60 lines each,
+ * 200000 lines is some 3400 of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalParserBenchmark {
+    @Param({"BODY", "SPACE", "FULL"})
+    public String edit;
+
+    @Param({"50000", "200000"})
+    public int lines;
+
+    private IncrementalParser parser;
+    private int offset;
+    private boolean typed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String source = ProgramGenerator.generate(ProgramGenerator.Shape.METHODS, lines, 42);
+
+        parser = new IncrementalParser(source);
+
+        // the expression of an assignment halfway through
+        offset = source.indexOf("\t\tx = ", source.length() / 2) + 6;
+        if (offset < 6) throw new IllegalStateException("No statement to edit in the generated program");
+    }
+
+    @Benchmark
+    public int type() {
+        String inserted = edit.equals("SPACE") ? " " : "1";
+
+        if (edit.equals("FULL")) {
+            parser = new IncrementalParser(parser.getText());
+        } else if (typed) {
+            parser.edit(offset, inserted.length(), "");
+        } else {
+            parser.edit(offset, 0, inserted);
+        }
+
+        typed = !typed;
+
+        return parser.getDiagnostics().size();
+    }
+}
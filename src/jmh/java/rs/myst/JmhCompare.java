@@ -0,0 +1,222 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the JSON results of two JMH runs, the way the jmh task saves them, benchmark by benchmark.
+ * Prints every metric of the benchmarks both runs have with its change, marking the changes bigger than
+ * the two error margins together, the ones the noise doesn't explain.
+ * <p>
+ * gradle jmhCompare -PjmhBaseline=baseline.json, optionally with -PjmhResults for the run to compare.
+ */
+public final class JmhCompare {
+    private JmhCompare() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: JmhCompare <baseline.json> <results.json>");
+            System.exit(2);
+        }
+
+        Map<String, Map<String, Metric>> baseline = read(Path.of(args[0]));
+        Map<String, Map<String, Metric>> results = read(Path.of(args[1]));
+
+        System.out.printf("%-60s %-14s %14s %14s %9s%n", "benchmark", "metric", "baseline", "current", "change");
+
+        for (Map.Entry<String, Map<String, Metric>> benchmark : results.entrySet()) {
+            Map<String, Metric> before = baseline.get(benchmark.getKey());
+
+            if (before == null) {
+                System.out.printf("%-60s (not in the baseline)%n", benchmark.getKey());
+                continue;
+            }
+
+            for (Map.Entry<String, Metric> metric : benchmark.getValue().entrySet()) {
+                Metric old = before.get(metric.getKey());
+                if (old == null) continue;
+
+                Metric now = metric.getValue();
+                double change = (now.score - old.score) / old.score * 100;
+                boolean significant = Math.abs(now.score - old.score) > old.error + now.error;
+
+                System.out.printf("%-60s %-14s %14.3f %14.3f %+8.1f%%%s%n", benchmark.getKey(), metric.getKey(),
+                        old.score, now.score, change, significant ? " *" : "");
+            }
+        }
+    }
+
+    private record Metric(double score, double error) {}
+
+    /**
+     * The metrics of each benchmark in a results file, keyed by the benchmark name with its params.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Metric>> read(Path file) throws IOException {
+        Map<String, Map<String, Metric>> benchmarks = new LinkedHashMap<>();
+
+        for (Object result : (List<Object>) new Json(Files.readString(file)).value()) {
+            Map<String, Object> fields = (Map<String, Object>) result;
+
+            StringBuilder name = new StringBuilder(((String) fields.get("benchmark")).replace("rs.myst.", ""));
+
+            Map<String, Object> params = (Map<String, Object>) fields.get("params");
+            if (params != null) {
+                for (Map.Entry<String, Object> param : params.entrySet()) {
+                    name.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+
+            Map<String, Metric> metrics = new LinkedHashMap<>();
+            metrics.put("score", metric((Map<String, Object>) fields.get("primaryMetric")));
+
+            Map<String, Object> secondary = (Map<String, Object>) fields.get("secondaryMetrics");
+            if (secondary != null) {
+                for (Map.Entry<String, Object> metric : secondary.entrySet()) {
+                    metrics.put(metric.getKey(), metric((Map<String, Object>) metric.getValue()));
+                }
+            }
+
+            benchmarks.put(name.toString(), metrics);
+        }
+
+        return benchmarks;
+    }
+
+    private static Metric metric(Map<String, Object> fields) {
+        return new Metric(number(fields.get("score")), number(fields.get("scoreError")));
+    }
+
+    private static double number(Object value) {
+        // JMH writes NaN as a string, it's the error of a single iteration, which then never counts as significant
+        return value instanceof Double number ? number : Double.parseDouble((String) value);
+    }
+
+    /**
+     * Just enough of a JSON reader for what JMH writes: objects become maps, arrays lists and numbers doubles.
+     */
+    private static final class Json {
+        private final String text;
+        private int position;
+
+        Json(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+
+            char c = text.charAt(position);
+
+            if (c == '{') return object();
+            if (c == '[') return array();
+            if (c == '"') return string();
+
+            if (text.startsWith("true", position)) return literal("true", Boolean.TRUE);
+            if (text.startsWith("false", position)) return literal("false", Boolean.FALSE);
+            if (text.startsWith("null", position)) return literal("null", null);
+
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) position++;
+
+            if (start == position) throw new IllegalArgumentException("Unexpected '" + c + "' at " + position);
+
+            return Double.parseDouble(text.substring(start, position));
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+
+            skipWhitespace();
+            if (text.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+
+            while (true) {
+                skipWhitespace();
+                String key = string();
+
+                skipWhitespace();
+                expect(':');
+
+                object.put(key, value());
+
+                skipWhitespace();
+                if (text.charAt(position++) == '}') return object;
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            position++;
+
+            skipWhitespace();
+            if (text.charAt(position) == ']') {
+                position++;
+                return array;
+            }
+
+            while (true) {
+                array.add(value());
+
+                skipWhitespace();
+                if (text.charAt(position++) == ']') return array;
+            }
+        }
+
+        private String string() {
+            expect('"');
+
+            StringBuilder string = new StringBuilder();
+
+            while (true) {
+                char c = text.charAt(position++);
+
+                if (c == '"') return string.toString();
+
+                if (c == '\\') {
+                    char escaped = text.charAt(position++);
+
+                    switch (escaped) {
+                        case 'n' -> string.append('\n');
+                        case 't' -> string.append('\t');
+                        case 'r' -> string.append('\r');
+                        case 'b' -> string.append('\b');
+                        case 'f' -> string.append('\f');
+                        case 'u' -> {
+                            string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            position += 4;
+                        }
+                        default -> string.append(escaped);
+                    }
+                } else {
+                    string.append(c);
+                }
+            }
+        }
+
+        private Object literal(String literal, Object value) {
+            position += literal.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (text.charAt(position) != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + position);
+            }
+
+            position++;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning big generated sources to the end, for each way of feeding the scanner: a Reader, UTF-8 bytes
+ * on the heap and a memory mapped file, and the heap bytes into a TokenBuffer, which doesn't allocate per
+ * token, in one go or in parallel on the common pool. JMH reports the counters as tokens and bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({"READER", "BYTES", "MAPPED", "BUFFER", "PARALLEL"})
+    public String input;
+
+    // methods is dense code, nesting mostly indentation
+    @Param({"METHODS", "NESTING"})
+    public ProgramGenerator.Shape shape;
+
+    @Param({"100000"})
+    public int lines;
+
+    private String source;
+    private byte[] bytes;
+    private Path file;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        source = ProgramGenerator.generate(shape, lines, 42);
+        bytes = source.getBytes(StandardCharsets.UTF_8);
+
+        file = Files.createTempFile("microj", ".mj");
+        Files.write(file, bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int scan(Counters counters) throws IOException {
+        if (input.equals("BUFFER") || input.equals("PARALLEL")) {
+            TokenBuffer tokens = input.equals("BUFFER")
+                    ? TokenBuffer.scan(new Scanner(ByteBuffer.wrap(bytes)))
+                    : TokenBuffer.scanParallel(ByteBuffer.wrap(bytes), ForkJoinPool.commonPool());
+
+            counters.tokens += tokens.size();
+            counters.bytes += bytes.length;
+            return tokens.size();
+        }
+
+        Scanner scanner = switch (input) {
+            case "READER" -> new Scanner(new StringReader(source));
+            case "BYTES" -> new Scanner(ByteBuffer.wrap(bytes));
+            case "MAPPED" -> Scanner.open(file);
+            default -> throw new IllegalArgumentException(input);
+        };
+
+        while (scanner.next().getKind() != TokenKind.EOF) {}
+
+        counters.tokens += scanner.getTokenCount();
+        counters.bytes += bytes.length;
+        return scanner.getTokenCount();
+    }
+}
@@ -0,0 +1,33 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FibBench.mj and FibLong.mj written in plain Java, the baseline for VMBenchmark in TIERED mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NativeFibBenchmark {
+    @Param({"22", "30"})
+    public int n;
+
+    @Benchmark
+    public int fib() {
+        return fib(n);
+    }
+
+    private static int fib(int n) {
+        if (n <= 1) {
+            return n;
+        }
+
+        return fib(n - 1) + fib(n - 2);
+    }
+}
@@ -0,0 +1,59 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints the most frequent pairs of consecutively executed instructions over the sample programs,
+ * the data the superinstructions in OpCode were picked from.
+ * <p>
+ * gradle jmhClasses, then run with the jmh runtime classpath, optionally passing program names.
+ */
+public final class OpCodePairProfile {
+    private static final String[] PROGRAMS = { "Fib.mj", "Sample0.mj", "Sample2.mj", "Sample4.mj", "FibBench.mj", "LoopBench.mj" };
+
+    private static final int TOP = 25;
+
+    private OpCodePairProfile() {}
+
+    public static void main(String[] args) throws IOException {
+        String[] programs = args.length > 0 ? args : PROGRAMS;
+        var instructions = OpCode.values();
+
+        long[] counts = new long[instructions.length * instructions.length];
+        long total = 0;
+
+        VMOptions options = VMOptions.builder().profileOpcodePairs(true).build();
+
+        for (String program : programs) {
+            VM vm = Programs.quietVM(CodeImage.load(Programs.compile(program)), options);
+            vm.run(ExecutionMode.DECODED);
+
+            for (OpCode first : instructions) {
+                for (OpCode second : instructions) {
+                    long count = vm.getOpcodePairCount(first, second);
+
+                    counts[first.ordinal() * instructions.length + second.ordinal()] += count;
+                    total += count;
+                }
+            }
+        }
+
+        List<Integer> pairs = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) pairs.add(i);
+        }
+
+        pairs.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+        System.out.printf("%d instruction pairs executed%n", total);
+
+        for (int pair : pairs.subList(0, Math.min(TOP, pairs.size()))) {
+            System.out.printf("%-10s %-10s %10d %6.2f%%%n",
+                    instructions[pair / instructions.length].getNiceName(),
+                    instructions[pair % instructions.length].getNiceName(),
+                    counts[pair], 100.0 * counts[pair] / total);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenBuffer.scanParallel on a pool of its own with the given number of threads, against scanning the same
+ * bytes in one go. The common pool has a thread less than the machine has cores and doesn't split on a small
+ * machine, a pool of its own always does. JMH reports the counters as tokens and bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelScanBenchmark {
+    // 0 scans in one go without a pool
+    @Param({"0", "2", "4", "8"})
+    public int threads;
+
+    @Param({"METHODS", "NESTING"})
+    public ProgramGenerator.Shape shape;
+
+    @Param({"100000"})
+    public int lines;
+
+    private byte[] bytes;
+    private ForkJoinPool pool;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bytes = ProgramGenerator.generate(shape, lines, 42).getBytes(StandardCharsets.UTF_8);
+        pool = threads > 0 ? new ForkJoinPool(threads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public int scan(Counters counters) {
+        TokenBuffer tokens = pool != null
+                ? TokenBuffer.scanParallel(ByteBuffer.wrap(bytes), pool)
+                : TokenBuffer.scan(new Scanner(ByteBuffer.wrap(bytes)));
+
+        counters.tokens += tokens.size();
+        counters.bytes += bytes.length;
+        return tokens.size();
+    }
+}
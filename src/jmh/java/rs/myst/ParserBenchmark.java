@@ -0,0 +1,57 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling a whole source into the code buffer, which is scanning, parsing, the symbol table and code
+ * generation together since the parser drives all of them. Writing the object file isn't included.
+ * The lines counter is reported by JMH as source lines per second. The buffer input scans the source into a
+ * TokenBuffer first and parses from that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"Fib.mj", "Sample0.mj", "Sample1.mj", "Sample2.mj", "Sample3.mj", "Sample4.mj"})
+    public String program;
+
+    @Param({"SCANNER", "BUFFER"})
+    public String input;
+
+    private String source;
+    private int lines;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long lines;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        source = Programs.source(program);
+        lines = (int) source.lines().count();
+    }
+
+    @Benchmark
+    public int parse(Counters counters) {
+        Scanner scanner = new Scanner(new StringReader(source));
+        Parser parser = input.equals("BUFFER") ? new Parser(TokenBuffer.scan(scanner)) : new Parser(scanner);
+
+        OpCodeBuffer.reset();
+        parser.parse();
+
+        if (!parser.parsedSuccessfully()) throw new IllegalStateException("Program doesn't compile: " + program);
+
+        counters.lines += lines;
+        return OpCodeBuffer.pc;
+    }
+}
@@ -0,0 +1,33 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A program that prints a million numbers, so the time goes to output and not computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrintBenchmark {
+    @Param({"DECODED", "TIERED"})
+    public ExecutionMode mode;
+
+    private VM vm;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        vm = Programs.quietVM(CodeImage.load(Programs.compile("PrintBench.mj")), VMOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public void run() {
+        vm.run(mode);
+    }
+}
@@ -0,0 +1,219 @@
+package rs.myst;
+
+import java.util.Random;
+
+/**
+ * Writes MicroJava programs of about a given number of lines for seeing how the compiler scales with its input,
+ * the same program for the same shape, size and seed. The programs compile, they aren't meant to be run.
+ * <p>
+ * They stay inside what the object file can describe: at most 64K globals and 256 types, so past those the
+ * extra globals and classes are still declared but not used. Code is limited to 64K too, big programs
+ * get all the way through the parser and code generation and then fail with "Program too large".
+ */
+public final class ProgramGenerator {
+    public enum Shape {
+        /** Many methods with loops, branches and calls to the methods declared before them. */
+        METHODS,
+        /** Thousands of globals, about three quarters of the lines, and methods reading and writing them. */
+        GLOBALS,
+        /** Loops nested up to MAX_NESTING deep, every level a block with a scope of its own. */
+        NESTING,
+        /** Thousands of classes with a few fields each, and methods allocating and using them. */
+        CLASSES
+    }
+
+    static final int MAX_GLOBALS = 60000;
+    static final int MAX_USED_CLASSES = 200;
+    static final int MAX_NESTING = 200;
+
+    private static final int CONSTANTS = 4;
+    private static final int FIELDS = 3;
+
+    private final Shape shape;
+    private final int lines;
+    private final Random random;
+
+    private final StringBuilder out = new StringBuilder();
+    private int lineCount = 0;
+
+    private int globals = 0;
+    private int classes = 0;
+    private int methods = 0;
+
+    private ProgramGenerator(Shape shape, int lines, long seed) {
+        this.shape = shape;
+        this.lines = lines;
+        this.random = new Random(seed);
+    }
+
+    static String generate(Shape shape, int lines, long seed) {
+        return new ProgramGenerator(shape, lines, seed).program();
+    }
+
+    private String program() {
+        line(0, "program Generated");
+
+        for (int i = 0; i < CONSTANTS; i++) {
+            line(1, "final int K" + i + " = " + (random.nextInt(100) + 1) + ";");
+        }
+
+        int declarations = switch (shape) {
+            case GLOBALS, CLASSES -> lines * 3 / 4;
+            default -> 0;
+        };
+
+        while (globals < 8 || shape == Shape.GLOBALS && lineCount < declarations && globals < MAX_GLOBALS) {
+            line(1, "int g" + globals++ + ";");
+        }
+
+        while (shape == Shape.CLASSES && lineCount < declarations) {
+            line(1, "class C" + classes + " {");
+            for (int i = 0; i < FIELDS; i++) {
+                line(2, "int f" + i + ";");
+            }
+            line(2, "C" + classes + " next;");
+            line(1, "}");
+
+            classes++;
+        }
+
+        line(0, "{");
+
+        // main and the closing brace take the last seven lines
+        while (methods == 0 || lineCount < lines - 7) {
+            method();
+        }
+
+        line(1, "void main()");
+        line(2, "int x;");
+        line(1, "{");
+        line(2, "x = m" + (methods - 1) + "(" + random.nextInt(100) + ", " + random.nextInt(100) + ");");
+        line(2, "print(x);");
+        line(1, "}");
+        line(0, "}");
+
+        return out.toString();
+    }
+
+    private void method() {
+        String clazz = classes > 0 ? "C" + random.nextInt(Math.min(classes, MAX_USED_CLASSES)) : null;
+
+        line(1, "int m" + methods + "(int a, int b)");
+        line(2, "int x, y, i;");
+        if (clazz != null) line(2, clazz + " o;");
+        line(1, "{");
+        line(2, "x = a;");
+        line(2, "y = b;");
+
+        if (clazz != null) {
+            line(2, "o = new " + clazz + ";");
+            line(2, "o.next = o;");
+        }
+
+        if (shape == Shape.NESTING) {
+            nest(2, Math.max(1, Math.min(MAX_NESTING, (lines - lineCount - 10) / 4)));
+        } else {
+            // ten to thirty statements, some of them blocks
+            int statements = 10 + random.nextInt(21);
+            for (int i = 0; i < statements; i++) {
+                statement(2, 0, clazz != null);
+            }
+        }
+
+        line(2, "return x + y;");
+        line(1, "}");
+
+        methods++;
+    }
+
+    private void nest(int indent, int depth) {
+        line(indent, "i = 0;");
+        line(indent, "while (i < " + operand() + ") {");
+        statement(indent + 1, MAX_NESTING, false);
+        if (depth > 1) nest(indent + 1, depth - 1);
+        line(indent + 1, "i++;");
+        line(indent, "}");
+    }
+
+    private void statement(int indent, int depth, boolean object) {
+        int kind = random.nextInt(depth < 2 ? 7 : 5);
+
+        switch (kind) {
+            case 0, 1 -> line(indent, variable() + " = " + expression() + ";");
+            case 2 -> line(indent, "g" + global() + " = " + expression() + ";");
+            case 3 -> {
+                if (methods > 0) {
+                    line(indent, variable() + " = m" + random.nextInt(methods) + "(" + operand() + ", " + operand() + ");");
+                } else {
+                    line(indent, variable() + "++;");
+                }
+            }
+            case 4 -> {
+                if (object) {
+                    line(indent, "o.f" + random.nextInt(FIELDS) + " = o.next.f" + random.nextInt(FIELDS) + " + " + operand() + ";");
+                } else {
+                    line(indent, "print(" + expression() + ");");
+                }
+            }
+            case 5 -> {
+                line(indent, "if (" + operand() + " " + relation() + " " + operand() + ") {");
+                statement(indent + 1, depth + 1, object);
+                line(indent, "} else {");
+                statement(indent + 1, depth + 1, object);
+                line(indent, "}");
+            }
+            default -> {
+                line(indent, "i = 0;");
+                line(indent, "while (i < " + operand() + ") {");
+                statement(indent + 1, depth + 1, object);
+                line(indent + 1, "i++;");
+                line(indent, "}");
+            }
+        }
+    }
+
+    private String expression() {
+        String expression = operand();
+
+        int terms = random.nextInt(3);
+        for (int i = 0; i < terms; i++) {
+            expression += " " + "+-*/%".charAt(random.nextInt(5)) + " " + operand();
+        }
+
+        return expression;
+    }
+
+    private String operand() {
+        return switch (random.nextInt(5)) {
+            case 0 -> variable();
+            case 1 -> "g" + global();
+            case 2 -> "K" + random.nextInt(CONSTANTS);
+            case 3 -> Integer.toString(random.nextInt(1000) + 1);
+            default -> random.nextBoolean() ? "a" : "b";
+        };
+    }
+
+    private String variable() {
+        return random.nextBoolean() ? "x" : "y";
+    }
+
+    private int global() {
+        return random.nextInt(globals);
+    }
+
+    private String relation() {
+        return switch (random.nextInt(6)) {
+            case 0 -> "==";
+            case 1 -> "!=";
+            case 2 -> "<";
+            case 3 -> "<=";
+            case 4 -> ">";
+            default -> ">=";
+        };
+    }
+
+    private void line(int indent, String text) {
+        out.append("\t".repeat(indent)).append(text).append('\n');
+        lineCount++;
+    }
+}
@@ -0,0 +1,52 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Helpers shared by the benchmarks for getting MicroJava programs compiled and run quietly.
+ */
+final class Programs {
+    private Programs() {}
+
+    /**
+     * Copies a program from the classpath into a temporary directory and compiles it there.
+     * Returns the path of the object file.
+     */
+    static String compile(String resource) throws IOException {
+        Path dir = Files.createTempDirectory("microj");
+        Path source = dir.resolve(resource);
+
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalArgumentException("Program not found: " + resource);
+            Files.copy(in, source);
+        }
+
+        String objFile = Main.compile(source.toString());
+
+        if (objFile == null) throw new IllegalStateException("Program doesn't compile: " + resource);
+
+        return objFile;
+    }
+
+    /**
+     * The source of a program on the classpath.
+     */
+    static String source(String resource) throws IOException {
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalArgumentException("Program not found: " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A VM without input whose output goes nowhere, benchmarks measure execution and not the terminal.
+     */
+    static VM quietVM(CodeImage image, VMOptions options) {
+        return new VM(image, options, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+    }
+}
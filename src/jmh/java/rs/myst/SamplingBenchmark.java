@@ -0,0 +1,37 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What sampling the call stack costs the program, with no sampling as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplingBenchmark {
+    @Param({"BYTECODE", "DECODED"})
+    public ExecutionMode mode;
+
+    @Param({"0", "1000", "100"})
+    public int samplingIntervalMicros;
+
+    private VM vm;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VMOptions options = VMOptions.builder().samplingIntervalMicros(samplingIntervalMicros).build();
+        vm = Programs.quietVM(CodeImage.load(Programs.compile("FibBench.mj")), options);
+    }
+
+    @Benchmark
+    public void run() {
+        vm.run(mode);
+    }
+}
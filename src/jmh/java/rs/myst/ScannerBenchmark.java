@@ -0,0 +1,45 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a whole source, the tokens counter is reported by JMH as tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"Fib.mj", "Sample0.mj", "Sample1.mj", "Sample2.mj", "Sample3.mj", "Sample4.mj"})
+    public String program;
+
+    private String source;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        source = Programs.source(program);
+    }
+
+    @Benchmark
+    public int scan(Counters counters) {
+        Scanner scanner = new Scanner(new StringReader(source));
+
+        while (scanner.next().getKind() != TokenKind.EOF) {}
+
+        counters.tokens += scanner.getTokenCount();
+        return scanner.getTokenCount();
+    }
+}
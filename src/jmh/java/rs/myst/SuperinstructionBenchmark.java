@@ -0,0 +1,45 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decoded interpreter with and without superinstructions.
+ * The dispatches counter is reported by JMH as dispatches per second, divide by the score for dispatches per run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuperinstructionBenchmark {
+    @Param({"false", "true"})
+    public boolean superinstructions;
+
+    @Param({"FibBench.mj", "LoopBench.mj"})
+    public String program;
+
+    private VM vm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long dispatches;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VMOptions options = VMOptions.builder().superinstructions(superinstructions).build();
+        vm = Programs.quietVM(CodeImage.load(Programs.compile(program)), options);
+    }
+
+    @Benchmark
+    public void run(Counters counters) {
+        vm.run(ExecutionMode.DECODED);
+        counters.dispatches += vm.getInstructionsExecuted();
+    }
+}
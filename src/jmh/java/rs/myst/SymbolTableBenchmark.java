@@ -0,0 +1,84 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declaring and finding names with depth scopes open, each declaring SYMBOLS_PER_SCOPE variables.
+ * Both search every open scope, outermost first, so their cost grows with how deep the parser is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SymbolTableBenchmark {
+    private static final int SYMBOLS_PER_SCOPE = 8;
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private SymbolTable symbolTable;
+    private Type type;
+
+    private String[] newNames;
+    private String outermost;
+    private String innermost;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        symbolTable = new SymbolTable();
+        type = symbolTable.findByName("int").getType();
+
+        for (int scope = 0; scope < depth; scope++) {
+            symbolTable.openScope();
+
+            for (int i = 0; i < SYMBOLS_PER_SCOPE; i++) {
+                symbolTable.insert(SymbolKind.VARIABLE, name(scope, i), type);
+            }
+        }
+
+        newNames = new String[SYMBOLS_PER_SCOPE];
+        for (int i = 0; i < SYMBOLS_PER_SCOPE; i++) newNames[i] = name(depth, i);
+
+        outermost = name(0, 0);
+        innermost = name(depth - 1, SYMBOLS_PER_SCOPE - 1);
+    }
+
+    /**
+     * Opens one more scope, declares its variables and closes it again.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SYMBOLS_PER_SCOPE)
+    public void insert() {
+        symbolTable.openScope();
+
+        for (String name : newNames) {
+            if (symbolTable.insert(SymbolKind.VARIABLE, name, type) == null) throw new IllegalStateException(name);
+        }
+
+        symbolTable.closeScope();
+    }
+
+    @Benchmark
+    public Symbol lookupOutermost() {
+        return symbolTable.findByName(outermost);
+    }
+
+    @Benchmark
+    public Symbol lookupInnermost() {
+        return symbolTable.findByName(innermost);
+    }
+
+    @Benchmark
+    public Symbol lookupMissing() {
+        return symbolTable.findByName("undeclared");
+    }
+
+    private static String name(int scope, int index) {
+        return "v" + scope + "_" + index;
+    }
+}
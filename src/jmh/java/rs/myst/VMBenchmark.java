@@ -0,0 +1,47 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole program runs on each execution engine.
+ * The instructions counter is reported by JMH as instructions per second.
+ * FibLong runs long enough for compiled code to get optimized by HotSpot, compare it with NativeFibBenchmark.
+ * The image is loaded once, so in TIERED mode only the first run pays for compiling.
+ * Sample1 reads its input, so it is only compiled in ParserBenchmark, WorkloadBenchmark runs programs with input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VMBenchmark {
+    @Param({"BYTECODE", "DECODED", "REGISTER", "TIERED"})
+    public ExecutionMode mode;
+
+    @Param({"FibBench.mj", "FibLong.mj", "Fib.mj", "Sample0.mj", "Sample2.mj", "Sample3.mj", "Sample4.mj"})
+    public String program;
+
+    private VM vm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        vm = Programs.quietVM(CodeImage.load(Programs.compile(program)), VMOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public void run(Counters counters) {
+        vm.run(mode);
+        counters.instructions += vm.getInstructionsExecuted();
+    }
+}
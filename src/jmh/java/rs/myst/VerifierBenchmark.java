@@ -0,0 +1,44 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decoded interpreter checking every stack push and pop, and running the same code unchecked after verifying it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifierBenchmark {
+    @Param({"false", "true"})
+    public boolean verify;
+
+    @Param({"FibBench.mj", "LoopBench.mj"})
+    public String program;
+
+    private VM vm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VMOptions options = VMOptions.builder().verify(verify).build();
+        vm = Programs.quietVM(CodeImage.load(Programs.compile(program)), options);
+    }
+
+    @Benchmark
+    public void run(Counters counters) {
+        vm.run(ExecutionMode.DECODED);
+        counters.instructions += vm.getInstructionsExecuted();
+    }
+}
@@ -0,0 +1,65 @@
+package rs.myst;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The workload programs on each execution engine, each reading its input file. Every run gets a new VM
+ * for a fresh input, and the output is checked against the expected one once per trial.
+ * The instructions counter is reported by JMH as instructions per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkloadBenchmark {
+    @Param({"DECODED", "REGISTER", "TIERED"})
+    public ExecutionMode mode;
+
+    @Param({"Sieve", "MatMul", "QuickSort", "Strings", "Histogram", "DeepRecursion", "LinkedList"})
+    public String workload;
+
+    private CodeImage image;
+    private byte[] input;
+
+    private VM vm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = CodeImage.load(Programs.compile(workload + ".mj"));
+        input = Programs.source(workload + ".in").getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new VM(image, VMOptions.DEFAULT, new ByteArrayInputStream(input), out).run(mode);
+
+        if (!out.toString(StandardCharsets.UTF_8).equals(Programs.source(workload + ".out"))) {
+            throw new IllegalStateException(workload + " printed the wrong output in " + mode);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newVM() {
+        vm = new VM(image, VMOptions.DEFAULT, new ByteArrayInputStream(input), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void run(Counters counters) {
+        vm.run(mode);
+        counters.instructions += vm.getInstructionsExecuted();
+    }
+}
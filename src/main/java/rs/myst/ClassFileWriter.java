@@ -0,0 +1,371 @@
+package rs.myst;
+
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the JVM class file format for the JIT: a final class with static methods over ints and a VM.
+ * Classes are written as version 49 so the verifier infers types itself and no stack map frames are needed.
+ */
+class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /* JVM instructions used by the JIT */
+
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ILOAD_0 = 0x1a;
+    static final int ALOAD = 0x19;
+    static final int ALOAD_0 = 0x2a;
+    static final int IALOAD = 0x2e;
+    static final int ISTORE = 0x36;
+    static final int ISTORE_0 = 0x3b;
+    static final int IASTORE = 0x4f;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int DUP_X2 = 0x5b;
+    static final int DUP2 = 0x5c;
+    static final int SWAP = 0x5f;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IDIV = 0x6c;
+    static final int IREM = 0x70;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESTATIC = 0xb8;
+
+    @Getter
+    private final String className;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<MethodWriter> methods = new ArrayList<>();
+
+    ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    MethodWriter method(int access, String name, String descriptor) {
+        MethodWriter method = new MethodWriter(access, utf8(name), utf8(descriptor));
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int code = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.writeTo(out, code);
+            }
+
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /* Constant pool */
+
+    int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, out -> {
+            out.writeByte(CONSTANT_INTEGER);
+            out.writeInt(value);
+        });
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name);
+
+        return constant("C" + name, out -> {
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+
+        int nameAndType = constant("N" + name + ":" + descriptor, out -> {
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+
+        return constant(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, PoolEntry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        if (poolCount == 0xffff) {
+            throw new IllegalArgumentException("Constant pool too large");
+        }
+
+        try {
+            entry.writeTo(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface PoolEntry {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Code of a single method. Branch targets are labels, numbered by newLabel() and
+     * placed with mark(), offsets get patched in once the method is complete.
+     */
+    class MethodWriter {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+
+        private byte[] code = new byte[64];
+        private int length;
+
+        private int maxStack;
+        private int maxLocals;
+
+        private int[] labels = new int[16];
+        private int labelCount;
+
+        private final List<int[]> branches = new ArrayList<>(); // instruction address, label
+
+        private MethodWriter(int access, int name, int descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        void setMaxStack(int maxStack) {
+            this.maxStack = maxStack;
+        }
+
+        void setMaxLocals(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        int newLabel() {
+            if (labelCount == labels.length) labels = Arrays.copyOf(labels, labelCount * 2);
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        void mark(int label) {
+            labels[label] = length;
+        }
+
+        void op(int opcode) {
+            put(opcode);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                put(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(BIPUSH);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(SIPUSH);
+                putShort(value);
+            } else {
+                int index = integer(value);
+
+                if (index <= 0xff) {
+                    put(LDC);
+                    put(index);
+                } else {
+                    put(LDC_W);
+                    putShort(index);
+                }
+            }
+        }
+
+        void iload(int local) {
+            local(ILOAD, ILOAD_0, local);
+        }
+
+        void istore(int local) {
+            local(ISTORE, ISTORE_0, local);
+        }
+
+        void aload(int local) {
+            local(ALOAD, ALOAD_0, local);
+        }
+
+        private void local(int opcode, int shortOpcode, int local) {
+            if (local < 0 || local > 0xff) {
+                throw new IllegalArgumentException("Local " + local + " out of range");
+            }
+
+            if (local <= 3) {
+                put(shortOpcode + local);
+            } else {
+                put(opcode);
+                put(local);
+            }
+        }
+
+        void jump(int opcode, int label) {
+            branches.add(new int[] { length, label });
+            put(opcode);
+            putShort(0);
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            put(GETSTATIC);
+            putShort(fieldRef(owner, name, descriptor));
+        }
+
+        void getField(String owner, String name, String descriptor) {
+            put(GETFIELD);
+            putShort(fieldRef(owner, name, descriptor));
+        }
+
+        void invokeStatic(String owner, String name, String descriptor) {
+            put(INVOKESTATIC);
+            putShort(methodRef(owner, name, descriptor));
+        }
+
+        void invokeVirtual(String owner, String name, String descriptor) {
+            put(INVOKEVIRTUAL);
+            putShort(methodRef(owner, name, descriptor));
+        }
+
+        private void put(int b) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void putShort(int s) {
+            put(s >> 8);
+            put(s);
+        }
+
+        private void writeTo(DataOutputStream out, int codeAttribute) throws IOException {
+            for (int[] branch : branches) {
+                int address = branch[0];
+                int target = labels[branch[1]];
+
+                if (target < 0) {
+                    throw new IllegalStateException("Label " + branch[1] + " was never marked");
+                }
+
+                int offset = target - address;
+
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Branch offset " + offset + " out of range");
+                }
+
+                code[address + 1] = (byte) (offset >> 8);
+                code[address + 2] = (byte) offset;
+            }
+
+            if (length > 0xffff) {
+                throw new IllegalArgumentException("Method code too large");
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+
+            out.writeShort(1); // attributes
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package rs.myst;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Splits a code section into methods and works out the expression stack depth before every reachable instruction.
+ * A method starts at an enter instruction and runs until the next one, which is how the compiler lays them out.
+ * Depths are relative to the method, enter takes the params off the stack so the body starts at depth 0.
+ */
+@Getter
+public class CodeAnalysis {
+    public static final int UNREACHABLE = -1;
+
+    private final ByteBuffer codeData;
+    private final int start;
+    private final int end;
+
+    private final List<MethodInfo> methods = new ArrayList<>();
+
+    /**
+     * Expression stack depth before the instruction at each byte address, UNREACHABLE if no path leads there.
+     */
+    private final int[] stackDepth;
+
+    private final boolean[] jumpTarget;
+
+    private final boolean[] instructionStart;
+
+    private final MethodInfo[] methodAt;
+
+    private CodeAnalysis(ByteBuffer codeData, int start, int end) {
+        this.codeData = codeData;
+        this.start = start;
+        this.end = end;
+
+        stackDepth = new int[end];
+        jumpTarget = new boolean[end];
+        instructionStart = new boolean[end];
+        methodAt = new MethodInfo[end];
+
+        Arrays.fill(stackDepth, UNREACHABLE);
+    }
+
+    public static CodeAnalysis analyze(ByteBuffer codeData, int start, int end) {
+        CodeAnalysis analysis = new CodeAnalysis(codeData, start, end);
+
+        analysis.findMethods();
+
+        for (MethodInfo method : analysis.methods) {
+            analysis.analyzeMethod(method);
+        }
+
+        return analysis;
+    }
+
+    public OpCode instructionAt(int address) {
+        return OpCode.values()[codeData.get(address) & 0xff];
+    }
+
+    public MethodInfo methodAt(int address) {
+        return address >= 0 && address < end ? methodAt[address] : null;
+    }
+
+    /**
+     * The method starting at the target of the call instruction at address.
+     */
+    public MethodInfo calleeAt(int address) {
+        int target = DecodedCode.getShort(codeData, address + 1) & 0xffff;
+        MethodInfo callee = methodAt(target);
+
+        if (callee == null || callee.getStart() != target) {
+            throw new IllegalArgumentException("Call at address " + address + " to " + target + " doesn't target a method");
+        }
+
+        return callee;
+    }
+
+    public int jumpTargetAt(int address) {
+        return address + DecodedCode.getShort(codeData, address + 1);
+    }
+
+    public boolean isReachable(int address) {
+        return stackDepth[address] != UNREACHABLE;
+    }
+
+    private void findMethods() {
+        var instructions = OpCode.values();
+
+        List<Integer> enters = new ArrayList<>();
+        List<Integer> lastInstructions = new ArrayList<>();
+
+        int previous = -1;
+        int address = start;
+        while (address < end) {
+            int ordinal = codeData.get(address) & 0xff;
+
+            if (ordinal >= OpCode.BYTECODE_COUNT) {
+                throw new IllegalArgumentException("Illegal instruction " + ordinal + " at address " + address);
+            }
+
+            if (ordinal == OpCode.ENTER.ordinal()) {
+                if (!enters.isEmpty()) lastInstructions.add(previous);
+                enters.add(address);
+            }
+
+            instructionStart[address] = true;
+            previous = address;
+            address += instructions[ordinal].getSize();
+        }
+
+        if (address != end) {
+            throw new IllegalArgumentException("Truncated instruction at address " + end);
+        }
+
+        if (!enters.isEmpty()) lastInstructions.add(previous);
+
+        for (int i = 0; i < enters.size(); i++) {
+            int methodStart = enters.get(i);
+            int methodEnd = i + 1 < enters.size() ? enters.get(i + 1) : end;
+
+            // the compiler ends methods that return a value with a trap for falling off the end
+            boolean returnsValue = instructionAt(lastInstructions.get(i)) == OpCode.TRAP;
+
+            MethodInfo method = new MethodInfo(methodStart, methodEnd,
+                    codeData.get(methodStart + 1), codeData.get(methodStart + 2), returnsValue);
+
+            methods.add(method);
+            Arrays.fill(methodAt, methodStart, methodEnd, method);
+        }
+    }
+
+    private void analyzeMethod(MethodInfo method) {
+        Deque<Integer> work = new ArrayDeque<>();
+
+        flow(method, method.getStart(), 0, work);
+
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            int depth = stackDepth[address];
+
+            OpCode instruction = instructionAt(address);
+            int next = address + instruction.getSize();
+
+            switch (instruction) {
+                case JMP -> {
+                    int target = jumpTargetAt(address);
+                    jumpTarget[target] = true;
+
+                    flow(method, target, depth, work);
+                }
+
+                case JEQ, JNE, JGT, JLE, JLT, JGE -> {
+                    int target = jumpTargetAt(address);
+                    jumpTarget[target] = true;
+
+                    flow(method, target, depth - 2, work);
+                    flow(method, next, depth - 2, work);
+                }
+
+                case CALL -> {
+                    MethodInfo callee = calleeAt(address);
+
+                    if (depth < callee.getParamsCount()) {
+                        throw new IllegalArgumentException("Stack underflow at address " + address);
+                    }
+
+                    flow(method, next, depth - callee.getParamsCount() + (callee.isReturnsValue() ? 1 : 0), work);
+                }
+
+                case RETURN -> {
+                    if (depth != (method.isReturnsValue() ? 1 : 0)) {
+                        throw new IllegalArgumentException("Stack depth " + depth + " at return at address " + address);
+                    }
+                }
+
+                case TRAP -> {}
+
+                default -> {
+                    if (depth < pops(instruction)) {
+                        throw new IllegalArgumentException("Stack underflow at address " + address);
+                    }
+
+                    flow(method, next, depth - pops(instruction) + pushes(instruction), work);
+                }
+            }
+        }
+    }
+
+    private void flow(MethodInfo method, int address, int depth, Deque<Integer> work) {
+        if (!method.contains(address) || !instructionStart[address]) {
+            throw new IllegalArgumentException("Control leaves the method at " + method.getStart() + " to address " + address);
+        }
+
+        if (depth < 0) {
+            throw new IllegalArgumentException("Stack underflow before address " + address);
+        }
+
+        method.updateMaxStack(depth);
+
+        if (stackDepth[address] == UNREACHABLE) {
+            stackDepth[address] = depth;
+            work.push(address);
+        } else if (stackDepth[address] != depth) {
+            throw new IllegalArgumentException("Inconsistent stack depth at address " + address);
+        }
+    }
+
+    static int pops(OpCode instruction) {
+        return switch (instruction) {
+            case STORE_0, STORE_1, STORE_2, STORE_3, STORE_4, STORE_5, STORE, STORE_GLOBAL,
+                    LOAD_FIELD, NEW_ARRAY, LENGTH, NEG, POP, DUP, PRINT, BPRINT -> 1;
+            case STORE_FIELD, ADD, SUB, MUL, DIV, REM, SHL, SHR, ARRAY_LOAD, BARRAY_LOAD, DUP2,
+                    JEQ, JNE, JGT, JLE, JLT, JGE -> 2;
+            case ARRAY_STORE, BARRAY_STORE -> 3;
+            default -> 0;
+        };
+    }
+
+    static int pushes(OpCode instruction) {
+        return switch (instruction) {
+            case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5, LOAD, LOAD_GLOBAL, LOAD_FIELD,
+                    CONST, CONST_M1, CONST_0, CONST_1, CONST_2, CONST_3, CONST_4, CONST_5,
+                    ADD, SUB, MUL, DIV, REM, NEG, SHL, SHR, NEW, NEW_ARRAY,
+                    ARRAY_LOAD, BARRAY_LOAD, LENGTH, READ, BREAD -> 1;
+            case DUP -> 2;
+            case DUP2 -> 4;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package rs.myst;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Compiled methods of a CodeImage, shared by all VMs running it so code compiled for one run
+ * is there for the next. Lookups don't lock, compiling is serialized on the cache.
+ * Everything is indexed by decoded index, which is the same with and without superinstructions.
+ * <p>
+ * The code analysis the compiler needs is only done when the first method gets hot,
+ * so short programs pay nothing beyond decoding.
+ */
+class CodeCache {
+    static final int NO_METHOD = -1;
+
+    private final ByteBuffer codeData;
+    private final int codeEnd;
+    private final DecodedCode decoded;
+    private final Supplier<StackMaps> stackMaps;
+
+    /**
+     * Decoded index of the enter instruction of the method containing each index.
+     */
+    private final int[] methodAt;
+
+    /**
+     * Bridge into the compiled code for each method, indexed by the method's entry.
+     */
+    private final AtomicReferenceArray<MethodHandle> bridges;
+
+    /**
+     * OSR entry for each loop header, indexed by the target of the backward jump.
+     */
+    private final AtomicReferenceArray<MethodHandle> osrEntries;
+
+    // guarded by this
+    private final boolean[] attempted;
+    private final boolean[] osrAttempted;
+    private JitCompiler jit;
+    private boolean jitUnavailable;
+
+    CodeCache(ByteBuffer codeData, int codeEnd, DecodedCode decoded, Supplier<StackMaps> stackMaps) {
+        this.codeData = codeData;
+        this.codeEnd = codeEnd;
+        this.decoded = decoded;
+        this.stackMaps = stackMaps;
+
+        int[] code = decoded.getCode();
+        var instructions = OpCode.values();
+
+        methodAt = new int[code.length];
+        bridges = new AtomicReferenceArray<>(code.length);
+        osrEntries = new AtomicReferenceArray<>(code.length);
+        attempted = new boolean[code.length];
+        osrAttempted = new boolean[code.length];
+
+        int method = NO_METHOD;
+        int i = 0;
+        while (i < code.length) {
+            OpCode instruction = instructions[code[i]];
+            int next = i + 1 + DecodedCode.operandCount(instruction);
+
+            if (instruction == OpCode.ENTER) method = i;
+
+            for (int j = i; j < next; j++) methodAt[j] = method;
+
+            i = next;
+        }
+    }
+
+    /**
+     * Null for a program the stack maps can't be built for, it's never collected.
+     */
+    private StackMaps stackMaps() {
+        try {
+            return stackMaps.get();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    int methodAt(int index) {
+        return methodAt[index];
+    }
+
+    int addressOf(int index) {
+        return decoded.getAddressOf()[index];
+    }
+
+    MethodHandle bridge(int index) {
+        return bridges.get(index);
+    }
+
+    MethodHandle osrEntry(int index) {
+        return osrEntries.get(index);
+    }
+
+    /**
+     * Compiles the method entered at index, each method gets one attempt, plus one per OSR target.
+     * Methods compiled along with it get their bridges as well. Returns why it couldn't be compiled, only to
+     * the attempt that failed, otherwise null.
+     */
+    synchronized String compile(int index, int osrIndex) {
+        if (jitUnavailable) return null;
+
+        if (osrIndex == JitCompiler.NO_OSR) {
+            if (attempted[index]) return null;
+        } else {
+            if (osrAttempted[osrIndex]) return null;
+            osrAttempted[osrIndex] = true;
+        }
+
+        attempted[index] = true;
+
+        try {
+            if (jit == null) {
+                jit = new JitCompiler(VM.LOOKUP, CodeAnalysis.analyze(codeData, VM.CODE_START_ADDRESS, codeEnd),
+                        decoded, stackMaps());
+            }
+
+            MethodInfo method = jit.getAnalysis().methodAt(addressOf(index));
+            int osrAddress = osrIndex != JitCompiler.NO_OSR ? addressOf(osrIndex) : JitCompiler.NO_OSR;
+
+            JitCompiler.Compilation compilation = jit.compile(method, osrAddress);
+
+            for (Map.Entry<MethodInfo, MethodHandle> entry : compilation.getBridges().entrySet()) {
+                bridges.compareAndSet(decoded.entry(entry.getKey().getStart()), null, entry.getValue());
+            }
+
+            if (osrIndex != JitCompiler.NO_OSR) osrEntries.set(osrIndex, compilation.getOsrEntry());
+
+            return null;
+        } catch (IllegalArgumentException e) {
+            if (jit == null) {
+                jitUnavailable = true;
+                return "JIT unavailable, interpreting instead: " + e.getMessage();
+            }
+
+            return "could not compile method at " + addressOf(index) + ": " + e.getMessage();
+        }
+    }
+}
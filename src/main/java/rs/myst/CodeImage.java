@@ -0,0 +1,177 @@
+package rs.myst;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A loaded object file, shared by every VM that runs it. The bytes never change after loading,
+ * the other forms of the code (decoded streams, register code, compiled methods) are built
+ * the first time a VM asks for them and can be used from any number of threads.
+ * <p>
+ * The file is mapped read-only rather than read, so loading takes the same time whatever its size and
+ * VMs in different processes running the same file share its pages. Everything reads the code from the
+ * mapping with absolute gets, which leave the buffer as it is, so all threads can use it at once.
+ */
+public class CodeImage {
+    @Getter(AccessLevel.PACKAGE)
+    private final ByteBuffer codeData;
+
+    @Getter
+    private final int mainAddress;
+
+    /**
+     * End of the code section, the type table follows it.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final int codeEnd;
+
+    @Getter
+    private final TypeTable types;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final HeapLayout layout;
+
+    private StackMaps stackMaps;
+    private IllegalArgumentException stackMapsError;
+
+    private DecodedCode decoded;
+    private DecodedCode fused;
+
+    private RegisterCode registerCode;
+    private IllegalArgumentException registerError;
+
+    private Verifier verifier;
+    private IllegalArgumentException verifierError;
+
+    private CodeCache codeCache;
+
+    /**
+     * Checks the header against the size of the data, throws IllegalArgumentException if they don't match.
+     */
+    CodeImage(ByteBuffer codeData) {
+        this.codeData = codeData;
+
+        if (codeData.limit() < VM.CODE_START_ADDRESS || codeData.get(0) != 'M' || codeData.get(1) != 'J') {
+            throw new IllegalArgumentException("Illegal file format");
+        }
+
+        mainAddress = DecodedCode.getWord(codeData, 2);
+        codeEnd = DecodedCode.getWord(codeData, 6) + 1;
+
+        if (codeEnd < VM.CODE_START_ADDRESS || codeEnd > codeData.limit()) {
+            throw new IllegalArgumentException("Code size " + codeEnd + " in header doesn't fit the file of " + codeData.limit() + " bytes");
+        }
+
+        if (codeEnd > OpCodeBuffer.MAX_CODE_SIZE) {
+            throw new IllegalArgumentException("Code larger than " + OpCodeBuffer.MAX_CODE_SIZE + " bytes");
+        }
+
+        if (mainAddress < VM.CODE_START_ADDRESS || mainAddress >= codeEnd) {
+            throw new IllegalArgumentException("Main address " + mainAddress + " in header outside of the code");
+        }
+
+        byte[] typeTable = new byte[codeData.limit() - codeEnd];
+        codeData.get(codeEnd, typeTable);
+
+        types = TypeTable.read(typeTable, 0);
+        layout = new HeapLayout(types);
+    }
+
+    public static CodeImage load(String filePath) throws IOException {
+        Events.Load event = new Events.Load();
+        event.begin();
+
+        CodeImage image;
+
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File too large");
+            }
+
+            // the mapping stays valid after the channel is closed
+            image = new CodeImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+
+        if (event.shouldCommit()) {
+            event.path = filePath;
+            event.fileBytes = image.codeData.limit();
+            event.codeBytes = image.codeEnd - VM.CODE_START_ADDRESS;
+            event.methods = image.types.getMethods().size();
+            event.commit();
+        }
+
+        return image;
+    }
+
+    synchronized DecodedCode decoded(boolean superinstructions) {
+        if (superinstructions) {
+            if (fused == null) fused = DecodedCode.decode(codeData, VM.CODE_START_ADDRESS, codeEnd, true);
+            return fused;
+        }
+
+        if (decoded == null) decoded = DecodedCode.decode(codeData, VM.CODE_START_ADDRESS, codeEnd, false);
+        return decoded;
+    }
+
+    /**
+     * Throws IllegalArgumentException if the translator doesn't support the code, every time it's asked.
+     */
+    synchronized RegisterCode registerCode() {
+        if (registerCode == null && registerError == null) {
+            try {
+                registerCode = RegisterCode.translate(codeData, VM.CODE_START_ADDRESS, codeEnd);
+            } catch (IllegalArgumentException e) {
+                registerError = e;
+            }
+        }
+
+        if (registerError != null) throw registerError;
+
+        return registerCode;
+    }
+
+    /**
+     * Throws IllegalArgumentException if the code doesn't match its type table, every time it's asked.
+     */
+    synchronized StackMaps stackMaps() {
+        if (stackMaps == null && stackMapsError == null) {
+            try {
+                stackMaps = StackMaps.build(codeData, VM.CODE_START_ADDRESS, codeEnd, types);
+            } catch (IllegalArgumentException e) {
+                stackMapsError = e;
+            }
+        }
+
+        if (stackMapsError != null) throw stackMapsError;
+
+        return stackMaps;
+    }
+
+    /**
+     * Throws IllegalArgumentException if the verifier can't prove the code safe, every time it's asked.
+     */
+    synchronized Verifier verifier() {
+        if (verifier == null && verifierError == null) {
+            try {
+                verifier = Verifier.verify(codeData, VM.CODE_START_ADDRESS, codeEnd, mainAddress);
+            } catch (IllegalArgumentException e) {
+                verifierError = e;
+            }
+        }
+
+        if (verifierError != null) throw verifierError;
+
+        return verifier;
+    }
+
+    synchronized CodeCache codeCache() {
+        if (codeCache == null) codeCache = new CodeCache(codeData, codeEnd, decoded(false), this::stackMaps);
+        return codeCache;
+    }
+}
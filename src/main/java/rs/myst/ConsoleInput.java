@@ -0,0 +1,132 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Where read comes from. Reads a stream or a channel through a byte buffer and parses numbers by hand,
+ * without the regexes and boxing of java.util.Scanner.
+ */
+public final class ConsoleInput {
+    private static final int BUFFER_SIZE = 8192;
+
+    public static final int END_OF_INPUT = -1;
+
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+
+    private long blockedNanos;
+
+    /**
+     * When the read in progress started waiting, 0 while not waiting.
+     */
+    private long blockedSince;
+
+    public ConsoleInput(InputStream in) {
+        this.in = in;
+        this.channel = null;
+    }
+
+    public ConsoleInput(ReadableByteChannel channel) {
+        this.in = null;
+        this.channel = channel;
+    }
+
+    /**
+     * The next int after any whitespace, optionally negative. Throws VMException if there is none.
+     */
+    public int readInt() {
+        int b = read();
+        while (isWhitespace(b)) b = read();
+
+        boolean negative = b == '-';
+        if (negative) b = read();
+
+        if (b < '0' || b > '9') {
+            throw new VMException(b == END_OF_INPUT ? "Expected a number, input ended" : "Expected a number, got '" + (char) b + "'");
+        }
+
+        // accumulated negative so the most negative int parses too
+        int value = 0;
+
+        while (true) {
+            int digit = b - '0';
+
+            if (value < (Integer.MIN_VALUE + digit) / 10) throw new VMException("Number out of range");
+
+            value = value * 10 - digit;
+
+            // whatever ends the number stays for the next read
+            int next = peek();
+            if (next < '0' || next > '9') break;
+
+            b = read();
+        }
+
+        if (!negative && value == Integer.MIN_VALUE) throw new VMException("Number out of range");
+
+        return negative ? value : -value;
+    }
+
+    /**
+     * Time spent waiting for the stream or channel to deliver input, including a wait going on right now.
+     * Can be asked from another thread.
+     */
+    public long getBlockedNanos() {
+        long since = blockedSince;
+        return blockedNanos + (since != 0 ? System.nanoTime() - since : 0);
+    }
+
+    /**
+     * The next byte as it is, END_OF_INPUT at the end.
+     */
+    public int readByte() {
+        return read();
+    }
+
+    private int read() {
+        if (!buffer.hasRemaining() && !fill()) return END_OF_INPUT;
+        return buffer.get() & 0xff;
+    }
+
+    private int peek() {
+        if (!buffer.hasRemaining() && !fill()) return END_OF_INPUT;
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private boolean fill() {
+        buffer.clear();
+
+        long start = System.nanoTime();
+        blockedSince = start;
+
+        try {
+            int count;
+
+            do {
+                count = in != null
+                        ? in.read(buffer.array(), 0, buffer.capacity())
+                        : channel.read(buffer);
+            } while (count == 0);
+
+            if (in != null && count > 0) buffer.position(count);
+
+            buffer.flip();
+            return count > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            blockedSince = 0;
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -0,0 +1,102 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Where print goes. Numbers are formatted straight into a byte buffer, which goes out to the stream
+ * when it fills up and when the program ends, so printing allocates nothing and costs no call per value.
+ * Chars are single bytes, as in MicroJava char arrays.
+ */
+public final class ConsoleOutput {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Longest int, "-2147483648".
+     */
+    private static final int MAX_INT_LENGTH = 11;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+
+    private long flushedBytes;
+
+    public ConsoleOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    public void printInt(int value) {
+        if (length + MAX_INT_LENGTH > buffer.length) flushBuffer();
+
+        if (value == Integer.MIN_VALUE) {
+            for (int i = 0; i < MAX_INT_LENGTH; i++) buffer[length++] = (byte) "-2147483648".charAt(i);
+            return;
+        }
+
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        // digits go in backwards from the end of the number
+        int end = length + digits(value);
+
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        length = end;
+    }
+
+    public void printChar(int value) {
+        if (length == buffer.length) flushBuffer();
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Bytes printed so far, including what's still in the buffer.
+     */
+    public long getBytesWritten() {
+        return flushedBytes + length;
+    }
+
+    /**
+     * Writes out everything printed so far and flushes the stream.
+     */
+    public void flush() {
+        flushBuffer();
+
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBuffer() {
+        if (length == 0) return;
+
+        try {
+            out.write(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        flushedBytes += length;
+        length = 0;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+
+        return digits;
+    }
+}
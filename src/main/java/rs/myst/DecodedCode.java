@@ -0,0 +1,251 @@
+package rs.myst;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Code section of an object file decoded once at load time into an int stream.
+ * Every instruction is stored as its opcode ordinal followed by its operands, already sign extended.
+ * The short forms (load_n, store_n, const_n) are folded into their general form with an explicit operand,
+ * and jump and call offsets are turned into absolute indexes into the decoded stream.
+ * Optionally common sequences are fused into the superinstructions at the end of OpCode.
+ */
+@Getter
+public class DecodedCode {
+    /**
+     * Returned for call targets that don't start an instruction, checked by the VM when the call executes.
+     */
+    public static final int INVALID_TARGET = -1;
+
+    private final int[] code;
+
+    /**
+     * Decoded index of the instruction starting at each byte address, INVALID_TARGET for addresses inside instructions.
+     */
+    private final int[] indexOf;
+
+    /**
+     * Byte address of the instruction at each decoded index, only valid at instruction starts.
+     */
+    private final int[] addressOf;
+
+    private DecodedCode(int[] code, int[] indexOf, int[] addressOf) {
+        this.code = code;
+        this.indexOf = indexOf;
+        this.addressOf = addressOf;
+    }
+
+    public int entry(int address) {
+        return indexOf[address];
+    }
+
+    /**
+     * With superinstructions, common sequences get fused afterwards, see fuse().
+     */
+    public static DecodedCode decode(ByteBuffer codeData, int start, int end, boolean superinstructions) {
+        var instructions = OpCode.values();
+
+        int[] indexOf = new int[codeData.limit()];
+        Arrays.fill(indexOf, INVALID_TARGET);
+
+        // first pass: find instruction boundaries and where each one lands in the decoded stream
+        int length = 0;
+        int address = start;
+        while (address < end) {
+            int ordinal = codeData.get(address) & 0xff;
+
+            if (ordinal >= OpCode.BYTECODE_COUNT) {
+                throw new IllegalArgumentException("Illegal instruction " + ordinal + " at address " + address);
+            }
+
+            OpCode instruction = instructions[ordinal];
+
+            indexOf[address] = length;
+            length += 1 + operandCount(normalize(instruction));
+            address += instruction.getSize();
+        }
+
+        if (address != end) {
+            throw new IllegalArgumentException("Truncated instruction at address " + end);
+        }
+
+        int[] code = new int[length];
+        int[] addressOf = new int[length];
+        boolean[] jumpTarget = new boolean[length];
+
+        // second pass: emit opcodes and operands
+        address = start;
+        while (address < end) {
+            OpCode instruction = instructions[codeData.get(address) & 0xff];
+            OpCode general = normalize(instruction);
+
+            int i = indexOf[address];
+            addressOf[i] = address;
+            code[i] = general.ordinal();
+
+            switch (instruction) {
+                case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5 ->
+                        code[i + 1] = instruction.ordinal() - OpCode.LOAD_0.ordinal();
+
+                case STORE_0, STORE_1, STORE_2, STORE_3, STORE_4, STORE_5 ->
+                        code[i + 1] = instruction.ordinal() - OpCode.STORE_0.ordinal();
+
+                case CONST_M1, CONST_0, CONST_1, CONST_2, CONST_3, CONST_4, CONST_5 ->
+                        code[i + 1] = instruction.ordinal() - OpCode.CONST_0.ordinal();
+
+                case CONST -> code[i + 1] = getWord(codeData, address + 1);
+
+                case LOAD, STORE, LOAD_FIELD, TRAP -> code[i + 1] = codeData.get(address + 1);
+
+                case STORE_FIELD, NEW, NEW_ARRAY -> code[i + 1] = codeData.get(address + 1) & 0xff;
+
+                case LOAD_GLOBAL, STORE_GLOBAL -> code[i + 1] = getShort(codeData, address + 1);
+
+                case INC, ENTER -> {
+                    code[i + 1] = codeData.get(address + 1);
+                    code[i + 2] = codeData.get(address + 2);
+                }
+
+                case JMP, JEQ, JNE, JGT, JLE, JLT, JGE -> {
+                    int target = address + getShort(codeData, address + 1);
+
+                    if (target < start || target >= end || indexOf[target] == INVALID_TARGET) {
+                        throw new IllegalArgumentException("Illegal jump target " + target + " at address " + address);
+                    }
+
+                    code[i + 1] = indexOf[target];
+                    jumpTarget[indexOf[target]] = true;
+                }
+
+                case CALL -> {
+                    int target = getShort(codeData, address + 1) & 0xffff;
+
+                    code[i + 1] = target >= start && target < end ? indexOf[target] : INVALID_TARGET;
+                    if (code[i + 1] != INVALID_TARGET) jumpTarget[code[i + 1]] = true;
+                }
+
+                default -> {}
+            }
+
+            address += instruction.getSize();
+        }
+
+        if (superinstructions) fuse(code, jumpTarget);
+
+        return new DecodedCode(code, indexOf, addressOf);
+    }
+
+    /**
+     * Rewrites the sequences listed with the superinstructions in OpCode in place. A fused instruction keeps
+     * the length of the sequence it replaces so indexes and jump targets stay valid, its operands come first
+     * and the rest of the slots are skipped. Sequences with a jump into the middle are left alone.
+     */
+    private static void fuse(int[] code, boolean[] jumpTarget) {
+        var instructions = OpCode.values();
+
+        int i = 0;
+        while (i < code.length) {
+            int next = i + 1 + operandCount(instructions[code[i]]);
+
+            if (code[i] == OpCode.LOAD.ordinal()) {
+                int local = code[i + 1];
+
+                if (is(code, jumpTarget, next, OpCode.CONST)) {
+                    int constant = code[next + 1];
+                    int third = next + 2;
+
+                    if (is(code, jumpTarget, third, OpCode.ADD) || is(code, jumpTarget, third, OpCode.SUB)) {
+                        if (code[third] == OpCode.SUB.ordinal()) constant = -constant;
+
+                        if (is(code, jumpTarget, third + 1, OpCode.STORE)) {
+                            int destination = code[third + 2];
+
+                            code[i] = OpCode.LOAD_CONST_ADD_STORE.ordinal();
+                            code[i + 1] = local;
+                            code[i + 2] = constant;
+                            code[i + 3] = destination;
+                            next = third + 3;
+                        } else {
+                            code[i] = OpCode.LOAD_CONST_ADD.ordinal();
+                            code[i + 1] = local;
+                            code[i + 2] = constant;
+                            next = third + 1;
+                        }
+                    } else if (third < code.length && !jumpTarget[third] && compareJump(instructions[code[third]]) != null) {
+                        int jumpIndex = code[third + 1];
+
+                        code[i] = compareJump(instructions[code[third]]).ordinal();
+                        code[i + 1] = local;
+                        code[i + 2] = constant;
+                        code[i + 3] = jumpIndex;
+                        next = third + 2;
+                    }
+                } else if (is(code, jumpTarget, next, OpCode.LOAD)) {
+                    code[i] = OpCode.LOAD_LOAD.ordinal();
+                    code[i + 2] = code[next + 1];
+                    next += 2;
+                }
+            } else if (code[i] == OpCode.EXIT.ordinal() && is(code, jumpTarget, next, OpCode.RETURN)) {
+                code[i] = OpCode.EXIT_RETURN.ordinal();
+                next++;
+            }
+
+            i = next;
+        }
+    }
+
+    private static boolean is(int[] code, boolean[] jumpTarget, int i, OpCode instruction) {
+        return i < code.length && !jumpTarget[i] && code[i] == instruction.ordinal();
+    }
+
+    private static OpCode compareJump(OpCode instruction) {
+        return switch (instruction) {
+            case JEQ -> OpCode.LOAD_CONST_JEQ;
+            case JNE -> OpCode.LOAD_CONST_JNE;
+            case JGT -> OpCode.LOAD_CONST_JGT;
+            case JLE -> OpCode.LOAD_CONST_JLE;
+            case JLT -> OpCode.LOAD_CONST_JLT;
+            case JGE -> OpCode.LOAD_CONST_JGE;
+            default -> null;
+        };
+    }
+
+    /**
+     * Short forms carry their operand in the opcode, the decoded stream only uses the general form.
+     */
+    private static OpCode normalize(OpCode instruction) {
+        return switch (instruction) {
+            case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5 -> OpCode.LOAD;
+            case STORE_0, STORE_1, STORE_2, STORE_3, STORE_4, STORE_5 -> OpCode.STORE;
+            case CONST_M1, CONST_0, CONST_1, CONST_2, CONST_3, CONST_4, CONST_5 -> OpCode.CONST;
+            default -> instruction;
+        };
+    }
+
+    static int operandCount(OpCode instruction) {
+        return switch (instruction) {
+            case LOAD, STORE, LOAD_GLOBAL, STORE_GLOBAL, LOAD_FIELD, STORE_FIELD, CONST, NEW, NEW_ARRAY,
+                    JMP, JEQ, JNE, JGT, JLE, JLT, JGE, CALL, TRAP -> 1;
+            case INC, ENTER -> 2;
+
+            // superinstructions span the sequence they replace
+            case LOAD_LOAD -> 3;
+            case LOAD_CONST_ADD -> 4;
+            case LOAD_CONST_ADD_STORE -> 6;
+            case LOAD_CONST_JEQ, LOAD_CONST_JNE, LOAD_CONST_JGT, LOAD_CONST_JLE, LOAD_CONST_JLT, LOAD_CONST_JGE -> 5;
+            case EXIT_RETURN -> 1;
+
+            default -> 0;
+        };
+    }
+
+    static short getShort(ByteBuffer codeData, int address) {
+        return (short) ((codeData.get(address) << 8) | (codeData.get(address + 1) & 0xff));
+    }
+
+    static int getWord(ByteBuffer codeData, int address) {
+        return (getShort(codeData, address) << 16) | (getShort(codeData, address + 2) & 0xffff);
+    }
+}
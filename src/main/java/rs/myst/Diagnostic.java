@@ -0,0 +1,11 @@
+package rs.myst;
+
+/**
+ * An error the parser reported, at the token it was looking at.
+ */
+public record Diagnostic(int line, int col, String message) {
+    @Override
+    public String toString() {
+        return "line " + line + ", col " + col + ": " + message;
+    }
+}
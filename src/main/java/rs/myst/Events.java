@@ -0,0 +1,176 @@
+package rs.myst;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JFR events of the compiler and the VM, so MicroJava workloads show up in JDK Mission Control next to
+ * the JVM's own GC and JIT activity. Record them like any other events, with -XX:StartFlightRecording
+ * or a jdk.jfr.Recording, they are all in the MicroJava category.
+ * <p>
+ * None of them is committed from the dispatch loops, and while they are disabled the JIT removes them,
+ * so a run that isn't recorded pays nothing for them.
+ */
+final class Events {
+    private static final String CATEGORY = "MicroJava";
+
+    /**
+     * VMs in the middle of a run, for the periodic counters.
+     */
+    private static final Set<VM> RUNNING = ConcurrentHashMap.newKeySet();
+
+    static {
+        FlightRecorder.addPeriodicEvent(Counters.class, Events::emitCounters);
+    }
+
+    private Events() {}
+
+    @Name("rs.myst.Scan")
+    @Label("Scan")
+    @Category({CATEGORY, "Compiler"})
+    @Description("A source read into tokens, from creating the scanner to the end of the input. Runs along with the parse.")
+    @StackTrace(false)
+    static class Scan extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Characters")
+        long characters;
+
+        @Label("Lines")
+        int lines;
+    }
+
+    @Name("rs.myst.Parse")
+    @Label("Parse")
+    @Category({CATEGORY, "Compiler"})
+    @Description("Parsing and generating code for a source, including the scanning it asks for")
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Errors")
+        int errors;
+    }
+
+    @Name("rs.myst.ObjectFile")
+    @Label("Write Object File")
+    @Category({CATEGORY, "Compiler"})
+    @StackTrace(false)
+    static class ObjectFile extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Code Size")
+        @DataAmount
+        int codeBytes;
+    }
+
+    @Name("rs.myst.Load")
+    @Label("Load Object File")
+    @Category({CATEGORY, "VM"})
+    @StackTrace(false)
+    static class Load extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("File Size")
+        @DataAmount
+        long fileBytes;
+
+        @Label("Code Size")
+        @DataAmount
+        int codeBytes;
+
+        @Label("Methods")
+        int methods;
+    }
+
+    @Name("rs.myst.GarbageCollection")
+    @Label("Garbage Collection")
+    @Category({CATEGORY, "VM"})
+    @Description("A collection of the VM heap, the duration is the pause")
+    @StackTrace(false)
+    static class GarbageCollection extends Event {
+        @Label("Young")
+        @Description("Only the nursery was collected")
+        boolean young;
+
+        @Label("Used Before")
+        @DataAmount
+        long usedBefore;
+
+        @Label("Used After")
+        @DataAmount
+        long usedAfter;
+
+        @Label("Heap Size")
+        @DataAmount
+        long heapSize;
+    }
+
+    @Name("rs.myst.HeapGrowth")
+    @Label("Heap Growth")
+    @Category({CATEGORY, "VM"})
+    @StackTrace(false)
+    static class HeapGrowth extends Event {
+        @Label("Old Size")
+        @DataAmount
+        long oldSize;
+
+        @Label("New Size")
+        @DataAmount
+        long newSize;
+    }
+
+    @Name("rs.myst.Counters")
+    @Label("VM Counters")
+    @Category({CATEGORY, "VM"})
+    @Description("Totals so far of a running VM. Instructions are counted at calls and jumps, and not in compiled code.")
+    @Period("1 s")
+    @StackTrace(false)
+    static class Counters extends Event {
+        @Label("VM Thread")
+        Thread thread;
+
+        @Label("Instructions Executed")
+        long instructions;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    static void started(VM vm) {
+        RUNNING.add(vm);
+    }
+
+    static void stopped(VM vm) {
+        RUNNING.remove(vm);
+    }
+
+    static long bytes(long words) {
+        return words * Integer.BYTES;
+    }
+
+    private static void emitCounters() {
+        for (VM vm : RUNNING) {
+            Counters event = new Counters();
+            event.thread = vm.getRunningThread();
+            event.instructions = vm.getInstructionsExecuted();
+            event.allocated = bytes(vm.getAllocatedWords());
+            event.commit();
+        }
+    }
+}
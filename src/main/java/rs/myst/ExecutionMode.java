@@ -0,0 +1,24 @@
+package rs.myst;
+
+public enum ExecutionMode {
+    /**
+     * Interprets the object file bytes directly, decoding every instruction each time it executes.
+     */
+    BYTECODE,
+
+    /**
+     * Decodes the code section once at load time and interprets the decoded int stream.
+     */
+    DECODED,
+
+    /**
+     * Translates the stack bytecode at load time into three-address instructions over the frame
+     * and runs those, see RegisterCode. Falls back to DECODED for code the translator doesn't support.
+     */
+    REGISTER,
+
+    /**
+     * Starts out like DECODED and compiles methods to JVM bytecode once they get hot, see TierManager.
+     */
+    TIERED
+}
@@ -0,0 +1,34 @@
+package rs.myst;
+
+import lombok.Getter;
+
+/**
+ * Garbage collections during a VM run and how long the program was stopped for them.
+ */
+@Getter
+public class GcStats {
+    private int collections;
+
+    /**
+     * Collections of the nursery alone, the rest were of the whole heap.
+     */
+    private int youngCollections;
+
+    private long totalPauseNanos;
+    private long maxPauseNanos;
+    private long reclaimedWords;
+
+    void record(long pauseNanos, long reclaimed, boolean young) {
+        collections++;
+        if (young) youngCollections++;
+        totalPauseNanos += pauseNanos;
+        maxPauseNanos = Math.max(maxPauseNanos, pauseNanos);
+        reclaimedWords += reclaimed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d collections (%d young), %.3f ms total pause, %.3f ms max pause, %d words reclaimed",
+                collections, youngCollections, totalPauseNanos / 1e6, maxPauseNanos / 1e6, reclaimedWords);
+    }
+}
@@ -0,0 +1,119 @@
+package rs.myst;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * How objects and arrays of each type sit in the VM heap. Every block starts with a header:
+ * <pre>
+ *   address - 3   gc word, 0 outside of collections
+ *   address - 2   number of elements, or of fields for objects
+ *   address - 1   type, see TypeTable
+ *   address       first element or field
+ * </pre>
+ * Int and reference elements and fields take a word each, char arrays are packed four to a word.
+ * Address 0 is null, so the heap starts at word 1.
+ */
+class HeapLayout {
+    static final int HEADER_WORDS = 3;
+
+    static final int GC_WORD = -3;
+    static final int LENGTH_WORD = -2;
+    static final int TYPE_WORD = -1;
+
+    static final int HEAP_START = 1;
+
+    private static final int[] NO_FIELDS = new int[0];
+
+    private final TypeTable types;
+
+    private final boolean[] isArray;
+    private final boolean[] isClass;
+    private final boolean[] packed;
+    private final boolean[] referenceElements;
+    private final int[][] referenceFields;
+    private final int[] fieldCount;
+
+    HeapLayout(TypeTable types) {
+        this.types = types;
+
+        int count = types.size();
+
+        isArray = new boolean[count];
+        isClass = new boolean[count];
+        packed = new boolean[count];
+        referenceElements = new boolean[count];
+        referenceFields = new int[count][];
+        fieldCount = new int[count];
+
+        Arrays.fill(referenceFields, NO_FIELDS);
+
+        for (int type = 0; type < count; type++) {
+            TypeTable.TypeEntry entry = types.get(type);
+
+            switch (entry.getKind()) {
+                case ARRAY -> {
+                    isArray[type] = true;
+                    packed[type] = entry.getElementType() == TypeTable.CHAR;
+                    referenceElements[type] = types.isReference(entry.getElementType());
+                }
+                case CLASS -> {
+                    isClass[type] = true;
+
+                    int[] fields = entry.getFieldTypes();
+                    fieldCount[type] = fields.length;
+
+                    int references = 0;
+                    for (int field : fields) if (types.isReference(field)) references++;
+
+                    referenceFields[type] = new int[references];
+                    for (int i = 0, r = 0; i < fields.length; i++) {
+                        if (types.isReference(fields[i])) referenceFields[type][r++] = i;
+                    }
+                }
+                default -> {}
+            }
+        }
+    }
+
+    TypeTable getTypes() {
+        return types;
+    }
+
+    boolean isArray(int type) {
+        return type >= 0 && type < isArray.length && isArray[type];
+    }
+
+    boolean isClass(int type) {
+        return type >= 0 && type < isClass.length && isClass[type];
+    }
+
+    int fieldCount(int classType) {
+        return fieldCount[classType];
+    }
+
+    /**
+     * Words after the header, length is the number of elements or fields.
+     */
+    int payloadWords(int type, int length) {
+        return packed[type] ? (length + 3) / 4 : length;
+    }
+
+    /**
+     * Whole block size of the object at address, header included.
+     */
+    int blockWords(IntBuffer heap, int address) {
+        return HEADER_WORDS + payloadWords(heap.get(address + TYPE_WORD), heap.get(address + LENGTH_WORD));
+    }
+
+    boolean hasReferenceElements(int arrayType) {
+        return referenceElements[arrayType];
+    }
+
+    /**
+     * Indexes of the fields holding references, empty for arrays.
+     */
+    int[] referenceFields(int type) {
+        return referenceFields[type];
+    }
+}
@@ -0,0 +1,41 @@
+package rs.myst;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The VM heap lives off the Java heap in a direct buffer of words, so big MicroJava heaps don't
+ * weigh on the JVM's own garbage collector. Addresses are word indexes into it, so a heap can
+ * grow by copying into a bigger buffer without anything moving.
+ */
+final class HeapMemory {
+    private HeapMemory() {}
+
+    /**
+     * A zeroed heap of the given number of words.
+     */
+    static IntBuffer allocate(int words) {
+        return ByteBuffer.allocateDirect(words * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * A bigger copy of the heap, the new words are zeroed.
+     */
+    static IntBuffer grow(IntBuffer heap, int words) {
+        IntBuffer grown = allocate(words);
+        grown.put(0, heap, 0, heap.capacity());
+        return grown;
+    }
+
+    static void clear(IntBuffer heap, int from, int to) {
+        for (int i = from; i < to; i++) heap.put(i, 0);
+    }
+
+    /**
+     * Copies words from one place in the heap to another, they may overlap.
+     */
+    static void copy(IntBuffer heap, int from, int to, int words) {
+        heap.put(to, heap, from, words);
+    }
+}
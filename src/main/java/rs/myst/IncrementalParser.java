@@ -0,0 +1,254 @@
+package rs.myst;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A source kept parsed while it's edited, for editors. An edit scans again only the tokens around it, and
+ * changed tokens inside a method body parse only that method again, with the program's symbols from the
+ * last full parse. Anything else, a change to the declarations or a method's header, or a body that no
+ * longer ends where it did, parses the whole source again. The errors come out the same either way.
+ * <p>
+ * Parsing goes through the OpCodeBuffer like any parse, what it leaves there is of no use. An edit the parser
+ * throws on is parsed in full again with the next one.
+ */
+public final class IncrementalParser {
+    private String text;
+    private final TokenBuffer tokens;
+
+    // from the last full parse, the errors as tokens and messages, the methods' relative to their start
+    private Scope universe;
+    private List<Symbol> programSymbols;
+    private final List<Method> methods = new ArrayList<>();
+    private final List<Message> head = new ArrayList<>();
+    private final List<Message> tail = new ArrayList<>();
+    private int code;
+    // false while a parse is on, so one that threw isn't built on
+    private boolean parsed;
+
+    private int fullParses;
+
+    private record Message(int token, String text) {}
+
+    private static final class Method {
+        int start;
+        int end;
+        final int symbols;
+        final int distanceIn;
+        int distanceOut;
+        int code;
+        List<Message> messages;
+
+        Method(Parser.MethodParse parse) {
+            start = parse.start();
+            end = parse.end();
+            symbols = parse.symbols();
+            distanceIn = parse.distanceIn();
+            distanceOut = parse.distanceOut();
+            code = parse.code();
+        }
+    }
+
+    public IncrementalParser(String text) {
+        this.text = text;
+        this.tokens = TokenBuffer.scan(new Scanner(new StringReader(text)));
+
+        parseAll();
+    }
+
+    /**
+     * Replaces removed chars at offset with the inserted text and brings the errors up to date.
+     */
+    public void edit(int offset, int removed, String inserted) {
+        Objects.checkFromIndexSize(offset, removed, text.length());
+
+        text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+        TokenBuffer.Change change = tokens.edit(text, offset, removed, inserted.length());
+
+        // only moved, the errors are kept by token
+        if (parsed && change.removed() == 0 && change.inserted() == 0) return;
+
+        if (!parsed || !parseMethod(change)) parseAll();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * The errors of the source as it is now, the same as parsing it from scratch would report.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+
+        for (Message message : head) diagnostics.add(diagnostic(message.token, message));
+
+        for (Method method : methods) {
+            for (Message message : method.messages) diagnostics.add(diagnostic(method.start + message.token, message));
+        }
+
+        for (Message message : tail) diagnostics.add(diagnostic(message.token, message));
+
+        return diagnostics;
+    }
+
+    /**
+     * Times the whole source was parsed, the first time included.
+     */
+    int getFullParses() {
+        return fullParses;
+    }
+
+    private Diagnostic diagnostic(int token, Message message) {
+        return new Diagnostic(tokens.line(token), tokens.col(token), message.text);
+    }
+
+    private void parseAll() {
+        Parser parser = new Parser(tokens);
+        parser.setQuiet(true);
+
+        parsed = false;
+        OpCodeBuffer.reset();
+        parser.parse();
+
+        code = OpCodeBuffer.pc;
+        universe = parser.getUniverse();
+        programSymbols = parser.getProgramSymbols();
+        fullParses++;
+
+        List<Diagnostic> diagnostics = parser.getDiagnostics();
+
+        methods.clear();
+        head.clear();
+        tail.clear();
+
+        int next = 0;
+
+        for (Parser.MethodParse parse : parser.getMethods()) {
+            for (; next < parse.firstError(); next++) head.add(message(diagnostics.get(next), 0));
+
+            Method method = new Method(parse);
+            method.messages = messages(diagnostics.subList(parse.firstError(), parse.firstError() + parse.errors()), method.start);
+            methods.add(method);
+
+            next = parse.firstError() + parse.errors();
+        }
+
+        tail.addAll(messages(diagnostics.subList(next, diagnostics.size()), 0));
+
+        parsed = true;
+    }
+
+    /**
+     * Parses again the one method whose body has all of the change in it, false if there isn't one or it
+     * parsed in a way that changes the rest.
+     */
+    private boolean parseMethod(TokenBuffer.Change change) {
+        int index = methodOf(change);
+        if (index < 0) return false;
+
+        Method method = methods.get(index);
+        int moved = change.inserted() - change.removed();
+
+        Parser parser = new Parser(tokens);
+        parser.setQuiet(true);
+
+        parsed = false;
+        OpCodeBuffer.reset();
+        Parser.MethodParse parse = parser.parseMethod(method.start, universe, programSymbols.subList(0, method.symbols), method.distanceIn);
+
+        // a brace too many or too few, the methods after it are different now
+        if (parse.end() != method.end + moved) return false;
+        // the errors at the start of the next method depend on how close the last ones were
+        if (index + 1 < methods.size() && parse.distanceOut() != method.distanceOut) return false;
+
+        code += parse.code() - method.code;
+
+        method.end = parse.end();
+        method.distanceOut = parse.distanceOut();
+        method.code = parse.code();
+        method.messages = messages(parser.getDiagnostics(), method.start);
+
+        for (int i = index + 1; i < methods.size(); i++) {
+            methods.get(i).start += moved;
+            methods.get(i).end += moved;
+        }
+
+        // the code size and the last method's errors show up at the end
+        Method last = methods.get(methods.size() - 1);
+
+        Parser end = new Parser(tokens);
+        end.setQuiet(true);
+        end.parseEnd(last.end, universe, programSymbols, last.distanceOut, code);
+
+        tail.clear();
+        tail.addAll(messages(end.getDiagnostics(), 0));
+
+        parsed = true;
+        return true;
+    }
+
+    /**
+     * The method whose body, between the braces, has the changed tokens, -1 if there's none.
+     */
+    private int methodOf(TokenBuffer.Change change) {
+        int low = 0;
+        int high = methods.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Method method = methods.get(middle);
+
+            if (change.from() < method.start) {
+                high = middle - 1;
+            } else if (change.from() >= method.end) {
+                low = middle + 1;
+            } else {
+                // the old tokens, nothing after the change has moved yet in the method list
+                int body = method.start;
+                while (body < change.from() && tokens.kind(body) != TokenKind.LEFT_BRACE) body++;
+
+                boolean inBody = body < change.from() && change.from() + change.removed() < method.end
+                        && tokens.kind(method.end - 1 + change.inserted() - change.removed()) == TokenKind.RIGHT_BRACE;
+
+                return inBody ? middle : -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private List<Message> messages(List<Diagnostic> diagnostics, int base) {
+        List<Message> messages = new ArrayList<>(diagnostics.size());
+        for (Diagnostic diagnostic : diagnostics) messages.add(message(diagnostic, base));
+
+        return messages;
+    }
+
+    /**
+     * The error at its token, found by its position, relative to base.
+     */
+    private Message message(Diagnostic diagnostic, int base) {
+        int low = 0;
+        int high = tokens.size() - 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (tokens.line(middle) < diagnostic.line() || tokens.line(middle) == diagnostic.line() && tokens.col(middle) < diagnostic.col()) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return new Message(low - base, diagnostic.message());
+    }
+}
@@ -0,0 +1,738 @@
+package rs.myst;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles hot methods to JVM bytecode and loads them as hidden classes, so HotSpot can optimize them further.
+ * <p>
+ * A method is compiled together with every method it can reach through calls, each one becomes a static
+ * method of the same class taking its params as ints followed by the VM, and calls between them are plain
+ * invokestatic. Locals live in JVM locals and the expression stack is the operand stack, heap access and I/O
+ * go through the same VM helpers as the interpreters. The classes are nestmates of VM for that.
+ * <p>
+ * Compiled frames take no frame stack, but every compiled method also gets the depth the frame stack would
+ * be at in the interpreters, and adds its own frame at the enter, see VM.chargeFrame(). Recursion runs out
+ * of frame stack at the same depth in every tier, and long before the JVM stack does.
+ * <p>
+ * Methods that can get to an allocation are the exception once the program has stack maps, the collector
+ * has to find and move their references. Those build the same frame on the frame stack as the interpreters,
+ * keep their reference locals there, and at each allocation, and each call that can get to one, move
+ * the values pending under the operands onto the VM expression stack until it returns. Stopped there
+ * a compiled frame looks like an interpreted one stopped at the same instruction, see VM.visitRoots().
+ * Compiled code holds no state of its own, so one class serves every VM running the same image.
+ * <p>
+ * The interpreter enters compiled code through a bridge generated for every compiled method,
+ * which takes the arguments off the VM expression stack and pushes the result back.
+ * A method that is already running in the interpreter can move over mid-loop through an OSR entry,
+ * which starts from the interpreter's frame instead. When to compile is up to TierManager.
+ */
+class JitCompiler {
+    static final int NO_OSR = -1;
+
+    private static final String VM_CLASS = "rs/myst/VM";
+    private static final String VM_DESCRIPTOR = "L" + VM_CLASS + ";";
+    private static final String ENTRY_DESCRIPTOR = "(" + VM_DESCRIPTOR + ")V";
+
+    private final MethodHandles.Lookup lookup;
+
+    @Getter
+    private final CodeAnalysis analysis;
+
+    /**
+     * The interpreters' code, compiled frames stop at its indexes like theirs do.
+     */
+    private final DecodedCode decoded;
+
+    /**
+     * Null if the program has none, it's never collected then.
+     */
+    private final StackMaps maps;
+
+    JitCompiler(MethodHandles.Lookup lookup, CodeAnalysis analysis, DecodedCode decoded, StackMaps maps) {
+        this.lookup = lookup;
+        this.analysis = analysis;
+        this.decoded = decoded;
+        this.maps = maps;
+    }
+
+    /**
+     * Compiles the method along with everything it calls into one class, throws IllegalArgumentException
+     * if any of them can't be compiled. With an OSR address the class also gets an entry that picks up
+     * a running activation of the method at that address, see osr().
+     */
+    Compilation compile(MethodInfo root, int osrAddress) {
+        List<MethodInfo> methods = new ArrayList<>(closure(root));
+
+        for (MethodInfo method : methods) {
+            if (!isCompilable(method)) {
+                throw new IllegalArgumentException("Method at " + method.getStart() + " has instructions that can't be compiled");
+            }
+        }
+
+        Set<MethodInfo> allocating = maps != null ? allocating(methods) : Set.of();
+
+        ClassFileWriter writer = new ClassFileWriter("rs/myst/JitCode");
+
+        for (MethodInfo method : methods) {
+            translate(writer, method, NO_OSR, allocating);
+            bridge(writer, method, allocating.contains(method));
+        }
+
+        if (osrAddress != NO_OSR) {
+            translate(writer, root, osrAddress, allocating);
+        }
+
+        Map<MethodInfo, MethodHandle> bridges = new LinkedHashMap<>();
+        MethodHandle osrEntry = null;
+
+        try {
+            Class<?> jitClass = lookup.defineHiddenClass(writer.toByteArray(), true,
+                    MethodHandles.Lookup.ClassOption.NESTMATE).lookupClass();
+
+            MethodType entryType = MethodType.methodType(void.class, VM.class);
+
+            for (MethodInfo method : methods) {
+                bridges.put(method, lookup.findStatic(jitClass, bridgeName(method), entryType));
+            }
+
+            if (osrAddress != NO_OSR) {
+                osrEntry = lookup.findStatic(jitClass, osrName(osrAddress), entryType);
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        return new Compilation(bridges, osrEntry);
+    }
+
+    /**
+     * The method and all methods it calls, directly or not.
+     */
+    private Set<MethodInfo> closure(MethodInfo root) {
+        Set<MethodInfo> methods = new LinkedHashSet<>();
+        Deque<MethodInfo> work = new ArrayDeque<>();
+
+        methods.add(root);
+        work.push(root);
+
+        while (!work.isEmpty()) {
+            MethodInfo method = work.pop();
+
+            for (int address = method.getStart(); address < method.getEnd(); address += analysis.instructionAt(address).getSize()) {
+                if (analysis.isReachable(address) && analysis.instructionAt(address) == OpCode.CALL) {
+                    MethodInfo callee = analysis.calleeAt(address);
+                    if (methods.add(callee)) work.push(callee);
+                }
+            }
+        }
+
+        return methods;
+    }
+
+    /**
+     * The methods that allocate or call one that does, directly or not. Calls only go to methods of the
+     * same closure, so they are all among methods.
+     */
+    private Set<MethodInfo> allocating(List<MethodInfo> methods) {
+        Set<MethodInfo> allocating = new HashSet<>();
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (MethodInfo method : methods) {
+                if (!allocating.contains(method) && allocates(method, allocating)) {
+                    allocating.add(method);
+                    changed = true;
+                }
+            }
+        }
+
+        return allocating;
+    }
+
+    private boolean allocates(MethodInfo method, Set<MethodInfo> allocating) {
+        for (int address = method.getStart(); address < method.getEnd(); address += analysis.instructionAt(address).getSize()) {
+            if (!analysis.isReachable(address)) continue;
+
+            switch (analysis.instructionAt(address)) {
+                case NEW, NEW_ARRAY -> {
+                    return true;
+                }
+                case CALL -> {
+                    if (allocating.contains(analysis.calleeAt(address))) return true;
+                }
+                default -> {}
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Instructions the interpreters don't implement stay interpreted, so compiled code behaves the same.
+     */
+    private boolean isCompilable(MethodInfo method) {
+        for (int address = method.getStart(); address < method.getEnd(); address += analysis.instructionAt(address).getSize()) {
+            if (!analysis.isReachable(address)) continue;
+
+            switch (analysis.instructionAt(address)) {
+                case INC, NEG, SHL, SHR, TRAP -> {
+                    return false;
+                }
+                default -> {}
+            }
+        }
+
+        return true;
+    }
+
+    private void translate(ClassFileWriter writer, MethodInfo method, int osrAddress, Set<MethodInfo> allocating) {
+        ByteBuffer codeData = analysis.getCodeData();
+        boolean osr = osrAddress != NO_OSR;
+
+        ClassFileWriter.MethodWriter out = osr
+                ? writer.method(ClassFileWriter.ACC_STATIC, osrName(osrAddress), ENTRY_DESCRIPTOR)
+                : writer.method(ClassFileWriter.ACC_STATIC, methodName(method), descriptor(method));
+
+        // the VM and the frame stack depth come after the params, an OSR entry only gets the VM
+        Frame frame = new Frame(method, osr ? 0 : method.getParamsCount(),
+                allocating.contains(method) ? localReferences(method) : null);
+
+        // room for the helper operands pushed on top of the expression stack
+        out.setMaxStack(method.getMaxStack() + 4);
+        out.setMaxLocals(frame.spill() + method.getMaxStack());
+
+        int[] labels = new int[method.getEnd() - method.getStart()];
+        Arrays.fill(labels, -1);
+
+        if (osr) {
+            osr(out, frame, osrAddress);
+            out.jump(ClassFileWriter.GOTO, label(out, labels, method, osrAddress));
+        }
+
+        for (int address = method.getStart(); address < method.getEnd(); address += analysis.instructionAt(address).getSize()) {
+            if (!analysis.isReachable(address)) continue;
+
+            if (analysis.getJumpTarget()[address]) {
+                out.mark(label(out, labels, method, address));
+            }
+
+            OpCode instruction = analysis.instructionAt(address);
+
+            switch (instruction) {
+                case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5 ->
+                        load(out, frame, instruction.ordinal() - OpCode.LOAD_0.ordinal());
+                case LOAD -> load(out, frame, codeData.get(address + 1));
+
+                case STORE_0, STORE_1, STORE_2, STORE_3, STORE_4, STORE_5 ->
+                        store(out, frame, instruction.ordinal() - OpCode.STORE_0.ordinal());
+                case STORE -> store(out, frame, codeData.get(address + 1));
+
+                case CONST_M1, CONST_0, CONST_1, CONST_2, CONST_3, CONST_4, CONST_5 ->
+                        out.iconst(instruction.ordinal() - OpCode.CONST_0.ordinal());
+                case CONST -> out.iconst(DecodedCode.getWord(codeData, address + 1));
+
+                case LOAD_GLOBAL -> {
+                    out.aload(frame.vm());
+                    out.getField(VM_CLASS, "globalData", "[I");
+                    out.iconst(DecodedCode.getShort(codeData, address + 1));
+                    out.op(ClassFileWriter.IALOAD);
+                }
+                case STORE_GLOBAL -> {
+                    out.aload(frame.vm());
+                    out.getField(VM_CLASS, "globalData", "[I");
+                    out.op(ClassFileWriter.SWAP);
+                    out.iconst(DecodedCode.getShort(codeData, address + 1));
+                    out.op(ClassFileWriter.SWAP);
+                    out.op(ClassFileWriter.IASTORE);
+                }
+
+                case ADD -> out.op(ClassFileWriter.IADD);
+                case SUB -> out.op(ClassFileWriter.ISUB);
+                case MUL -> out.op(ClassFileWriter.IMUL);
+                case DIV -> out.op(ClassFileWriter.IDIV);
+                case REM -> out.op(ClassFileWriter.IREM);
+
+                case POP -> out.op(ClassFileWriter.POP);
+                case DUP -> out.op(ClassFileWriter.DUP);
+                case DUP2 -> out.op(ClassFileWriter.DUP2);
+
+                case ARRAY_LOAD -> {
+                    receiverUnder(out, frame, 2);
+                    out.invokeVirtual(VM_CLASS, "arrayLoad", "(II)I");
+                }
+                case ARRAY_STORE -> {
+                    receiverUnder(out, frame, 3);
+                    out.invokeVirtual(VM_CLASS, "arrayStore", "(III)V");
+                }
+                case BARRAY_LOAD -> {
+                    receiverUnder(out, frame, 2);
+                    out.invokeVirtual(VM_CLASS, "byteArrayLoad", "(II)I");
+                }
+                case BARRAY_STORE -> {
+                    receiverUnder(out, frame, 3);
+                    out.invokeVirtual(VM_CLASS, "byteArrayStore", "(III)V");
+                }
+                case LENGTH -> {
+                    receiverUnder(out, frame, 1);
+                    out.invokeVirtual(VM_CLASS, "arrayLength", "(I)I");
+                }
+
+                case LOAD_FIELD -> {
+                    receiverUnder(out, frame, 1);
+                    out.iconst(codeData.get(address + 1));
+                    out.invokeVirtual(VM_CLASS, "loadField", "(II)I");
+                }
+                case STORE_FIELD -> {
+                    receiverUnder(out, frame, 2);
+                    out.iconst(codeData.get(address + 1) & 0xff);
+                    out.op(ClassFileWriter.SWAP);
+                    out.invokeVirtual(VM_CLASS, "storeField", "(III)V");
+                }
+
+                case JMP -> out.jump(ClassFileWriter.GOTO,
+                        label(out, labels, method, analysis.jumpTargetAt(address)));
+                case JEQ, JNE, JGT, JLE, JLT, JGE -> out.jump(compareJump(instruction),
+                        label(out, labels, method, analysis.jumpTargetAt(address)));
+
+                case NEW -> {
+                    int below = spill(out, frame, address, 0);
+                    out.aload(frame.vm());
+                    out.iconst(codeData.get(address + 1) & 0xff);
+                    out.iconst(decoded.entry(address));
+                    out.invokeVirtual(VM_CLASS, "newObject", "(II)I");
+                    restore(out, frame, below, true);
+                }
+                case NEW_ARRAY -> {
+                    int below = spill(out, frame, address, 1);
+                    receiverUnder(out, frame, 1);
+                    out.iconst(codeData.get(address + 1) & 0xff);
+                    out.iconst(decoded.entry(address));
+                    out.invokeVirtual(VM_CLASS, "newArray", "(III)I");
+                    restore(out, frame, below, true);
+                }
+
+                case CALL -> {
+                    MethodInfo callee = analysis.calleeAt(address);
+
+                    if (allocating.contains(callee)) {
+                        int below = spill(out, frame, address, callee.getParamsCount());
+
+                        // the callee's frame goes on top, stopped at the return address like an interpreted call
+                        out.aload(frame.vm());
+                        out.iconst(decoded.entry(address + instruction.getSize()));
+                        out.invokeVirtual(VM_CLASS, "fpush", "(I)V");
+
+                        out.aload(frame.vm());
+                        callDepth(out, frame);
+                        out.invokeStatic(writer.getClassName(), methodName(callee), descriptor(callee));
+
+                        restore(out, frame, below, callee.isReturnsValue());
+                    } else {
+                        out.aload(frame.vm());
+                        callDepth(out, frame);
+                        out.invokeStatic(writer.getClassName(), methodName(callee), descriptor(callee));
+                    }
+                }
+
+                case ENTER -> {
+                    // the saved frame base, params and locals, an OSR entry starts out in the interpreter's frame
+                    if (!osr) {
+                        out.iload(frame.depth());
+                        out.iconst(1 + method.getParamsCount() + method.getLocalsCount());
+                        out.op(ClassFileWriter.IADD);
+                        out.istore(frame.depth());
+
+                        if (frame.collected()) {
+                            out.aload(frame.vm());
+                            out.iconst(method.getParamsCount() + method.getLocalsCount());
+                            out.invokeVirtual(VM_CLASS, "enterCompiled", "(I)I");
+                            out.istore(frame.base());
+                        } else {
+                            out.aload(frame.vm());
+                            out.iload(frame.depth());
+                            out.invokeVirtual(VM_CLASS, "chargeFrame", "(I)V");
+                        }
+
+                        // reference params move into the frame, which starts out as 0
+                        for (int i = 0; i < method.getParamsCount(); i++) {
+                            if (frame.isReference(i)) {
+                                out.iload(frame.local(i));
+                                store(out, frame, i);
+                            }
+                        }
+                    }
+
+                    // params arrive in the first JVM locals, the rest of the locals start out as 0
+                    for (int i = method.getParamsCount(); i < method.getFrameLocals(); i++) {
+                        if (!frame.isReference(i)) {
+                            out.iconst(0);
+                            out.istore(frame.local(i));
+                        }
+                    }
+                }
+
+                case EXIT, NOP -> {}
+
+                case RETURN -> {
+                    if (osr) {
+                        // the interpreter started this activation, the result goes back the way it expects it
+                        if (method.isReturnsValue()) {
+                            receiverUnder(out, frame, 1);
+                            out.invokeVirtual(VM_CLASS, "epush", "(I)V");
+                        }
+                        out.op(ClassFileWriter.RETURN);
+                    } else {
+                        if (frame.collected()) {
+                            out.aload(frame.vm());
+                            out.invokeVirtual(VM_CLASS, "leave", "()V");
+                        }
+
+                        out.op(method.isReturnsValue() ? ClassFileWriter.IRETURN : ClassFileWriter.RETURN);
+                    }
+                }
+
+                case READ -> {
+                    out.aload(frame.vm());
+                    out.invokeVirtual(VM_CLASS, "read", "()I");
+                }
+                case BREAD -> {
+                    out.aload(frame.vm());
+                    out.invokeVirtual(VM_CLASS, "readByte", "()I");
+                }
+                case PRINT -> {
+                    receiverUnder(out, frame, 1);
+                    out.invokeVirtual(VM_CLASS, "print", "(I)V");
+                }
+                case BPRINT -> {
+                    receiverUnder(out, frame, 1);
+                    out.invokeVirtual(VM_CLASS, "printChar", "(I)V");
+                }
+
+                default -> throw new IllegalArgumentException("Unsupported instruction " + instruction.getNiceName());
+            }
+        }
+    }
+
+    /**
+     * References among the method's locals, from the stack maps.
+     */
+    private boolean[] localReferences(MethodInfo method) {
+        TypeTable.MethodEntry entry = maps.methodAt(method.getStart());
+
+        if (entry == null || entry.getAddress() != method.getStart()) {
+            throw new IllegalArgumentException("No stack map for method at " + method.getStart());
+        }
+
+        return maps.localReferences(entry);
+    }
+
+    /**
+     * Reference locals of a method with its frame on the frame stack are read from there, where the
+     * collector updates them, the rest live in JVM locals.
+     */
+    private void load(ClassFileWriter.MethodWriter out, Frame frame, int index) {
+        if (frame.isReference(index)) {
+            frameSlot(out, frame, index);
+            out.op(ClassFileWriter.IALOAD);
+        } else {
+            out.iload(frame.local(index));
+        }
+    }
+
+    private void store(ClassFileWriter.MethodWriter out, Frame frame, int index) {
+        if (frame.isReference(index)) {
+            out.istore(frame.scratch());
+            frameSlot(out, frame, index);
+            out.iload(frame.scratch());
+            out.op(ClassFileWriter.IASTORE);
+        } else {
+            out.istore(frame.local(index));
+        }
+    }
+
+    /**
+     * Pushes the frame stack and the index of the local in the method's frame on it.
+     */
+    private void frameSlot(ClassFileWriter.MethodWriter out, Frame frame, int index) {
+        out.aload(frame.vm());
+        out.getField(VM_CLASS, "fstack", "[I");
+        out.iload(frame.base());
+        out.iconst(index);
+        out.op(ClassFileWriter.IADD);
+    }
+
+    /**
+     * Before an allocation, or a call that can get to one, moves the values pending under the instruction's
+     * operands onto the VM expression stack, where the collector finds them and updates the references
+     * among them. Returns how many, for restore(). Methods that aren't collected move nothing.
+     */
+    private int spill(ClassFileWriter.MethodWriter out, Frame frame, int address, int operands) {
+        int depth = analysis.getStackDepth()[address];
+        int below = depth - operands;
+
+        if (!frame.collected() || below == 0) return 0;
+
+        for (int i = depth - 1; i >= 0; i--) {
+            out.istore(frame.spill() + i);
+        }
+
+        for (int i = 0; i < below; i++) {
+            out.aload(frame.vm());
+            out.iload(frame.spill() + i);
+            out.invokeVirtual(VM_CLASS, "epush", "(I)V");
+        }
+
+        for (int i = below; i < depth; i++) {
+            out.iload(frame.spill() + i);
+        }
+
+        return below;
+    }
+
+    /**
+     * Takes the values spill() moved back onto the operand stack, under the instruction's result if it has one.
+     */
+    private void restore(ClassFileWriter.MethodWriter out, Frame frame, int below, boolean result) {
+        if (below == 0) return;
+
+        if (result) out.istore(frame.scratch());
+
+        for (int i = below - 1; i >= 0; i--) {
+            out.aload(frame.vm());
+            out.invokeVirtual(VM_CLASS, "epop", "()I");
+            out.istore(frame.spill() + i);
+        }
+
+        for (int i = 0; i < below; i++) {
+            out.iload(frame.spill() + i);
+        }
+
+        if (result) out.iload(frame.scratch());
+    }
+
+    /**
+     * Pushes the frame stack depth a call passes on, the caller's plus the return address.
+     */
+    private void callDepth(ClassFileWriter.MethodWriter out, Frame frame) {
+        out.iload(frame.depth());
+        out.iconst(1);
+        out.op(ClassFileWriter.IADD);
+    }
+
+    /**
+     * Slides the VM in under the top operands, so an instance helper can take them as arguments.
+     */
+    private void receiverUnder(ClassFileWriter.MethodWriter out, Frame frame, int operands) {
+        switch (operands) {
+            case 1 -> {
+                out.aload(frame.vm());
+                out.op(ClassFileWriter.SWAP);
+            }
+            case 2 -> {
+                out.aload(frame.vm());
+                out.op(ClassFileWriter.DUP_X2);
+                out.op(ClassFileWriter.POP);
+            }
+            case 3 -> {
+                // there is no dup_x3, the top one waits in a local
+                out.istore(frame.scratch());
+                receiverUnder(out, frame, 2);
+                out.iload(frame.scratch());
+            }
+            default -> throw new IllegalArgumentException("Can't reach under " + operands + " operands");
+        }
+    }
+
+    /**
+     * Entry point for the interpreter, moves the arguments from the expression stack into the compiled method.
+     * The interpreter has pushed the return address, a method with its frame on the frame stack takes it off
+     * along with the frame, for any other one the bridge does.
+     */
+    private void bridge(ClassFileWriter writer, MethodInfo method, boolean framed) {
+        ClassFileWriter.MethodWriter out = writer.method(ClassFileWriter.ACC_STATIC,
+                bridgeName(method), ENTRY_DESCRIPTOR);
+
+        int params = method.getParamsCount();
+
+        out.setMaxStack(params + 3);
+        out.setMaxLocals(params + 1);
+
+        for (int i = params; i > 0; i--) {
+            out.aload(0);
+            out.invokeVirtual(VM_CLASS, "epop", "()I");
+            out.istore(i);
+        }
+
+        for (int i = 1; i <= params; i++) {
+            out.iload(i);
+        }
+
+        out.aload(0);
+        out.aload(0);
+        out.getField(VM_CLASS, "fsp", "I");
+        out.invokeStatic(writer.getClassName(), methodName(method), descriptor(method));
+
+        if (!framed) {
+            out.aload(0);
+            out.invokeVirtual(VM_CLASS, "fpop", "()I");
+            out.op(ClassFileWriter.POP);
+        }
+
+        if (method.isReturnsValue()) {
+            out.aload(0);
+            out.op(ClassFileWriter.SWAP);
+            out.invokeVirtual(VM_CLASS, "epush", "(I)V");
+        }
+
+        out.op(ClassFileWriter.RETURN);
+    }
+
+    /**
+     * Prologue of an OSR entry. Copies the interpreter's frame into the JVM locals and moves
+     * the values the method has on the expression stack at the loop header onto the operand stack.
+     * Reference locals that live on the frame stack stay where they are, in the interpreter's frame.
+     */
+    private void osr(ClassFileWriter.MethodWriter out, Frame frame, int address) {
+        int locals = frame.method().getFrameLocals();
+        int depth = analysis.getStackDepth()[address];
+        int spill = frame.spill();
+
+        out.aload(frame.vm());
+        out.getField(VM_CLASS, "fsp", "I");
+        out.istore(frame.depth());
+
+        out.aload(frame.vm());
+        out.getField(VM_CLASS, "fbp", "I");
+        out.istore(frame.base());
+
+        for (int i = 0; i < locals; i++) {
+            if (frame.isReference(i)) continue;
+
+            out.aload(frame.vm());
+            out.getField(VM_CLASS, "fstack", "[I");
+            out.aload(frame.vm());
+            out.getField(VM_CLASS, "fbp", "I");
+            out.iconst(i);
+            out.op(ClassFileWriter.IADD);
+            out.op(ClassFileWriter.IALOAD);
+            out.istore(frame.local(i));
+        }
+
+        for (int i = depth - 1; i >= 0; i--) {
+            out.aload(frame.vm());
+            out.invokeVirtual(VM_CLASS, "epop", "()I");
+            out.istore(spill + i);
+        }
+
+        for (int i = 0; i < depth; i++) {
+            out.iload(spill + i);
+        }
+    }
+
+    private int label(ClassFileWriter.MethodWriter out, int[] labels, MethodInfo method, int address) {
+        int offset = address - method.getStart();
+
+        if (labels[offset] < 0) labels[offset] = out.newLabel();
+
+        return labels[offset];
+    }
+
+    private static int compareJump(OpCode instruction) {
+        return switch (instruction) {
+            case JEQ -> ClassFileWriter.IF_ICMPEQ;
+            case JNE -> ClassFileWriter.IF_ICMPNE;
+            case JGT -> ClassFileWriter.IF_ICMPGT;
+            case JLE -> ClassFileWriter.IF_ICMPLE;
+            case JLT -> ClassFileWriter.IF_ICMPLT;
+            case JGE -> ClassFileWriter.IF_ICMPGE;
+            default -> throw new IllegalArgumentException(instruction.getNiceName());
+        };
+    }
+
+    private static String methodName(MethodInfo method) {
+        return "m" + method.getStart();
+    }
+
+    private static String bridgeName(MethodInfo method) {
+        return "invoke" + method.getStart();
+    }
+
+    private static String osrName(int address) {
+        return "osr" + address;
+    }
+
+    private static String descriptor(MethodInfo method) {
+        return "(" + "I".repeat(method.getParamsCount()) + VM_DESCRIPTOR + "I)" + (method.isReturnsValue() ? "I" : "V");
+    }
+
+    /**
+     * Where things live in the JVM locals of a translated method: the MicroJava locals in order,
+     * with the VM and the frame stack depth wedged in at vm, then a scratch slot, the frame's base on the
+     * frame stack and room to spill the operand stack. References are the reference locals of a method
+     * that keeps them on the frame stack, null for any other.
+     */
+    private record Frame(MethodInfo method, int vm, boolean[] references) {
+        int local(int index) {
+            return index < vm ? index : index + 2;
+        }
+
+        int depth() {
+            return vm + 1;
+        }
+
+        int scratch() {
+            return method.getFrameLocals() + 2;
+        }
+
+        int base() {
+            return scratch() + 1;
+        }
+
+        int spill() {
+            return base() + 1;
+        }
+
+        boolean collected() {
+            return references != null;
+        }
+
+        boolean isReference(int index) {
+            return references != null && index >= 0 && index < references.length && references[index];
+        }
+    }
+
+    /**
+     * What a compile produced, all entries take the VM and their inputs from its stacks.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static class Compilation {
+        /**
+         * Bridge of each compiled method, for calls from the interpreter.
+         */
+        private final Map<MethodInfo, MethodHandle> bridges;
+
+        /**
+         * Continues a running activation at the OSR address, null if none was asked for.
+         */
+        private final MethodHandle osrEntry;
+    }
+}
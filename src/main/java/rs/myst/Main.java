@@ -1,8 +1,8 @@
 package rs.myst;
 
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 
 public class Main {
     public static void main(String[] args) throws IOException {
@@ -14,24 +14,40 @@ public class Main {
             return;
         }
 
-        try (FileReader reader = new FileReader(sampleUrl.getPath())) {
-            final Scanner scanner = new Scanner(reader);
+        String objFile = compile(sampleUrl.getPath());
 
-            final Parser parser = new Parser(scanner);
+        if (objFile != null) {
+            OpCodeBuffer.printCode();
 
-            parser.parse();
+            try {
+                VM.runFromFile(objFile);
+            } catch (VMException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
 
-            if (!parser.parsedSuccessfully()) {
-                System.out.println("File has " + parser.getErrorCount() + " error(s).");
-            } else {
-                OpCodeBuffer.createObjectFile(sampleUrl.getPath());
+    /**
+     * Compiles a source file into an object file next to it.
+     * Returns the path of the object file, or null if the source has errors.
+     */
+    public static String compile(String sourcePath) throws IOException {
+        final Scanner scanner = Scanner.open(Path.of(sourcePath));
 
-                OpCodeBuffer.printCode();
+        final Parser parser = new Parser(scanner);
 
-                String objFile = sampleUrl.getPath().substring(0, sampleUrl.getPath().lastIndexOf(".")) + ".obj";
+        OpCodeBuffer.reset();
 
-                VM.runFromFile(objFile);
-            }
+        parser.parse();
+
+        if (!parser.parsedSuccessfully()) {
+            System.out.println("File has " + parser.getErrorCount() + " error(s).");
+            return null;
         }
+
+        OpCodeBuffer.createObjectFile(sourcePath);
+
+        return sourcePath.substring(0, sourcePath.lastIndexOf(".")) + ".obj";
     }
-}
\ No newline at end of file
+}
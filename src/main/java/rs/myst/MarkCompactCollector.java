@@ -0,0 +1,193 @@
+package rs.myst;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static rs.myst.HeapLayout.GC_WORD;
+import static rs.myst.HeapLayout.HEADER_WORDS;
+import static rs.myst.HeapLayout.HEAP_START;
+import static rs.myst.HeapLayout.LENGTH_WORD;
+import static rs.myst.HeapLayout.TYPE_WORD;
+
+/**
+ * Mark-compact collection of the VM heap in the Lisp 2 style, objects keep their order and slide down
+ * over the garbage so allocation stays a bump of the top pointer:
+ * <ol>
+ *     <li>mark everything reachable from the roots,</li>
+ *     <li>walk the heap and note in each live object's gc word where it will go,</li>
+ *     <li>point the roots and every reference in live objects at the new places,</li>
+ *     <li>walk the heap again and move the live objects.</li>
+ * </ol>
+ * Roots are precise, the VM hands over exactly the slots that hold references, see StackMaps.
+ * <p>
+ * With a nursery the heap is two segments, the old generation from the start and the nursery at the end.
+ * Live objects of both slide down into the old generation, which always moves them down since the nursery
+ * comes last, so a full collection empties the nursery as well.
+ */
+class MarkCompactCollector {
+    /**
+     * Something that holds references outside the heap, visits each slot holding one.
+     */
+    interface Roots {
+        void forEach(RootVisitor visitor);
+    }
+
+    interface RootVisitor {
+        void visit(int[] slots, int index);
+    }
+
+    private static final int MARKED = -1;
+
+    private final HeapLayout layout;
+
+    private int[] markStack = new int[256];
+    private int markTop;
+
+    /**
+     * Segments of the heap being collected, start and end of each.
+     */
+    private final int[] starts = new int[2];
+    private final int[] ends = new int[2];
+
+    MarkCompactCollector(HeapLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Collects the heap between HEAP_START and top, returns the new top. Everything above it is zeroed.
+     */
+    int collect(IntBuffer heap, int top, Roots roots) {
+        return collect(heap, top, top, top, roots);
+    }
+
+    /**
+     * Collects the old generation between HEAP_START and oldTop together with the nursery between
+     * youngStart and youngTop, returns the new top of the old generation. The rest of both is zeroed.
+     */
+    int collect(IntBuffer heap, int oldTop, int youngStart, int youngTop, Roots roots) {
+        starts[0] = HEAP_START;
+        ends[0] = oldTop;
+        starts[1] = youngStart;
+        ends[1] = youngTop;
+
+        roots.forEach((slots, index) -> mark(heap, slots[index]));
+        drainMarkStack(heap);
+
+        int newTop = computeForwarding(heap);
+
+        roots.forEach((slots, index) -> slots[index] = forward(heap, slots[index]));
+        updateReferences(heap);
+
+        move(heap);
+
+        HeapMemory.clear(heap, newTop, oldTop);
+        HeapMemory.clear(heap, Math.max(newTop, youngStart), youngTop);
+
+        return newTop;
+    }
+
+    private boolean inHeap(int address) {
+        for (int s = 0; s < starts.length; s++) {
+            if (address >= starts[s] + HEADER_WORDS && address < ends[s]) return true;
+        }
+
+        return false;
+    }
+
+    private void mark(IntBuffer heap, int address) {
+        if (address == 0) return;
+
+        if (!inHeap(address)) {
+            throw new IllegalStateException("Reference " + address + " outside of the heap");
+        }
+
+        if (heap.get(address + GC_WORD) != 0) return;
+
+        heap.put(address + GC_WORD, MARKED);
+
+        if (markTop == markStack.length) markStack = Arrays.copyOf(markStack, markTop * 2);
+        markStack[markTop++] = address;
+    }
+
+    private void drainMarkStack(IntBuffer heap) {
+        while (markTop > 0) {
+            int address = markStack[--markTop];
+            int type = heap.get(address + TYPE_WORD);
+
+            if (layout.isArray(type)) {
+                if (!layout.hasReferenceElements(type)) continue;
+
+                int length = heap.get(address + LENGTH_WORD);
+                for (int i = 0; i < length; i++) mark(heap, heap.get(address + i));
+            } else {
+                for (int field : layout.referenceFields(type)) mark(heap, heap.get(address + field));
+            }
+        }
+    }
+
+    private int computeForwarding(IntBuffer heap) {
+        int free = HEAP_START;
+
+        for (int s = 0; s < starts.length; s++) {
+            for (int block = starts[s]; block < ends[s]; ) {
+                int address = block + HEADER_WORDS;
+                int words = layout.blockWords(heap, address);
+
+                if (heap.get(address + GC_WORD) != 0) {
+                    heap.put(address + GC_WORD, free + HEADER_WORDS);
+                    free += words;
+                }
+
+                block += words;
+            }
+        }
+
+        return free;
+    }
+
+    private static int forward(IntBuffer heap, int address) {
+        return address == 0 ? 0 : heap.get(address + GC_WORD);
+    }
+
+    private void updateReferences(IntBuffer heap) {
+        for (int s = 0; s < starts.length; s++) {
+            for (int block = starts[s]; block < ends[s]; ) {
+                int address = block + HEADER_WORDS;
+                int type = heap.get(address + TYPE_WORD);
+
+                if (heap.get(address + GC_WORD) != 0) {
+                    if (layout.isArray(type)) {
+                        if (layout.hasReferenceElements(type)) {
+                            int length = heap.get(address + LENGTH_WORD);
+                            for (int i = 0; i < length; i++) heap.put(address + i, forward(heap, heap.get(address + i)));
+                        }
+                    } else {
+                        for (int field : layout.referenceFields(type)) {
+                            heap.put(address + field, forward(heap, heap.get(address + field)));
+                        }
+                    }
+                }
+
+                block += layout.blockWords(heap, address);
+            }
+        }
+    }
+
+    private void move(IntBuffer heap) {
+        for (int s = 0; s < starts.length; s++) {
+            for (int block = starts[s]; block < ends[s]; ) {
+                int address = block + HEADER_WORDS;
+                int words = layout.blockWords(heap, address);
+                int destination = heap.get(address + GC_WORD);
+
+                if (destination != 0) {
+                    // only ever moves down, so the blocks still to be visited stay intact
+                    HeapMemory.copy(heap, block, destination - HEADER_WORDS, words);
+                    heap.put(destination + GC_WORD, 0);
+                }
+
+                block += words;
+            }
+        }
+    }
+}
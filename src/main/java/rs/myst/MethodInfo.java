@@ -0,0 +1,42 @@
+package rs.myst;
+
+import lombok.Getter;
+
+/**
+ * A method in the code section, from its enter instruction up to the next method.
+ */
+@Getter
+public class MethodInfo {
+    private final int start;
+    private final int end;
+
+    private final int paramsCount;
+    private final int localsCount;
+
+    private final boolean returnsValue;
+
+    private int maxStack;
+
+    public MethodInfo(int start, int end, int paramsCount, int localsCount, boolean returnsValue) {
+        this.start = start;
+        this.end = end;
+        this.paramsCount = paramsCount;
+        this.localsCount = localsCount;
+        this.returnsValue = returnsValue;
+    }
+
+    /**
+     * Frame slots the method addresses, enter counts the params as locals too.
+     */
+    public int getFrameLocals() {
+        return Math.max(paramsCount, localsCount);
+    }
+
+    public boolean contains(int address) {
+        return address >= start && address < end;
+    }
+
+    void updateMaxStack(int depth) {
+        maxStack = Math.max(maxStack, depth);
+    }
+}
@@ -0,0 +1,27 @@
+package rs.myst;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Snapshot of how a method ran in TIERED mode.
+ * Only the interpreter counts, calls and loops inside compiled code don't show up here.
+ */
+@Getter
+@RequiredArgsConstructor
+public class MethodStats {
+    /**
+     * Byte address of the method's enter instruction.
+     */
+    private final int address;
+
+    private final int invocations;
+
+    private final int backedges;
+
+    private final Tier tier;
+
+    public String toString() {
+        return String.format("method at %d: %s, invocations: %d, backedges: %d", address, tier, invocations, backedges);
+    }
+}
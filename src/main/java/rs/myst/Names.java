@@ -0,0 +1,83 @@
+package rs.myst;
+
+import java.util.Arrays;
+
+/**
+ * Identifiers interned to dense ids, in the order they're first seen. Looked up straight from the scanner's
+ * characters, so a name that's already known allocates nothing, and every id has one String.
+ */
+final class Names {
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size;
+
+    // open addressing, id + 1 per slot, 0 for empty
+    private int[] table = new int[512];
+
+    int intern(char[] chars, int length) {
+        // the same as String.hashCode
+        int hash = 0;
+        for (int i = 0; i < length; i++) hash = 31 * hash + chars[i];
+
+        int mask = table.length - 1;
+
+        for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+            int id = table[slot] - 1;
+
+            if (id < 0) {
+                table[slot] = add(new String(chars, 0, length), hash) + 1;
+                if (size * 2 > table.length) rehash();
+
+                return size - 1;
+            }
+
+            if (hashes[id] == hash && matches(names[id], chars, length)) return id;
+        }
+    }
+
+    int intern(String name) {
+        return intern(name.toCharArray(), name.length());
+    }
+
+    String get(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int add(String name, int hash) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+
+        names[size] = name;
+        hashes[size] = hash;
+
+        return size++;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) slot = slot + 1 & mask;
+
+            table[slot] = id + 1;
+        }
+    }
+
+    private static boolean matches(String name, char[] chars, int length) {
+        if (name.length() != length) return false;
+
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[i]) return false;
+        }
+
+        return true;
+    }
+}
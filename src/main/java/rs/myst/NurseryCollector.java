@@ -0,0 +1,93 @@
+package rs.myst;
+
+import java.nio.IntBuffer;
+
+import static rs.myst.HeapLayout.GC_WORD;
+import static rs.myst.HeapLayout.HEADER_WORDS;
+import static rs.myst.HeapLayout.LENGTH_WORD;
+import static rs.myst.HeapLayout.TYPE_WORD;
+
+/**
+ * Collects only the nursery, the young end of the heap where new objects are bump allocated.
+ * Objects that are still reachable get copied to the top of the old generation in the Cheney style,
+ * the copies themselves are the queue of objects whose references still need evacuating, and the
+ * nursery is empty afterwards. Everything in it died, so the work is proportional to the survivors.
+ * <p>
+ * Besides the VM roots, old objects can point into the nursery. The VM's write barrier remembers every old
+ * object that got a reference to a young one stored in it, marking it in its gc word so it's remembered once.
+ * <p>
+ * The caller makes sure the old generation has room for the whole nursery, so evacuation can't fail.
+ */
+class NurseryCollector {
+    static final int REMEMBERED = 1;
+
+    private final HeapLayout layout;
+
+    private IntBuffer heap;
+    private int youngStart;
+    private int youngTop;
+    private int top;
+
+    NurseryCollector(HeapLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Evacuates the survivors of the nursery between youngStart and youngTop to oldTop, returns the new oldTop.
+     * The nursery is zeroed.
+     */
+    int collect(IntBuffer heap, int oldTop, int youngStart, int youngTop, MarkCompactCollector.Roots roots,
+                int[] remembered, int rememberedCount) {
+        this.heap = heap;
+        this.youngStart = youngStart;
+        this.youngTop = youngTop;
+        this.top = oldTop;
+
+        roots.forEach((slots, index) -> slots[index] = evacuate(slots[index]));
+
+        for (int i = 0; i < rememberedCount; i++) {
+            heap.put(remembered[i] + GC_WORD, 0);
+            evacuateReferences(remembered[i]);
+        }
+
+        for (int block = oldTop; block < top; block += layout.blockWords(heap, block + HEADER_WORDS)) {
+            evacuateReferences(block + HEADER_WORDS);
+        }
+
+        HeapMemory.clear(heap, youngStart, youngTop);
+
+        this.heap = null;
+
+        return top;
+    }
+
+    private int evacuate(int address) {
+        if (address < youngStart || address >= youngTop) return address; // null or old
+
+        int forwarded = heap.get(address + GC_WORD);
+        if (forwarded != 0) return forwarded;
+
+        int words = layout.blockWords(heap, address);
+
+        HeapMemory.copy(heap, address - HEADER_WORDS, top, words);
+
+        int moved = top + HEADER_WORDS;
+        top += words;
+
+        heap.put(address + GC_WORD, moved);
+        return moved;
+    }
+
+    private void evacuateReferences(int address) {
+        int type = heap.get(address + TYPE_WORD);
+
+        if (layout.isArray(type)) {
+            if (!layout.hasReferenceElements(type)) return;
+
+            int length = heap.get(address + LENGTH_WORD);
+            for (int i = 0; i < length; i++) heap.put(address + i, evacuate(heap.get(address + i)));
+        } else {
+            for (int field : layout.referenceFields(type)) heap.put(address + field, evacuate(heap.get(address + field)));
+        }
+    }
+}
@@ -13,16 +13,16 @@ public enum OpCode {
     LOAD_3("load_3", 1),           // 4
     LOAD_4("load_4", 1),           // 5
     LOAD_5("load_5", 1),           // 6
-    LOAD("load", 5),               // 7
+    LOAD("load", 2),               // 7
     STORE_0("store_0", 1),         // 8
     STORE_1("store_1", 1),         // 9
     STORE_2("store_2", 1),         // 10
     STORE_3("store_3", 1),         // 11
     STORE_4("store_4", 1),         // 12
     STORE_5("store_5", 1),         // 13
-    STORE("store", 5),             // 14
-    LOAD_GLOBAL("lglobal", 5),     // 15
-    STORE_GLOBAL("sglobal", 5),    // 16
+    STORE("store", 2),             // 14
+    LOAD_GLOBAL("lglobal", 3),     // 15
+    STORE_GLOBAL("sglobal", 3),    // 16
     LOAD_FIELD("lfield", 2),       // 17
     STORE_FIELD("sfield", 2),      // 18
     CONST("const", 5),             // 19
@@ -42,7 +42,7 @@ public enum OpCode {
     SHL("shl", 1),                 // 33
     SHR("shr", 1),                 // 34
     INC("inc", 3),                 // 35
-    NEW("new", 5),                 // 36
+    NEW("new", 2),                 // 36
     NEW_ARRAY("newarr", 2),        // 37
     ARRAY_LOAD("aload", 1),        // 38
     ARRAY_STORE("astore", 1),      // 39
@@ -67,7 +67,28 @@ public enum OpCode {
     PRINT("print", 1),             // 58
     BREAD("bread", 1),             // 59
     BPRINT("bprint", 1),           // 60
-    TRAP("trap", 2);               // 61
+    TRAP("trap", 2),               // 61
+
+    /*
+     * Superinstructions, only DecodedCode creates them when it fuses the sequence in the comment.
+     * Picked from the pair profile of the sample programs, see OpCodePairProfile in the benchmarks.
+     * They don't exist in object files, so they have no size.
+     */
+    LOAD_LOAD("load_load", 0),                         // 62 load a, load b
+    LOAD_CONST_ADD("load_const_add", 0),               // 63 load a, const k, add (or sub with -k)
+    LOAD_CONST_ADD_STORE("load_const_add_store", 0),   // 64 load a, const k, add (or sub), store b
+    LOAD_CONST_JEQ("load_const_jeq", 0),               // 65 load a, const k, jeq
+    LOAD_CONST_JNE("load_const_jne", 0),               // 66 load a, const k, jne
+    LOAD_CONST_JGT("load_const_jgt", 0),               // 67 load a, const k, jgt
+    LOAD_CONST_JLE("load_const_jle", 0),               // 68 load a, const k, jle
+    LOAD_CONST_JLT("load_const_jlt", 0),               // 69 load a, const k, jlt
+    LOAD_CONST_JGE("load_const_jge", 0),               // 70 load a, const k, jge
+    EXIT_RETURN("exit_return", 0);                     // 71 exit, return
+
+    /**
+     * Instructions up to trap can appear in object files.
+     */
+    public static final int BYTECODE_COUNT = TRAP.ordinal() + 1;
 
     private final String niceName;
     private final int size;
@@ -1,14 +1,26 @@
 package rs.myst;
 
-import java.io.FileOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static rs.myst.OpCode.*;
 
 public class OpCodeBuffer {
-    private static final byte[] buffer = new byte[3000];
+    /**
+     * Call targets and method addresses are unsigned shorts.
+     */
+    public static final int MAX_CODE_SIZE = 0x10000;
+
+    private static byte[] buffer = new byte[4096];
 
     private static final int CODE_START_ADDRESS = 10;
     private static final int HEADER_MAIN_ADDRESS = 2;
@@ -17,7 +29,61 @@ public class OpCodeBuffer {
     public static int pc = CODE_START_ADDRESS;
     public static int mainStart;
 
+    /**
+     * Written after the code, see TypeTable.
+     */
+    public static TypeTable types = new TypeTable();
+    private static final Map<Type, Integer> classTypes = new IdentityHashMap<>();
+
+    /**
+     * Starts a new compilation unit, the buffer is shared by every parse in the process.
+     */
+    public static void reset() {
+        pc = CODE_START_ADDRESS;
+        mainStart = 0;
+        types = new TypeTable();
+        classTypes.clear();
+    }
+
+    /**
+     * Number of the type in the type table, classes and array types get added the first time they're seen.
+     */
+    public static int typeId(Type type) {
+        if (type == null) return TypeTable.NONE;
+
+        return switch (type.getKind()) {
+            case INT -> TypeTable.INT;
+            case CHAR -> TypeTable.CHAR;
+            case ARRAY -> types.arrayOf(typeId(type.getArrayElementType()));
+            case CLASS -> {
+                Integer id = classTypes.get(type);
+
+                if (id == null) {
+                    // numbered before the fields, so a field can have the type of its own class
+                    id = types.addClass(type.getName());
+                    classTypes.put(type, id);
+                    types.setFieldTypes(id, typeIds(type.getFields()));
+                }
+
+                yield id;
+            }
+            case NONE -> TypeTable.NONE;
+        };
+    }
+
+    /**
+     * Types of the variables in address order.
+     */
+    public static int[] typeIds(List<Symbol> variables) {
+        return variables.stream()
+                .filter(symbol -> symbol.getKind() == SymbolKind.VARIABLE)
+                .sorted((a, b) -> Integer.compare(a.getAddress(), b.getAddress()))
+                .mapToInt(symbol -> typeId(symbol.getType()))
+                .toArray();
+    }
+
     public static void put(int x) {
+        if (pc == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
         buffer[pc++] = (byte) x;
     }
 
@@ -100,7 +166,13 @@ public class OpCodeBuffer {
 
     public static void assign(Descriptor a, Descriptor b) {
         load(b);
+        store(a);
+    }
 
+    /**
+     * Stores the value on top of the stack to a, whose address and index are already under it.
+     */
+    public static void store(Descriptor a) {
         switch (a.getKind()) {
             case LOCAL -> {
                 if (a.getAddress() >= 0 && a.getAddress() <= 5) put(STORE_0.ordinal() + a.getAddress());
@@ -114,7 +186,7 @@ public class OpCodeBuffer {
 
             case FIELD -> {
                 put(STORE_FIELD.ordinal());
-                put2(a.getAddress());
+                put(a.getAddress());
             }
 
             case ARRAY_ELEMENT -> {
@@ -126,6 +198,25 @@ public class OpCodeBuffer {
         }
     }
 
+    /**
+     * Adds delta to a, for ++ and --. The object of a field or the array and index of an element are already
+     * on the stack, they're duplicated so the store still finds them under the new value.
+     */
+    public static void increment(Descriptor a, int delta) {
+        DescriptorKind kind = a.getKind();
+
+        if (kind == DescriptorKind.FIELD) put(DUP);
+        else if (kind == DescriptorKind.ARRAY_ELEMENT) put(DUP2);
+
+        load(a);
+        a.setKind(kind);
+
+        loadConst(delta);
+        put(ADD);
+
+        store(a);
+    }
+
     public static void trueJump(Descriptor conditionDescriptor) {
         put(conditionDescriptor.getCondition().getJumpOpCode());
         conditionDescriptor.getTrueLabel().put();
@@ -148,16 +239,51 @@ public class OpCodeBuffer {
         put4(pc - 1, HEADER_SIZE_ADDRESS);
     }
 
+    /**
+     * Writes the code and the type table to the input file's name with .obj in place of its extension.
+     * The file is written next to it under a temporary name and then moved over the old one, a CodeImage
+     * still mapping the old file keeps reading it as it was instead of seeing it truncated.
+     */
     public static void createObjectFile(String inputFile) {
+        Events.ObjectFile event = new Events.ObjectFile();
+        event.begin();
+
         String outputFile = inputFile.substring(0, inputFile.lastIndexOf("."));
+        Path target = Path.of(outputFile + ".obj").toAbsolutePath();
 
         writeHeader();
 
-        try (OutputStream os = new FileOutputStream(outputFile + ".obj")) {
-            os.write(Arrays.copyOf(buffer, pc));
+        Path temp = null;
+
+        try {
+            temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                os.write(Arrays.copyOf(buffer, pc));
+
+                DataOutputStream out = new DataOutputStream(os);
+                types.writeTo(out);
+                out.flush();
+            }
+
+            Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
         } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+
             throw new RuntimeException(e);
         }
+
+        if (event.shouldCommit()) {
+            event.path = outputFile + ".obj";
+            event.codeBytes = pc - CODE_START_ADDRESS;
+            event.commit();
+        }
     }
 
     public static void printCode() {
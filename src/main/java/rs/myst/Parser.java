@@ -1,5 +1,6 @@
 package rs.myst;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -12,13 +13,24 @@ public class Parser {
     private final int ERROR_DISTANCE_THRESHOLD = 3;
 
     private final Scanner scanner;
+    // read instead of the scanner when set, cursor is the index of the token after the next one
+    private final TokenBuffer tokens;
+    private int cursor;
 
-    private Token nextToken;
+    private TokenKind nextKind;
+    private int nextLine;
+    private int nextCol;
+    private int nextValue;
+    private String nextString;
 
     private int errorCount = 0;
     // current error distance from the last errored token
     private int errorDistance = ERROR_DISTANCE_THRESHOLD;
 
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    // collects the errors without printing them
+    private boolean quiet;
+
     // list of all token kinds that a statement can start with
     // makes it easier to do checks
     private final Set<TokenKind> statementFirstTokens = EnumSet.of(
@@ -32,33 +44,164 @@ public class Parser {
             LEFT_BRACE,
             SEMICOLON);
 
+    private final Set<TokenKind> expressionFirstTokens = EnumSet.of(
+            MINUS,
+            IDENTIFIER,
+            NUMBER,
+            CHAR,
+            NEW,
+            LEFT_PARENS);
+
     private final SymbolTable symbolTable = new SymbolTable();
     private Symbol currentMethod = null;
     private Symbol currentClass = null;
-    private boolean insideLoop = false;
+    // where break jumps to, null outside of loops
+    private Label loopEnd = null;
+
+    private Scope programScope;
+    private final List<MethodParse> methods = new ArrayList<>();
+
+    /**
+     * How a method declaration of the program was parsed, enough to parse it again on its own. Its tokens go
+     * from start up to end, symbols of the program were declared before it, the error distance was distanceIn
+     * going in and distanceOut coming out, both at most the threshold, it has code bytes of code, and the
+     * diagnostics it reported are the ones from firstError on, errors of them.
+     */
+    record MethodParse(int start, int end, int symbols, int distanceIn, int distanceOut, int code, int firstError, int errors) {}
 
     public Parser(Scanner scanner) {
         this.scanner = scanner;
+        this.tokens = null;
+    }
+
+    /**
+     * Parses tokens that are already scanned.
+     */
+    public Parser(TokenBuffer tokens) {
+        this.scanner = null;
+        this.tokens = tokens;
     }
 
     public void parse() {
+        Events.Parse event = new Events.Parse();
+        event.begin();
+
         scan();
 
         program();
 
         check(EOF);
+
+        if (event.shouldCommit()) {
+            event.tokens = tokens != null ? tokens.size() : scanner.getTokenCount();
+            event.errors = errorCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * Parses only the method declaration at token start, as if the program's symbols before it had just been
+     * declared and the error distance was distance. For parsing a method again after an edit inside of it.
+     */
+    MethodParse parseMethod(int start, Scope universe, List<Symbol> symbols, int distance) {
+        resume(start, universe, symbols, distance);
+
+        MethodParse method = trackedMethodDeclaration();
+
+        symbolTable.closeScope();
+
+        return method;
+    }
+
+    /**
+     * Parses what comes after the methods, from token start, as if all the program's symbols had just been
+     * declared, with code bytes of code.
+     */
+    void parseEnd(int start, Scope universe, List<Symbol> symbols, int distance, int code) {
+        resume(start, universe, symbols, distance);
+
+        programEnd(code);
+
+        check(EOF);
+    }
+
+    private void resume(int start, Scope universe, List<Symbol> symbols, int distance) {
+        if (tokens == null) throw new IllegalStateException("Only a parser of a TokenBuffer can start in the middle");
+
+        cursor = start;
+        scan();
+        errorDistance = distance;
+
+        // array types are compared by their element types, which have to be the ones the symbols were declared with
+        symbolTable.getScopes().set(0, universe);
+        symbolTable.openScope();
+        programScope = symbolTable.getScopes().getLast();
+        programScope.getNodes().addAll(symbols);
     }
 
     public int getErrorCount() {
         return errorCount;
     }
 
+    /**
+     * The errors in the order they were reported.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Only collects the errors instead of printing them too.
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * The builtin types and methods.
+     */
+    Scope getUniverse() {
+        return symbolTable.getScopes().getFirst();
+    }
+
+    /**
+     * Symbols declared in the program scope, after the parse.
+     */
+    List<Symbol> getProgramSymbols() {
+        return programScope.getNodes();
+    }
+
+    /**
+     * The program's method declarations, after parsing from a TokenBuffer.
+     */
+    List<MethodParse> getMethods() {
+        return methods;
+    }
+
     public boolean parsedSuccessfully() {
         return errorCount == 0;
     }
 
     private void scan() {
-        nextToken = scanner.next();
+        if (tokens != null) {
+            // EOF stays the next token once the tokens run out
+            int index = Math.min(cursor++, tokens.size() - 1);
+
+            nextKind = tokens.kind(index);
+            nextLine = tokens.line(index);
+            nextCol = tokens.col(index);
+            nextValue = tokens.value(index);
+            nextString = tokens.string(index);
+        } else {
+            Token token = scanner.next();
+
+            nextKind = token.getKind();
+            nextLine = token.getLine();
+            nextCol = token.getCol();
+            nextValue = token.getValue();
+            nextString = token.getString();
+        }
+
         errorDistance++;
     }
 
@@ -66,21 +209,23 @@ public class Parser {
         if (next(expected)) {
             scan();
         } else {
-            error(expected, nextToken.getKind());
+            error(expected, nextKind);
         }
     }
 
     private boolean next(TokenKind kind) {
-        return nextToken.getKind() == kind;
+        return nextKind == kind;
     }
 
     private boolean nextOf(Set<TokenKind> kinds) {
-        return kinds.contains(nextToken.getKind());
+        return kinds.contains(nextKind);
     }
 
     private void error(String message) {
         if (errorDistance >= ERROR_DISTANCE_THRESHOLD) {
-            System.out.println("line " + nextToken.getLine() + ", col " + nextToken.getCol() + ": " + message);
+            Diagnostic diagnostic = new Diagnostic(nextLine, nextCol, message);
+            diagnostics.add(diagnostic);
+            if (!quiet) System.out.println(diagnostic);
             errorCount++;
         }
 
@@ -98,6 +243,7 @@ public class Parser {
         check(IDENTIFIER);
 
         symbolTable.openScope();
+        programScope = symbolTable.getScopes().getLast();
 
         while (next(FINAL) || next(IDENTIFIER) || next(CLASS)) {
             if (next(FINAL)) {
@@ -111,10 +257,21 @@ public class Parser {
 
         check(LEFT_BRACE);
         while (next(IDENTIFIER) || next(VOID)) {
-            methodDeclaration();
+            methods.add(trackedMethodDeclaration());
         }
+
+        programEnd(OpCodeBuffer.pc);
+    }
+
+    private void programEnd(int code) {
         check(RIGHT_BRACE);
 
+        OpCodeBuffer.types.setGlobalTypes(OpCodeBuffer.typeIds(programScope.getNodes()));
+
+        if (code > OpCodeBuffer.MAX_CODE_SIZE) {
+            error("Program too large, code is " + code + " bytes out of " + OpCodeBuffer.MAX_CODE_SIZE + ".");
+        }
+
         Symbol main = symbolTable.findByName("main");
         if (main == null || main.getKind() != SymbolKind.METHOD) {
             error("Program is missing the main method.");
@@ -125,6 +282,22 @@ public class Parser {
         symbolTable.closeScope();
     }
 
+    /**
+     * A method declaration of the program, noting down how it went. Start and end are only tokens of a TokenBuffer.
+     */
+    private MethodParse trackedMethodDeclaration() {
+        int start = cursor - 1;
+        int symbols = programScope.getNodes().size();
+        int distanceIn = Math.min(errorDistance, ERROR_DISTANCE_THRESHOLD);
+        int pc = OpCodeBuffer.pc;
+        int firstError = diagnostics.size();
+
+        methodDeclaration();
+
+        return new MethodParse(start, cursor - 1, symbols, distanceIn, Math.min(errorDistance, ERROR_DISTANCE_THRESHOLD),
+                OpCodeBuffer.pc - pc, firstError, diagnostics.size() - firstError);
+    }
+
     private void methodDeclaration() {
         // (type | "void") identifier "(" [formParams] ")" {varDeclaration} block
 
@@ -140,11 +313,11 @@ public class Parser {
         boolean valid = true;
 
         if (!next(IDENTIFIER)) {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
             valid = false;
         } else {
             currentMethod = new Symbol();
-            currentMethod.setName(nextToken.getString());
+            currentMethod.setName(nextString);
             currentMethod.setType(type);
             currentMethod.setKind(SymbolKind.METHOD);
 
@@ -171,6 +344,11 @@ public class Parser {
         }
 
         currentMethod.setAddress(OpCodeBuffer.pc);
+
+        OpCodeBuffer.types.addMethod(OpCodeBuffer.pc, currentMethod.getName(),
+                OpCodeBuffer.typeId(currentMethod.getType()), currentMethod.getNumberOfParams(),
+                OpCodeBuffer.typeIds(symbolTable.getScopes().getLast().getNodes()));
+
         OpCodeBuffer.put(OpCode.ENTER);
         OpCodeBuffer.put(currentMethod.getNumberOfParams());
         OpCodeBuffer.put(symbolTable.numberOfLocals());
@@ -198,13 +376,13 @@ public class Parser {
         Type type = type();
 
         if (!next(IDENTIFIER)) {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
         } else {
-            Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextToken.getString(), type);
+            Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextString, type);
             params.add(symbol);
 
             if (symbol == null) {
-                error("Cannot redeclare symbol with the name " + nextToken.getString());
+                error("Cannot redeclare symbol with the name " + nextString);
             }
         }
 
@@ -216,13 +394,13 @@ public class Parser {
             type = type();
 
             if (!next(IDENTIFIER)) {
-                error(IDENTIFIER, nextToken.getKind());
+                error(IDENTIFIER, nextKind);
             } else {
-                Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextToken.getString(), type);
+                Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextString, type);
                 params.add(symbol);
 
                 if (symbol == null) {
-                    error("Cannot redeclare symbol with the name " + nextToken.getString());
+                    error("Cannot redeclare symbol with the name " + nextString);
                 }
             }
 
@@ -239,16 +417,16 @@ public class Parser {
         Descriptor descriptor = null;
 
         if (next(IDENTIFIER)) {
-            symbol = symbolTable.findByName(nextToken.getString());
+            symbol = symbolTable.findByName(nextString);
 
             if (symbol == null) {
-                error("failed to resolve typename " + nextToken.getString());
+                error("failed to resolve typename " + nextString);
                 symbol = new Symbol();
             }
 
             descriptor = new Descriptor(symbol);
         } else {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
         }
 
         scan();
@@ -259,15 +437,17 @@ public class Parser {
 
                 if (next(IDENTIFIER)) {
                     if (symbol != null) {
-                        Symbol typeSymbol = symbolTable.findByName(symbol.getType().getName());
+                        // the type of what's designated so far, for a[i].f that's the element's
+                        String typeName = descriptor.getType().getName();
+                        Symbol typeSymbol = typeName != null ? symbolTable.findByName(typeName) : null;
 
                         if (typeSymbol == null) {
-                            error(symbol.getType().getName() + " doesn't exist in the current scope.");
+                            error(descriptor.getType() + " doesn't have fields.");
                         } else {
-                            symbol = typeSymbol.getLocal(nextToken.getString());
+                            symbol = typeSymbol.getLocal(nextString);
 
                             if (symbol == null) {
-                                error("identifier " + nextToken.getString() + " doesn't exist on type " + typeSymbol.getName());
+                                error("identifier " + nextString + " doesn't exist on type " + typeSymbol.getName());
                             } else {
                                 OpCodeBuffer.load(descriptor);
                                 descriptor = new Descriptor(symbol);
@@ -276,7 +456,7 @@ public class Parser {
                         }
                     }
                 } else {
-                    error(IDENTIFIER, nextToken.getKind());
+                    error(IDENTIFIER, nextKind);
                 }
 
                 scan();
@@ -294,6 +474,11 @@ public class Parser {
                     OpCodeBuffer.load(expression);
 
                     descriptor.setKind(DescriptorKind.ARRAY_ELEMENT);
+
+                    // the element, so char arrays get the byte instructions and a[i] checks as its element type
+                    if (descriptor.getType().getKind() == TypeKind.ARRAY) {
+                        descriptor.setType(descriptor.getType().getArrayElementType());
+                    }
                 }
 
                 check(RIGHT_BRACKET);
@@ -307,15 +492,15 @@ public class Parser {
         Type type = null;
 
         if (next(IDENTIFIER)) {
-            Symbol typeSymbol = symbolTable.findByName(nextToken.getString());
+            Symbol typeSymbol = symbolTable.findByName(nextString);
 
             if (typeSymbol != null && typeSymbol.getKind() == SymbolKind.TYPE) {
                 type = typeSymbol.getType();
             } else {
-                error("Cannot resolve typename " + nextToken.getString());
+                error("Cannot resolve typename " + nextString);
             }
         } else {
-            error("Expected type, got " + nextToken.getKind());
+            error("Expected type, got " + nextKind);
         }
 
         scan();
@@ -419,66 +604,29 @@ public class Parser {
             } else if (next(LEFT_PARENS)) {
                 scan();
 
-                if (next(MINUS) ||
-                    next(IDENTIFIER) ||
-                    next(NUMBER) ||
-                    next(CHAR) ||
-                    next(NEW) ||
-                    next(LEFT_PARENS)) {
-
-                    List<Descriptor> params = actParams();
-
-                    if (designator != null) {
-                        if (params.size() != designator.getNumberOfParams()) {
-                            error("Method " + designator.getName() + " accepts " + designator.getNumberOfParams() + " parameters, but " + params.size() + " were provided");
-                        } else {
-                            for (int i = 0; i < params.size(); i++) {
-                                TypeKind provided = params.get(i).getType().getKind();
-
-                                if (designator.getLocals().get(i) == null) continue;
+                call(designator);
 
-                                TypeKind expected = designator.getLocals().get(i).getType().getKind();
-                                if (provided != expected) {
-                                    error("Method " + designator.getName() + " parameter " + (i+1) + " should be of type " + expected + " but " + provided + " was provided.");
-                                }
-                            }
-                        }
-                    }
-
-                    if (designator.getName().equals("len")) {
-                        OpCodeBuffer.put(OpCode.LENGTH);
-                    } else if (!designator.getName().equals("ctoi") && !designator.getName().equals("itoc")) {
-                        OpCodeBuffer.put(OpCode.CALL);
-                        OpCodeBuffer.put2(designator.getAddress());
-                    }
-
-                    if (designator.getType().getKind() != TypeKind.NONE) {
-                        OpCodeBuffer.put(OpCode.POP);
-                    }
+                // the value of a function called as a statement isn't used
+                if (designator.getKind() == SymbolKind.METHOD && designator.getType().getKind() != TypeKind.NONE) {
+                    OpCodeBuffer.put(OpCode.POP);
                 }
 
-                check(RIGHT_PARENS);
                 check(SEMICOLON);
-            } else if (next(PLUS_PLUS)) {
+            } else if (next(PLUS_PLUS) || next(MINUS_MINUS)) {
+                boolean increment = next(PLUS_PLUS);
                 scan();
 
                 if (designator.getKind() != SymbolKind.VARIABLE) {
                     error("Cannot assign to a " + designator.getKind());
-                } else if (designator.getType().getKind() != TypeKind.INT && (designator.getType().getKind() == TypeKind.ARRAY && designator.getType().getArrayElementType().getKind() != TypeKind.INT)) {
-                    error("Cannot increment a " + designator.getType().getKind());
+                } else if (designatorDescriptor.getType().getKind() != TypeKind.INT) {
+                    error("Cannot " + (increment ? "increment" : "decrement") + " a " + designatorDescriptor.getType().getKind());
+                } else {
+                    OpCodeBuffer.increment(designatorDescriptor, increment ? 1 : -1);
                 }
 
                 check(SEMICOLON);
             } else {
-                check(MINUS_MINUS);
-
-                if (designator.getKind() != SymbolKind.VARIABLE) {
-                    error("Cannot assign to a " + designator.getKind());
-                } else if (designator.getType().getKind() != TypeKind.INT && (designator.getType().getKind() == TypeKind.ARRAY && designator.getType().getArrayElementType().getKind() != TypeKind.INT)) {
-                    error("Cannot decrement a " + designator.getType().getKind());
-                }
-
-                check(SEMICOLON);
+                error("expected an assignment, a call, ++ or --, got " + nextKind);
             }
         } else if (next(IF)) {
             scan();
@@ -498,11 +646,19 @@ public class Parser {
 
             statement();
 
-            ifCondition.getFalseLabel().here();
-
             if (next(ELSE)) {
                 scan();
+
+                Label end = new Label();
+                OpCodeBuffer.jump(end);
+
+                ifCondition.getFalseLabel().here();
+
                 statement();
+
+                end.here();
+            } else {
+                ifCondition.getFalseLabel().here();
             }
         } else if (next(WHILE)) {
             scan();
@@ -522,17 +678,22 @@ public class Parser {
 
             OpCodeBuffer.falseJump(whileCondition);
 
-            insideLoop = true;
+            Label outerLoopEnd = loopEnd;
+            loopEnd = whileCondition.getFalseLabel();
+
             statement();
-            insideLoop = false;
+
+            loopEnd = outerLoopEnd;
 
             OpCodeBuffer.jump(whileTop);
             whileCondition.getFalseLabel().here();
         } else if (next(BREAK)) {
             scan();
 
-            if (!insideLoop) {
+            if (loopEnd == null) {
                 error("Cannot break outside of a loop.");
+            } else {
+                OpCodeBuffer.jump(loopEnd);
             }
 
             check(SEMICOLON);
@@ -547,13 +708,7 @@ public class Parser {
                 }
             }
 
-            if (next(MINUS) ||
-                next(IDENTIFIER) ||
-                next(NUMBER) ||
-                next(CHAR) ||
-                next(NEW) ||
-                next(LEFT_PARENS)) {
-
+            if (nextOf(expressionFirstTokens)) {
                 Descriptor expression = expression();
 
                 if (currentMethod != null) {
@@ -569,6 +724,9 @@ public class Parser {
                         OpCodeBuffer.put(OpCode.RETURN);
                     }
                 }
+            } else if (currentMethod != null && currentMethod.getType().getKind() == TypeKind.NONE) {
+                OpCodeBuffer.put(OpCode.EXIT);
+                OpCodeBuffer.put(OpCode.RETURN);
             }
 
             check(SEMICOLON);
@@ -576,11 +734,12 @@ public class Parser {
             scan();
             check(LEFT_PARENS);
 
-            Symbol designator = designator().getSymbol();
+            Descriptor designator = designator();
             if (designator.getType().getKind() != TypeKind.INT && designator.getType().getKind() != TypeKind.CHAR) {
                 error("Can't read " + designator.getType().getKind() + " from standard input.");
             } else {
                 OpCodeBuffer.put(designator.getType().getKind() == TypeKind.INT ? OpCode.READ : OpCode.BREAD);
+                OpCodeBuffer.store(designator);
             }
 
             check(RIGHT_PARENS);
@@ -617,17 +776,23 @@ public class Parser {
 
         Type type = type();
 
+        Symbol constant = null;
+
         if (type.getKind() != TypeKind.INT && type.getKind() != TypeKind.CHAR) {
             error("cannot declare a constant of type: " + type.getKind());
         } else if (!next(IDENTIFIER)) {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
         } else {
-            symbolTable.insert(SymbolKind.CONSTANT, nextToken.getString(), type);
+            constant = symbolTable.insert(SymbolKind.CONSTANT, nextString, type);
         }
 
         scan();
         check(ASSIGN);
 
+        if (constant != null && (next(NUMBER) || next(CHAR))) {
+            constant.setValue(nextValue);
+        }
+
         if (next(NUMBER)) {
             scan();
         } else {
@@ -645,13 +810,13 @@ public class Parser {
         Type type = type();
 
         if (!next(IDENTIFIER)) {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
         } else {
-            Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextToken.getString(), type);
+            Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextString, type);
             symbols.add(symbol);
 
             if (symbol == null) {
-                error("Cannot redeclare symbol with the name " + nextToken.getString());
+                error("Cannot redeclare symbol with the name " + nextString);
             }
         }
 
@@ -661,13 +826,13 @@ public class Parser {
             scan();
 
             if (!next(IDENTIFIER)) {
-                error(IDENTIFIER, nextToken.getKind());
+                error(IDENTIFIER, nextKind);
             } else {
-                Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextToken.getString(), type);
+                Symbol symbol = symbolTable.insert(SymbolKind.VARIABLE, nextString, type);
                 symbols.add(symbol);
 
                 if (symbol == null) {
-                    error("Cannot redeclare symbol with the name " + nextToken.getString());
+                    error("Cannot redeclare symbol with the name " + nextString);
                 }
             }
 
@@ -687,16 +852,16 @@ public class Parser {
         boolean valid = false;
 
         if (!next(IDENTIFIER)) {
-            error(IDENTIFIER, nextToken.getKind());
+            error(IDENTIFIER, nextKind);
         } else {
             Type type = new Type(TypeKind.CLASS);
-            type.setName(nextToken.getString());
-            currentClass = symbolTable.insert(SymbolKind.TYPE, nextToken.getString(), type);
+            type.setName(nextString);
+            currentClass = symbolTable.insert(SymbolKind.TYPE, nextString, type);
 
             symbolTable.insert(currentClass);
 
             if (currentClass == null) {
-                error("Cannot redeclare symbol with the name " + nextToken.getString());
+                error("Cannot redeclare symbol with the name " + nextString);
             } else {
                 valid = true;
             }
@@ -710,7 +875,10 @@ public class Parser {
 
         while (next(IDENTIFIER)) {
             LinkedList<Symbol> vars = varDeclaration();
-            if (valid) currentClass.addLocals(vars);
+            if (valid) {
+                currentClass.addLocals(vars);
+                currentClass.getType().getFields().addAll(vars);
+            }
         }
 
         check(RIGHT_BRACE);
@@ -736,7 +904,7 @@ public class Parser {
         } else if (next(LESS_EQUAL)) {
             scan();
         } else {
-            error("expected a relational operator, got: " + nextToken.getKind());
+            error("expected a relational operator, got: " + nextKind);
         }
     }
 
@@ -811,7 +979,7 @@ public class Parser {
             }
         }
 
-        Descriptor descriptor = new Descriptor(nextToken.getKind());
+        Descriptor descriptor = new Descriptor(nextKind);
 
         relOp();
 
@@ -830,12 +998,25 @@ public class Parser {
     private Descriptor expression() {
         // ["-"] term {addOp term}
 
-        if (next(MINUS)) {
+        boolean negate = next(MINUS);
+
+        if (negate) {
             scan();
+
+            // negated as 0 - term
+            OpCodeBuffer.put(OpCode.CONST_0);
         }
 
         Descriptor t1 = term();
 
+        if (negate) {
+            if (t1.getType().getKind() != TypeKind.INT) {
+                error("Can't negate " + t1.getType().getKind() + ", math can only be done with ints.");
+            }
+
+            OpCodeBuffer.put(OpCode.SUB);
+        }
+
         if (t1 != null && (next(PLUS) || next(MINUS))) {
             Type t = t1.getType().getKind() == TypeKind.ARRAY ? t1.getType().getArrayElementType() : t1.getType();
             if (t.getKind() != TypeKind.INT) {
@@ -844,7 +1025,7 @@ public class Parser {
         }
 
         while (next(PLUS) || next(MINUS)) {
-            TokenKind op = nextToken.getKind();
+            TokenKind op = nextKind;
 
             addOp();
 
@@ -877,7 +1058,7 @@ public class Parser {
         }
 
         while (next(TIMES) || next(SLASH) || next(MODULO)) {
-            TokenKind op = nextToken.getKind();
+            TokenKind op = nextKind;
 
             mulOp();
 
@@ -913,57 +1094,19 @@ public class Parser {
             if (next(LEFT_PARENS)) {
                 scan();
 
-                if (symbol != null && !symbol.getKind().equals(SymbolKind.METHOD)) {
-                    error("Can't call " + symbol.getName() + " as a method.");
-                }
-
-                if (next(MINUS) ||
-                    next(IDENTIFIER) ||
-                    next(NUMBER) ||
-                    next(CHAR) ||
-                    next(NEW) ||
-                    next(LEFT_PARENS)) {
-
-                    List<Descriptor> params = actParams();
-
-                    if (symbol != null) {
-                        if (params.size() != symbol.getNumberOfParams()) {
-                            error("Method " + symbol.getName() + " accepts " + symbol.getNumberOfParams() + " parameters, but " + params.size() + " were provided");
-                        } else {
-                            for (int i = 0; i < params.size(); i++) {
-                                TypeKind provided = params.get(i).getType().getKind();
-
-                                if (symbol.getLocals().get(i) == null) continue;
-
-                                TypeKind expected = symbol.getLocals().get(i).getType().getKind();
-                                if (provided != expected) {
-                                    error("Method " + symbol.getName() + " parameter " + (i+1) + " should be of type " + expected + " but " + provided + " was provided.");
-                                }
-                            }
-                        }
-                    }
-
-                    if (symbol.getName().equals("len")) {
-                        OpCodeBuffer.put(OpCode.LENGTH);
-                    } else if (!symbol.getName().equals("ctoi") && !symbol.getName().equals("itoc")) {
-                        OpCodeBuffer.put(OpCode.CALL);
-                        OpCodeBuffer.put2(symbol.getAddress());
-                    }
-                }
-
-                check(RIGHT_PARENS);
+                call(symbol);
             }
         } else if (next(NUMBER)) {
             symbol.setType(new Type(TypeKind.INT));
             symbol.setKind(SymbolKind.CONSTANT);
-            symbol.setValue(nextToken.getValue());
+            symbol.setValue(nextValue);
             descriptor = new Descriptor(symbol);
 
             scan();
         } else if (next(CHAR)) {
             symbol.setType(new Type(TypeKind.CHAR));
             symbol.setKind(SymbolKind.CONSTANT);
-            symbol.setValue(nextToken.getValue());
+            symbol.setValue(nextValue);
             descriptor = new Descriptor(symbol);
 
             scan();
@@ -971,12 +1114,12 @@ public class Parser {
             scan();
 
             if (next(IDENTIFIER)) {
-                symbol = symbolTable.findByName(nextToken.getString());
+                symbol = symbolTable.findByName(nextString);
                 if (symbol == null) {
-                    error(nextToken.getString() + " doesn't exist in the current scope.");
+                    error(nextString + " doesn't exist in the current scope.");
                     symbol = new Symbol();
                 } else if (symbol.getKind() != SymbolKind.TYPE) {
-                    error(nextToken.getString() + " isn't a valid type.");
+                    error(nextString + " isn't a valid type.");
                 }
             }
             check(IDENTIFIER);
@@ -989,22 +1132,27 @@ public class Parser {
                     error("Can't use type " + size.getType().getKind() + " as an array size.");
                 }
 
+                Type arrayType = new Type(TypeKind.ARRAY, symbol.getType());
+
                 OpCodeBuffer.put(OpCode.NEW_ARRAY);
-                OpCodeBuffer.put(symbol.getType().getSizeof());
+                OpCodeBuffer.put(OpCodeBuffer.typeId(arrayType));
 
                 check(RIGHT_BRACKET);
+
+                descriptor = new Descriptor(symbol);
+                descriptor.setType(arrayType);
             } else {
                 OpCodeBuffer.put(OpCode.NEW);
-                OpCodeBuffer.put4(symbol.getType().getFields().size());
-            }
+                OpCodeBuffer.put(OpCodeBuffer.typeId(symbol.getType()));
 
-            descriptor = new Descriptor(symbol);
+                descriptor = new Descriptor(symbol);
+            }
         } else if (next(LEFT_PARENS)) {
             scan();
             descriptor = expression();
             check(RIGHT_PARENS);
         } else {
-            error("unexpected token: " + nextToken.getKind());
+            error("unexpected token: " + nextKind);
         }
 
         if (descriptor != null) OpCodeBuffer.load(descriptor);
@@ -1013,6 +1161,47 @@ public class Parser {
         return descriptor;
     }
 
+    private void call(Symbol method) {
+        // [actParams] ")", after the "("
+
+        boolean isMethod = method.getKind() == SymbolKind.METHOD;
+
+        if (!isMethod) {
+            error("Can't call " + method.getName() + " as a method.");
+        }
+
+        List<Descriptor> params = nextOf(expressionFirstTokens) ? actParams() : List.of();
+
+        if (isMethod) {
+            if (params.size() != method.getNumberOfParams()) {
+                error("Method " + method.getName() + " accepts " + method.getNumberOfParams() + " parameters, but " + params.size() + " were provided");
+            } else {
+                for (int i = 0; i < params.size(); i++) {
+                    TypeKind provided = params.get(i).getType().getKind();
+                    TypeKind expected = method.getLocals().get(i).getType().getKind();
+
+                    if (provided != expected) {
+                        error("Method " + method.getName() + " parameter " + (i+1) + " should be of type " + expected + " but " + provided + " was provided.");
+                    }
+                }
+            }
+
+            switch (method.getName()) {
+                case "len" -> OpCodeBuffer.put(OpCode.LENGTH);
+
+                // chars and ints are the same on the stack
+                case "chr", "ord" -> {}
+
+                default -> {
+                    OpCodeBuffer.put(OpCode.CALL);
+                    OpCodeBuffer.put2(method.getAddress());
+                }
+            }
+        }
+
+        check(RIGHT_PARENS);
+    }
+
     private List<Descriptor> actParams() {
         // expression {"," expression}
 
@@ -0,0 +1,236 @@
+package rs.myst;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where a VM run with VMOptions.profile spent its time: how often each opcode executed, how often each method
+ * was called and how long it ran, and how often each backward jump was taken. Methods are keyed by the address
+ * of their enter, which is what calls target, and named from the type table.
+ * <p>
+ * Time is measured at every call and return, so it includes what the measuring costs, compare methods
+ * with each other rather than with a run without profiling. Inclusive time counts a recursive method once,
+ * from its outermost activation.
+ */
+public class Profile {
+    @Getter(AccessLevel.PACKAGE)
+    private final long[] opcodeCounts = new long[OpCode.values().length];
+
+    private final TreeMap<Integer, MethodProfile> methods = new TreeMap<>();
+    private final Map<Integer, Long> backedges = new TreeMap<>();
+
+    private final TypeTable types;
+
+    private final CallNode root = new CallNode(null);
+    private final List<Frame> frames = new ArrayList<>();
+
+    /**
+     * Instructions executed at the last call or return, for closing activations after an error.
+     */
+    private long lastExecuted;
+
+    Profile(TypeTable types) {
+        this.types = types;
+    }
+
+    /**
+     * What one method did over the run.
+     */
+    @Getter
+    public static class MethodProfile {
+        private final int address;
+        private final String name;
+
+        private long calls;
+
+        /**
+         * Instructions executed in the method itself, not in what it called.
+         */
+        private long instructions;
+
+        private long inclusiveNanos;
+        private long exclusiveNanos;
+
+        /**
+         * Activations of the method on the call stack right now.
+         */
+        @Getter(AccessLevel.NONE)
+        private int active;
+
+        MethodProfile(int address, String name) {
+            this.address = address;
+            this.name = name;
+        }
+    }
+
+    private static class CallNode {
+        private final MethodProfile method;
+        private final Map<Integer, CallNode> children = new HashMap<>();
+        private long exclusiveNanos;
+
+        CallNode(MethodProfile method) {
+            this.method = method;
+        }
+    }
+
+    private static class Frame {
+        private final CallNode node;
+        private final long startNanos;
+        private final long startInstructions;
+        private long childNanos;
+        private long childInstructions;
+
+        Frame(CallNode node, long startNanos, long startInstructions) {
+            this.node = node;
+            this.startNanos = startNanos;
+            this.startInstructions = startInstructions;
+        }
+    }
+
+    public long getOpcodeCount(OpCode opcode) {
+        return opcodeCounts[opcode.ordinal()];
+    }
+
+    /**
+     * Every method that was called, by address.
+     */
+    public List<MethodProfile> getMethods() {
+        return List.copyOf(methods.values());
+    }
+
+    public MethodProfile getMethod(int address) {
+        return methods.get(address);
+    }
+
+    /**
+     * How often the backward jump at each byte address was taken.
+     */
+    public Map<Integer, Long> getBackedges() {
+        return Collections.unmodifiableMap(backedges);
+    }
+
+    void enter(int address, long nanos, long executed) {
+        MethodProfile method = methods.computeIfAbsent(address, a -> new MethodProfile(a, nameOf(a)));
+        method.calls++;
+        method.active++;
+
+        CallNode parent = frames.isEmpty() ? root : frames.get(frames.size() - 1).node;
+        CallNode node = parent.children.computeIfAbsent(address, a -> new CallNode(method));
+
+        frames.add(new Frame(node, nanos, executed));
+        lastExecuted = executed;
+    }
+
+    void exit(long nanos, long executed) {
+        Frame frame = frames.remove(frames.size() - 1);
+        MethodProfile method = frame.node.method;
+
+        long inclusive = nanos - frame.startNanos;
+        long exclusive = inclusive - frame.childNanos;
+        long instructions = executed - frame.startInstructions;
+        lastExecuted = executed;
+
+        method.active--;
+        if (method.active == 0) method.inclusiveNanos += inclusive;
+        method.exclusiveNanos += exclusive;
+        method.instructions += instructions - frame.childInstructions;
+        frame.node.exclusiveNanos += exclusive;
+
+        if (!frames.isEmpty()) {
+            Frame caller = frames.get(frames.size() - 1);
+            caller.childNanos += inclusive;
+            caller.childInstructions += instructions;
+        }
+    }
+
+    /**
+     * Closes the activations a run that ended in an error left open.
+     */
+    void finish(long nanos) {
+        while (!frames.isEmpty()) exit(nanos, lastExecuted);
+    }
+
+    void backedge(int address) {
+        backedges.merge(address, 1L, Long::sum);
+    }
+
+    /**
+     * Plain text tables of the opcodes, methods by exclusive time, and backward jumps.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+
+        long total = 0;
+        for (long count : opcodeCounts) total += count;
+
+        report.append(String.format("%-22s %14s %7s%n", "opcode", "count", "%"));
+
+        List<OpCode> opcodes = new ArrayList<>(List.of(OpCode.values()));
+        opcodes.sort(Comparator.comparingLong(this::getOpcodeCount).reversed());
+
+        for (OpCode opcode : opcodes) {
+            long count = getOpcodeCount(opcode);
+            if (count == 0) break;
+
+            report.append(String.format("%-22s %14d %7.2f%n", opcode.getNiceName(), count, 100.0 * count / total));
+        }
+
+        report.append(String.format("%n%-22s %8s %12s %14s %14s %14s%n",
+                "method", "address", "calls", "instructions", "inclusive ms", "exclusive ms"));
+
+        List<MethodProfile> byTime = new ArrayList<>(methods.values());
+        byTime.sort(Comparator.comparingLong(MethodProfile::getExclusiveNanos).reversed());
+
+        for (MethodProfile method : byTime) {
+            report.append(String.format("%-22s %8d %12d %14d %14.3f %14.3f%n", method.name, method.address, method.calls,
+                    method.instructions, method.inclusiveNanos / 1e6, method.exclusiveNanos / 1e6));
+        }
+
+        report.append(String.format("%n%-22s %8s %14s%n", "backedge in", "address", "taken"));
+
+        for (Map.Entry<Integer, Long> backedge : backedges.entrySet()) {
+            MethodProfile method = methodContaining(backedge.getKey());
+
+            report.append(String.format("%-22s %8d %14d%n",
+                    method != null ? method.name : "?", backedge.getKey(), backedge.getValue()));
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * One line per call path with the exclusive nanoseconds spent on it, names separated by semicolons,
+     * the input flamegraph.pl and most flame graph viewers take.
+     */
+    public String collapsedStacks() {
+        StringBuilder stacks = new StringBuilder();
+
+        for (CallNode child : root.children.values()) collapse(child, child.method.name, stacks);
+
+        return stacks.toString();
+    }
+
+    private void collapse(CallNode node, String path, StringBuilder stacks) {
+        if (node.exclusiveNanos > 0) stacks.append(path).append(' ').append(node.exclusiveNanos).append('\n');
+
+        for (CallNode child : node.children.values()) collapse(child, path + ";" + child.method.name, stacks);
+    }
+
+    private MethodProfile methodContaining(int address) {
+        Map.Entry<Integer, MethodProfile> entry = methods.floorEntry(address);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    private String nameOf(int address) {
+        TypeTable.MethodEntry method = types.methodAt(address);
+        return method != null ? method.getName() : "method@" + address;
+    }
+}
@@ -0,0 +1,476 @@
+package rs.myst;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static rs.myst.RegisterOpCode.*;
+
+/**
+ * Stack bytecode translated at load time into three-address instructions over the method frame.
+ * Every method frame holds its locals followed by one temporary slot per expression stack depth,
+ * so a value at depth d always lives in slot locals + d when control flow merges.
+ * Within straight-line code, locals and constants aren't copied to the stack at all: they stay
+ * pending until an instruction consumes them and become its operands directly.
+ * Calls pass arguments in place: the callee frame starts at the caller temporary holding the first
+ * argument, and the return value is left in slot 0 of the callee frame, which is where the caller expects it.
+ */
+@Getter
+public class RegisterCode {
+    private static final int TEMP = 0;
+    private static final int LOCAL = 1;
+    private static final int CONSTANT = 2;
+
+    private final int[] code;
+
+    /**
+     * Index of the translation of the instruction starting at each byte address.
+     */
+    private final int[] indexOf;
+
+    private RegisterCode(int[] code, int[] indexOf) {
+        this.code = code;
+        this.indexOf = indexOf;
+    }
+
+    public int entry(int address) {
+        return indexOf[address];
+    }
+
+    public static RegisterCode translate(ByteBuffer codeData, int start, int end) {
+        return new Translator(CodeAnalysis.analyze(codeData, start, end)).translate();
+    }
+
+    private static class Translator {
+        private final CodeAnalysis analysis;
+        private final ByteBuffer codeData;
+
+        private int[] out = new int[256];
+        private int size;
+
+        private final int[] indexOf;
+
+        // jump and call operands waiting for their target to be translated, as pairs of operand index and byte address
+        private int[] fixups = new int[64];
+        private int fixupCount;
+
+        // symbolic expression stack of the method being translated
+        private int[] kinds = new int[16];
+        private int[] values = new int[16];
+        private int depth;
+
+        private MethodInfo method;
+
+        // operand index of the destination of the last emitted instruction, if it wrote the top temporary
+        private int lastDestination = -1;
+        private int lastEnd = -1;
+
+        private boolean exited;
+
+        Translator(CodeAnalysis analysis) {
+            this.analysis = analysis;
+            this.codeData = analysis.getCodeData();
+
+            indexOf = new int[codeData.limit()];
+            Arrays.fill(indexOf, DecodedCode.INVALID_TARGET);
+        }
+
+        RegisterCode translate() {
+            for (MethodInfo m : analysis.getMethods()) {
+                method = m;
+                translateMethod();
+            }
+
+            for (int i = 0; i < fixupCount; i += 2) {
+                out[fixups[i]] = indexOf[fixups[i + 1]];
+            }
+
+            return new RegisterCode(Arrays.copyOf(out, size), indexOf);
+        }
+
+        private void translateMethod() {
+            depth = 0;
+            lastEnd = -1;
+            exited = false;
+
+            kinds = new int[Math.max(kinds.length, method.getMaxStack())];
+            values = new int[kinds.length];
+
+            boolean fallsThrough = true;
+
+            int address = method.getStart();
+            while (address < method.getEnd()) {
+                OpCode instruction = analysis.instructionAt(address);
+
+                if (analysis.isReachable(address)) {
+                    if (!fallsThrough) {
+                        // only reachable by a jump, which left everything in temporaries
+                        depth = analysis.getStackDepth()[address];
+                        Arrays.fill(kinds, 0, depth, TEMP);
+                    } else if (analysis.getJumpTarget()[address]) {
+                        flush(depth);
+                    }
+
+                    if (analysis.getJumpTarget()[address]) lastEnd = -1;
+
+                    indexOf[address] = size;
+
+                    translateInstruction(instruction, address);
+
+                    fallsThrough = switch (instruction) {
+                        case JMP, RETURN, TRAP -> false;
+                        default -> true;
+                    };
+                }
+
+                address += instruction.getSize();
+            }
+        }
+
+        private void translateInstruction(OpCode instruction, int address) {
+            if (exited && instruction != OpCode.RETURN) {
+                throw new IllegalArgumentException("Exit at address " + address + " isn't followed by a return");
+            }
+
+            switch (instruction) {
+                case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5 ->
+                        push(LOCAL, instruction.ordinal() - OpCode.LOAD_0.ordinal());
+
+                case LOAD -> push(LOCAL, codeData.get(address + 1));
+
+                case CONST_M1, CONST_0, CONST_1, CONST_2, CONST_3, CONST_4, CONST_5 ->
+                        push(CONSTANT, instruction.ordinal() - OpCode.CONST_0.ordinal());
+
+                case CONST -> push(CONSTANT, DecodedCode.getWord(codeData, address + 1));
+
+                case STORE_0, STORE_1, STORE_2, STORE_3, STORE_4, STORE_5 ->
+                        storeLocal(instruction.ordinal() - OpCode.STORE_0.ordinal());
+
+                case STORE -> storeLocal(codeData.get(address + 1));
+
+                case LOAD_GLOBAL -> {
+                    int global = DecodedCode.getShort(codeData, address + 1);
+                    produce(LOAD_GLOBAL, global);
+                }
+
+                case STORE_GLOBAL -> {
+                    int global = DecodedCode.getShort(codeData, address + 1);
+                    int src = popSlot();
+                    emit(STORE_GLOBAL, global, src);
+                }
+
+                case LOAD_FIELD -> {
+                    int object = popSlot();
+                    produce(LOAD_FIELD, object, codeData.get(address + 1));
+                }
+
+                case STORE_FIELD -> {
+                    int src = popSlot();
+                    int object = popSlot();
+                    emit(STORE_FIELD, object, codeData.get(address + 1) & 0xff, src);
+                }
+
+                case ADD, SUB, MUL, DIV, REM -> arithmetic(instruction);
+
+                case NEW -> produce(NEW, codeData.get(address + 1) & 0xff);
+
+                case NEW_ARRAY -> {
+                    int length = popSlot();
+                    produce(NEW_ARRAY, length, codeData.get(address + 1) & 0xff);
+                }
+
+                case ARRAY_LOAD, BARRAY_LOAD -> {
+                    int index = popSlot();
+                    int array = popSlot();
+                    produce(instruction == OpCode.ARRAY_LOAD ? ARRAY_LOAD : BARRAY_LOAD, array, index);
+                }
+
+                case ARRAY_STORE, BARRAY_STORE -> {
+                    int src = popSlot();
+                    int index = popSlot();
+                    int array = popSlot();
+                    emit(instruction == OpCode.ARRAY_STORE ? ARRAY_STORE : BARRAY_STORE, array, index, src);
+                }
+
+                case LENGTH -> {
+                    int array = popSlot();
+                    produce(LENGTH, array);
+                }
+
+                case POP -> depth--;
+
+                case DUP -> dup(depth - 1);
+
+                case DUP2 -> {
+                    dup(depth - 2);
+                    dup(depth - 2);
+                }
+
+                case JMP -> {
+                    flush(depth);
+                    emit(JMP, 0);
+                    fixup(size - 1, analysis.jumpTargetAt(address));
+                }
+
+                case JEQ, JNE, JGT, JLE, JLT, JGE -> conditionalJump(instruction, address);
+
+                case CALL -> {
+                    MethodInfo callee = analysis.calleeAt(address);
+                    int base = depth - callee.getParamsCount();
+
+                    // arguments are read by the callee from its own frame, so they have to be in place
+                    flush(depth);
+
+                    emit(CALL, 0, temp(base));
+                    fixup(size - 2, callee.getStart());
+
+                    depth = base;
+                    if (callee.isReturnsValue()) push(TEMP, 0);
+                }
+
+                case ENTER -> emit(ENTER, method.getParamsCount(), method.getFrameLocals(),
+                        method.getFrameLocals() + method.getMaxStack(),
+                        1 + method.getParamsCount() + method.getLocalsCount());
+
+                case EXIT -> exited = true;
+
+                case RETURN -> {
+                    if (!exited) {
+                        throw new IllegalArgumentException("Return at address " + address + " without exit");
+                    }
+
+                    exited = false;
+
+                    if (method.isReturnsValue()) emit(RETURN, popSlot());
+                    else emit(RETURN_VOID);
+                }
+
+                case READ -> produce(READ);
+
+                case BREAD -> produce(BREAD);
+
+                case PRINT -> emit(PRINT, popSlot());
+
+                case BPRINT -> emit(BPRINT, popSlot());
+
+                case TRAP -> emit(TRAP, codeData.get(address + 1));
+
+                case NOP -> {}
+
+                default -> throw new IllegalArgumentException(
+                        "Instruction " + instruction.getNiceName() + " isn't supported by the register engine");
+            }
+        }
+
+        private void storeLocal(int local) {
+            int top = depth - 1;
+            boolean retarget = kinds[top] == TEMP && lastEnd == size && out[lastDestination] == temp(top);
+
+            // pending reads of the local below the top have to see the value from before the store
+            for (int i = 0; i < top; i++) {
+                if (kinds[i] == LOCAL && values[i] == local) {
+                    materialize(i);
+                    retarget = false;
+                }
+            }
+
+            if (retarget) {
+                out[lastDestination] = local;
+            } else if (kinds[top] == CONSTANT) {
+                emit(MOVI, local, values[top]);
+            } else {
+                int src = slot(top);
+                if (src != local) emit(MOV, local, src);
+            }
+
+            depth--;
+            lastEnd = -1;
+        }
+
+        private void arithmetic(OpCode instruction) {
+            int b = depth - 1;
+            int a = depth - 2;
+
+            boolean divideByZero = (instruction == OpCode.DIV || instruction == OpCode.REM)
+                    && kinds[b] == CONSTANT && values[b] == 0;
+
+            // leave division by zero to the run time
+            if (kinds[a] == CONSTANT && kinds[b] == CONSTANT && !divideByZero) {
+                int result = switch (instruction) {
+                    case ADD -> values[a] + values[b];
+                    case SUB -> values[a] - values[b];
+                    case MUL -> values[a] * values[b];
+                    case DIV -> values[a] / values[b];
+                    default -> values[a] % values[b];
+                };
+
+                depth -= 2;
+                push(CONSTANT, result);
+                return;
+            }
+
+            if (instruction == OpCode.ADD && (kinds[a] == CONSTANT || kinds[b] == CONSTANT)) {
+                int constant = kinds[b] == CONSTANT ? values[b] : values[a];
+                int src = kinds[b] == CONSTANT ? slot(a) : slot(b);
+
+                depth -= 2;
+                produce(ADDI, src, constant);
+                return;
+            }
+
+            if (instruction == OpCode.SUB && kinds[b] == CONSTANT) {
+                int src = slot(a);
+
+                depth -= 2;
+                produce(SUBI, src, values[b]);
+                return;
+            }
+
+            int srcA = slot(a);
+            int srcB = slot(b);
+
+            depth -= 2;
+            produce(switch (instruction) {
+                case ADD -> ADD;
+                case SUB -> SUB;
+                case MUL -> MUL;
+                case DIV -> DIV;
+                default -> REM;
+            }, srcA, srcB);
+        }
+
+        private void conditionalJump(OpCode instruction, int address) {
+            int b = depth - 1;
+            int a = depth - 2;
+
+            RegisterOpCode jump = switch (instruction) {
+                case JEQ -> JEQ;
+                case JNE -> JNE;
+                case JGT -> JGT;
+                case JLE -> JLE;
+                case JLT -> JLT;
+                default -> JGE;
+            };
+
+            int left, right;
+
+            if (kinds[b] == CONSTANT) {
+                left = slot(a);
+                right = values[b];
+                jump = immediate(jump);
+            } else if (kinds[a] == CONSTANT) {
+                // k < x is x > k
+                left = slot(b);
+                right = values[a];
+                jump = immediate(mirror(jump));
+            } else {
+                left = slot(a);
+                right = slot(b);
+            }
+
+            depth -= 2;
+            flush(depth);
+
+            emit(jump, left, right, 0);
+            fixup(size - 1, analysis.jumpTargetAt(address));
+        }
+
+        private void dup(int i) {
+            if (kinds[i] == TEMP) {
+                int src = temp(i);
+                push(TEMP, 0);
+                emit(MOV, temp(depth - 1), src);
+            } else {
+                push(kinds[i], values[i]);
+            }
+        }
+
+        private static RegisterOpCode mirror(RegisterOpCode jump) {
+            return switch (jump) {
+                case JGT -> JLT;
+                case JLT -> JGT;
+                case JGE -> JLE;
+                case JLE -> JGE;
+                default -> jump;
+            };
+        }
+
+        private static RegisterOpCode immediate(RegisterOpCode jump) {
+            return switch (jump) {
+                case JEQ -> JEQI;
+                case JNE -> JNEI;
+                case JGT -> JGTI;
+                case JLE -> JLEI;
+                case JLT -> JLTI;
+                default -> JGEI;
+            };
+        }
+
+        private int temp(int i) {
+            return method.getFrameLocals() + i;
+        }
+
+        /**
+         * Register holding the stack entry at depth i, constants get loaded into their temporary.
+         */
+        private int slot(int i) {
+            if (kinds[i] == LOCAL) return values[i];
+            if (kinds[i] == CONSTANT) materialize(i);
+            return temp(i);
+        }
+
+        private int popSlot() {
+            return slot(--depth);
+        }
+
+        private void materialize(int i) {
+            if (kinds[i] == LOCAL) emit(MOV, temp(i), values[i]);
+            else if (kinds[i] == CONSTANT) emit(MOVI, temp(i), values[i]);
+
+            kinds[i] = TEMP;
+        }
+
+        private void flush(int count) {
+            for (int i = 0; i < count; i++) materialize(i);
+        }
+
+        private void push(int kind, int value) {
+            kinds[depth] = kind;
+            values[depth] = value;
+            depth++;
+        }
+
+        /**
+         * Emits an instruction that leaves its result in the temporary for the next stack entry.
+         */
+        private void produce(RegisterOpCode instruction, int... operands) {
+            int[] withDestination = new int[operands.length + 1];
+            withDestination[0] = temp(depth);
+            System.arraycopy(operands, 0, withDestination, 1, operands.length);
+
+            emit(instruction, withDestination);
+
+            lastDestination = size - withDestination.length;
+            lastEnd = size;
+
+            push(TEMP, 0);
+        }
+
+        private void emit(RegisterOpCode instruction, int... operands) {
+            if (size + operands.length + 1 > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, size + operands.length + 1));
+            }
+
+            out[size++] = instruction.ordinal();
+            for (int operand : operands) out[size++] = operand;
+        }
+
+        private void fixup(int operandIndex, int targetAddress) {
+            if (fixupCount + 2 > fixups.length) fixups = Arrays.copyOf(fixups, fixups.length * 2);
+
+            fixups[fixupCount++] = operandIndex;
+            fixups[fixupCount++] = targetAddress;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package rs.myst;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Three-address instructions run by the register engine.
+ * Register operands are frame slots relative to the frame base, locals first and then one temporary per stack depth.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum RegisterOpCode {
+    MOV("mov", 2),                 // dst, src
+    MOVI("movi", 2),               // dst, constant
+    LOAD_GLOBAL("lglobal", 2),     // dst, global
+    STORE_GLOBAL("sglobal", 2),    // global, src
+    LOAD_FIELD("lfield", 3),       // dst, object, field
+    STORE_FIELD("sfield", 3),      // object, field, src
+    ADD("add", 3),                 // dst, a, b
+    SUB("sub", 3),                 // dst, a, b
+    MUL("mul", 3),                 // dst, a, b
+    DIV("div", 3),                 // dst, a, b
+    REM("rem", 3),                 // dst, a, b
+    ADDI("addi", 3),               // dst, a, constant
+    SUBI("subi", 3),               // dst, a, constant
+    NEW("new", 2),                 // dst, field count
+    NEW_ARRAY("newarr", 3),        // dst, length, element size
+    ARRAY_LOAD("aload", 3),        // dst, array, index
+    ARRAY_STORE("astore", 3),      // array, index, src
+    BARRAY_LOAD("baload", 3),      // dst, array, index
+    BARRAY_STORE("bastore", 3),    // array, index, src
+    LENGTH("length", 2),           // dst, array
+    JMP("jmp", 1),                 // target
+    JEQ("jeq", 3),                 // a, b, target
+    JNE("jne", 3),                 // a, b, target
+    JGT("jgt", 3),                 // a, b, target
+    JLE("jle", 3),                 // a, b, target
+    JLT("jlt", 3),                 // a, b, target
+    JGE("jge", 3),                 // a, b, target
+    JEQI("jeqi", 3),               // a, constant, target
+    JNEI("jnei", 3),               // a, constant, target
+    JGTI("jgti", 3),               // a, constant, target
+    JLEI("jlei", 3),               // a, constant, target
+    JLTI("jlti", 3),               // a, constant, target
+    JGEI("jgei", 3),               // a, constant, target
+    CALL("call", 2),               // target, base of the callee frame
+    ENTER("enter", 4),             // params, locals, frame size, frame stack words of the stack engines
+    RETURN("return", 1),           // src
+    RETURN_VOID("return_void", 0),
+    READ("read", 1),               // dst
+    BREAD("bread", 1),             // dst
+    PRINT("print", 1),             // src
+    BPRINT("bprint", 1),           // src
+    TRAP("trap", 1);               // code
+
+    private final String niceName;
+    private final int operandCount;
+}
@@ -0,0 +1,185 @@
+package rs.myst;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Call stacks sampled from a VM run, see VMOptions.samplingIntervalMicros. Unlike Profile nothing is measured
+ * in the interpreter, so the timings aren't distorted, a method's share of the samples is its share of the time.
+ * Addresses are mapped to the methods containing them through the type table.
+ * <p>
+ * BYTECODE samples see the exact pc. The decoded engines only store their pc at enters, returns and jumps,
+ * so there a sample's pc is the last of those: the loop or the call the method is in. Methods are exact
+ * in every mode, they come from the frames. In TIERED mode compiled methods have no frames, their time goes
+ * to the interpreted method that called them.
+ */
+public class SampleProfile {
+    @Getter
+    private long samples;
+
+    /**
+     * Samples that caught the stacks in the middle of a change and were dropped, for example
+     * between a call and the callee's enter.
+     */
+    @Getter
+    private long droppedSamples;
+
+    private final ByteBuffer codeData;
+    private final int mainAddress;
+
+    private final TreeMap<Integer, String> methodNames = new TreeMap<>();
+
+    private final Map<String, Long> selfSamples = new HashMap<>();
+    private final Map<String, Long> totalSamples = new HashMap<>();
+    private final Map<Integer, Long> pcSamples = new TreeMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+
+    SampleProfile(CodeImage image) {
+        codeData = image.getCodeData();
+        mainAddress = image.getMainAddress();
+
+        for (TypeTable.MethodEntry method : image.getTypes().getMethods()) {
+            methodNames.put(method.getAddress(), method.getName());
+        }
+    }
+
+    /**
+     * Samples with the method on top of the stack.
+     */
+    public long getSelfSamples(String method) {
+        return selfSamples.getOrDefault(method, 0L);
+    }
+
+    /**
+     * Samples with the method anywhere on the stack, once per sample however deep it recursed.
+     */
+    public long getTotalSamples(String method) {
+        return totalSamples.getOrDefault(method, 0L);
+    }
+
+    /**
+     * Samples at each byte address.
+     */
+    public Map<Integer, Long> getPcSamples() {
+        return Collections.unmodifiableMap(pcSamples);
+    }
+
+    /**
+     * Name of the method containing the byte address.
+     */
+    public String methodAt(int address) {
+        Map.Entry<Integer, String> method = methodNames.floorEntry(address);
+        return method != null ? method.getValue() : "?";
+    }
+
+    /**
+     * The pc first, then the call site in each caller.
+     */
+    void record(int[] addresses, int count) {
+        if (count == 0 || !isConsistent(addresses, count)) {
+            droppedSamples++;
+            return;
+        }
+
+        samples++;
+        pcSamples.merge(addresses[0], 1L, Long::sum);
+
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) names[i] = methodAt(addresses[i]);
+
+        selfSamples.merge(names[0], 1L, Long::sum);
+
+        StringBuilder stack = new StringBuilder();
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (!contains(names, i + 1, count, names[i])) totalSamples.merge(names[i], 1L, Long::sum);
+
+            if (i < count - 1) stack.append(';');
+            stack.append(names[i]);
+        }
+
+        stacks.merge(stack.toString(), 1L, Long::sum);
+    }
+
+    /**
+     * Hot methods by self samples, then the hot pcs.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("%d samples, %d dropped%n%n", samples, droppedSamples));
+        report.append(String.format("%-22s %10s %7s %10s %7s%n", "method", "self", "%", "total", "%"));
+
+        List<String> methods = new ArrayList<>(totalSamples.keySet());
+        methods.sort((a, b) -> Long.compare(getSelfSamples(b), getSelfSamples(a)));
+
+        for (String method : methods) {
+            report.append(String.format("%-22s %10d %7.2f %10d %7.2f%n", method,
+                    getSelfSamples(method), percent(getSelfSamples(method)),
+                    getTotalSamples(method), percent(getTotalSamples(method))));
+        }
+
+        report.append(String.format("%n%-22s %8s %10s %7s%n", "pc in", "address", "samples", "%"));
+
+        List<Map.Entry<Integer, Long>> pcs = new ArrayList<>(pcSamples.entrySet());
+        pcs.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+
+        for (Map.Entry<Integer, Long> pc : pcs) {
+            report.append(String.format("%-22s %8d %10d %7.2f%n",
+                    methodAt(pc.getKey()), pc.getKey(), pc.getValue(), percent(pc.getValue())));
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * One line per sampled stack with its sample count, as Profile.collapsedStacks().
+     */
+    public String collapsedStacks() {
+        StringBuilder lines = new StringBuilder();
+
+        for (Map.Entry<String, Long> stack : new TreeMap<>(stacks).entrySet()) {
+            lines.append(stack.getKey()).append(' ').append(stack.getValue()).append('\n');
+        }
+
+        return lines.toString();
+    }
+
+    /**
+     * Whether the stack starts in main and each call site calls the method above it.
+     */
+    private boolean isConsistent(int[] addresses, int count) {
+        if (!Integer.valueOf(mainAddress).equals(methodNames.floorKey(addresses[count - 1]))) return false;
+
+        for (int i = 0; i < count - 1; i++) {
+            int site = addresses[i + 1];
+            Integer method = methodNames.floorKey(addresses[i]);
+
+            if (method == null || site < 0 || codeData.get(site) != OpCode.CALL.ordinal()
+                    || (DecodedCode.getShort(codeData, site + 1) & 0xffff) != method) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private double percent(long count) {
+        return samples > 0 ? 100.0 * count / samples : 0;
+    }
+
+    private static boolean contains(String[] names, int from, int to, String name) {
+        for (int i = from; i < to; i++) {
+            if (names[i].equals(name)) return true;
+        }
+
+        return false;
+    }
+}
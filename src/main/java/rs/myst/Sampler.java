@@ -0,0 +1,61 @@
+package rs.myst;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread that samples a running VM's call stack at a fixed interval into a SampleProfile.
+ * The VM doesn't stop or cooperate, the sampler reads its stacks while they change, see VM.sampleStack().
+ */
+class Sampler implements Runnable {
+    /**
+     * Deepest stack a sample keeps, every frame takes at least the return address and the saved base.
+     */
+    private static final int MAX_FRAMES = 256;
+
+    private final VM vm;
+    private final SampleProfile samples;
+    private final long intervalNanos;
+
+    private final Thread thread;
+    private volatile boolean running;
+
+    Sampler(VM vm, SampleProfile samples, int intervalMicros) {
+        this.vm = vm;
+        this.samples = samples;
+        this.intervalNanos = intervalMicros * 1000L;
+
+        thread = new Thread(this, "microj-sampler");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the thread, after that the samples are safe to read.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        int[] addresses = new int[MAX_FRAMES];
+
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            if (!running) break;
+
+            samples.record(addresses, vm.sampleStack(addresses));
+        }
+    }
+}
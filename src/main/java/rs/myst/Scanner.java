@@ -1,10 +1,22 @@
 package rs.myst;
 
+import jdk.jfr.EventType;
+
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 public class Scanner {
     private final Reader input;
+    // UTF-8 input read straight from a buffer, the fast path, used instead of input when set
+    private final ByteBuffer bytes;
+    // second half of a surrogate pair decoded from the bytes
+    private char pendingChar;
 
     private char nextChar;
     private boolean reachedEOF;
@@ -12,144 +24,270 @@ public class Scanner {
     private int line = 1;
     private int col = 0;
 
-    private Token lastToken;
+    private TokenKind lastKind;
+
+    // the token scan() read, next() makes a Token of it
+    private int tokenLine;
+    private int tokenCol;
+    private int tokenOffset;
+    private int tokenValue;
+    // characters of the last name, reused by every name
+    private char[] name = new char[32];
+    private int nameLength;
+
+    private int tokenCount;
+    private long characterCount;
+
+    // only made while a recording wants it, a scanner is made for every edit and every parallel chunk
+    private static final EventType SCAN_EVENT = EventType.getEventType(Events.Scan.class);
+    private Events.Scan event;
+
+    // keywords by first letter and length, which happen to tell all of them apart
+    private static final int KEYWORD_LENGTHS = 8;
+    private static final char[][] KEYWORDS = new char[26 * KEYWORD_LENGTHS][];
+    private static final TokenKind[] KEYWORD_KINDS = new TokenKind[26 * KEYWORD_LENGTHS];
+
+    static {
+        addKeyword("break", TokenKind.BREAK);
+        addKeyword("class", TokenKind.CLASS);
+        addKeyword("else", TokenKind.ELSE);
+        addKeyword("final", TokenKind.FINAL);
+        addKeyword("if", TokenKind.IF);
+        addKeyword("new", TokenKind.NEW);
+        addKeyword("print", TokenKind.PRINT);
+        addKeyword("program", TokenKind.PROGRAM);
+        addKeyword("read", TokenKind.READ);
+        addKeyword("return", TokenKind.RETURN);
+        addKeyword("void", TokenKind.VOID);
+        addKeyword("while", TokenKind.WHILE);
+    }
+
+    private static void addKeyword(String keyword, TokenKind kind) {
+        int slot = (keyword.charAt(0) - 'a') * KEYWORD_LENGTHS + keyword.length();
+
+        if (KEYWORDS[slot] != null) throw new IllegalStateException("Keywords " + keyword + " and " + new String(KEYWORDS[slot]) + " collide");
+
+        KEYWORDS[slot] = keyword.toCharArray();
+        KEYWORD_KINDS[slot] = kind;
+    }
 
     public Scanner(Reader inputReader) {
-        this.input = inputReader;
+        this(inputReader, null, 0, 1, 1);
+    }
+
+    /**
+     * Scans UTF-8 bytes, from the buffer's position to its limit, without a Reader in between.
+     */
+    public Scanner(ByteBuffer input) {
+        this(null, input, 0, 1, 1);
+    }
+
+    /**
+     * Scans from the middle of a source, the input read up to offset, where a token starts at line and col.
+     */
+    Scanner(Reader input, int offset, int line, int col) {
+        this(input, null, offset, line, col);
+    }
+
+    private Scanner(Reader input, ByteBuffer bytes, int offset, int line, int col) {
+        this.input = input;
+        this.bytes = bytes;
+        this.characterCount = offset;
+        this.line = line;
+        this.col = col - 1;
+
+        if (SCAN_EVENT.isEnabled()) {
+            event = new Events.Scan();
+            event.begin();
+        }
 
         getNextChar();
     }
 
+    /**
+     * Scans a source file mapped into memory.
+     */
+    public static Scanner open(Path path) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Tokens returned so far, the end of the input counts once.
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
     public boolean hasNext() {
-        return lastToken.getKind() != TokenKind.INVALID && lastToken.getKind() != TokenKind.EOF;
+        return lastKind != TokenKind.INVALID && lastKind != TokenKind.EOF;
     }
 
     public Token next() {
-        // skip whitespace
-        while (Character.isWhitespace(nextChar) && !reachedEOF) getNextChar();
+        TokenKind kind = scan();
+
+        Token t = new Token(tokenLine, tokenCol);
+        t.setKind(kind);
+
+        if (kind == TokenKind.IDENTIFIER) {
+            t.setString(new String(name, 0, nameLength));
+        } else if (kind == TokenKind.NUMBER || kind == TokenKind.CHAR) {
+            t.setValue(tokenValue);
+        }
+
+        return t;
+    }
 
-        Token t = new Token(line, col);
+    /**
+     * Reads the next token without making a Token of it, its position and value are left in the scanner
+     * and the characters of a name in getName(). Nothing is allocated for a token.
+     */
+    TokenKind scan() {
+        TokenKind kind;
 
-        if (reachedEOF) {
-            t.setKind(TokenKind.EOF);
-            lastToken = t;
-            return t;
+        // a comment is skipped like whitespace, the token after it is read instead
+        do {
+            // skip whitespace
+            while (Character.isWhitespace(nextChar) && !reachedEOF) getNextChar();
+
+            tokenLine = line;
+            tokenCol = col;
+            tokenOffset = offset();
+        } while ((kind = readToken()) == null);
+
+        if (kind != TokenKind.EOF) {
+            tokenCount++;
+        } else if (lastKind != TokenKind.EOF) {
+            tokenCount++;
+            scanned();
         }
 
+        lastKind = kind;
+        return kind;
+    }
+
+    /**
+     * The token starting at nextChar, or null for a comment.
+     */
+    private TokenKind readToken() {
+        if (reachedEOF) return TokenKind.EOF;
+
         if (Character.isLetter(nextChar)) {
-            readName(t);
+            return readName();
         } else if (Character.isDigit(nextChar)) {
-            readNumber(t);
+            return readNumber();
         } else if (nextChar == ';') {
             getNextChar();
-            t.setKind(TokenKind.SEMICOLON);
+            return TokenKind.SEMICOLON;
         } else if (nextChar == '.') {
             getNextChar();
-            t.setKind(TokenKind.PERIOD);
+            return TokenKind.PERIOD;
         } else if (nextChar == ',') {
             getNextChar();
-            t.setKind(TokenKind.COMMA);
+            return TokenKind.COMMA;
         } else if (nextChar == '*') {
             getNextChar();
-            t.setKind(TokenKind.TIMES);
+            return TokenKind.TIMES;
         } else if (nextChar == '%') {
             getNextChar();
-            t.setKind(TokenKind.MODULO);
+            return TokenKind.MODULO;
         } else if (nextChar == '(') {
             getNextChar();
-            t.setKind(TokenKind.LEFT_PARENS);
+            return TokenKind.LEFT_PARENS;
         } else if (nextChar == ')') {
             getNextChar();
-            t.setKind(TokenKind.RIGHT_PARENS);
+            return TokenKind.RIGHT_PARENS;
         } else if (nextChar == '[') {
             getNextChar();
-            t.setKind(TokenKind.LEFT_BRACKET);
+            return TokenKind.LEFT_BRACKET;
         } else if (nextChar == ']') {
             getNextChar();
-            t.setKind(TokenKind.RIGHT_BRACKET);
+            return TokenKind.RIGHT_BRACKET;
         } else if (nextChar == '{') {
             getNextChar();
-            t.setKind(TokenKind.LEFT_BRACE);
+            return TokenKind.LEFT_BRACE;
         } else if (nextChar == '}') {
             getNextChar();
-            t.setKind(TokenKind.RIGHT_BRACE);
+            return TokenKind.RIGHT_BRACE;
         } else if (nextChar == '=') {
             getNextChar();
 
-            if (nextChar == '=') {
+            if (!reachedEOF && nextChar == '=') {
                 getNextChar();
-                t.setKind(TokenKind.EQUALS);
+                return TokenKind.EQUALS;
             } else {
-                t.setKind(TokenKind.ASSIGN);
+                return TokenKind.ASSIGN;
             }
         } else if (nextChar == '&') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '&') {
                 getNextChar();
-                t.setKind(TokenKind.AND);
+                return TokenKind.AND;
             } else {
-                t.setKind(TokenKind.INVALID);
+                return TokenKind.INVALID;
             }
         } else if (nextChar == '|') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '|') {
                 getNextChar();
-                t.setKind(TokenKind.OR);
+                return TokenKind.OR;
             } else {
-                t.setKind(TokenKind.INVALID);
+                return TokenKind.INVALID;
             }
         } else if (nextChar == '+') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '+') {
                 getNextChar();
-                t.setKind(TokenKind.PLUS_PLUS);
+                return TokenKind.PLUS_PLUS;
             } else {
-                t.setKind(TokenKind.PLUS);
+                return TokenKind.PLUS;
             }
         } else if (nextChar == '-') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '-') {
                 getNextChar();
-                t.setKind(TokenKind.MINUS_MINUS);
+                return TokenKind.MINUS_MINUS;
             } else {
-                t.setKind(TokenKind.MINUS);
+                return TokenKind.MINUS;
             }
         } else if (nextChar == '!') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '=') {
                 getNextChar();
-                t.setKind(TokenKind.NOT_EQUALS);
+                return TokenKind.NOT_EQUALS;
             } else {
-                t.setKind(TokenKind.INVALID);
+                return TokenKind.INVALID;
             }
         } else if (nextChar == '<') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '=') {
                 getNextChar();
-                t.setKind(TokenKind.LESS_EQUAL);
+                return TokenKind.LESS_EQUAL;
             } else {
-                t.setKind(TokenKind.LESS);
+                return TokenKind.LESS;
             }
         } else if (nextChar == '>') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '=') {
                 getNextChar();
-                t.setKind(TokenKind.GREATER);
+                return TokenKind.GREATER_EQUAL;
             } else {
-                t.setKind(TokenKind.GREATER_EQUAL);
+                return TokenKind.GREATER;
             }
         } else if (nextChar == '\'') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '\'') {
-                t.setKind(TokenKind.INVALID);
+                return TokenKind.INVALID;
             } else {
                 char c = nextChar;
 
@@ -158,112 +296,205 @@ public class Scanner {
                 if (!reachedEOF && nextChar == '\'') {
                     getNextChar();
 
-                    t.setKind(TokenKind.CHAR);
-                    t.setValue(c);
+                    tokenValue = c;
+                    return TokenKind.CHAR;
                 } else {
-                    t.setKind(TokenKind.INVALID);
+                    return TokenKind.INVALID;
                 }
             }
         } else if (nextChar == '/') {
             getNextChar();
 
             if (!reachedEOF && nextChar == '/') {
+                // up to the \n, a \r before it is whitespace
                 do {
                     getNextChar();
-                    // TODO: Deal with \r\n line separators
                 } while (!reachedEOF && nextChar != '\n');
 
-                t = next();
+                return null;
             } else {
-                t.setKind(TokenKind.SLASH);
+                return TokenKind.SLASH;
             }
         } else {
             getNextChar();
-            t.setKind(TokenKind.INVALID);
+            return TokenKind.INVALID;
         }
-
-        lastToken = t;
-        return t;
     }
 
-    private void readName(Token t) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(nextChar);
+    private TokenKind readName() {
+        int length = 0;
 
         do {
+            if (length == name.length) name = Arrays.copyOf(name, length * 2);
+            name[length++] = nextChar;
+
             getNextChar();
-            sb.append(nextChar);
-        } while (!reachedEOF && Character.isLetter(nextChar) || Character.isDigit(nextChar) || nextChar == '_');
-
-        sb.deleteCharAt(sb.length() - 1);
-
-        String value = sb.toString();
-
-        TokenKind kind = switch (value) {
-            case "break" -> TokenKind.BREAK;
-            case "class" -> TokenKind.CLASS;
-            case "else" -> TokenKind.ELSE;
-            case "final" -> TokenKind.FINAL;
-            case "if" -> TokenKind.IF;
-            case "new" -> TokenKind.NEW;
-            case "print" -> TokenKind.PRINT;
-            case "program" -> TokenKind.PROGRAM;
-            case "read" -> TokenKind.READ;
-            case "return" -> TokenKind.RETURN;
-            case "void" -> TokenKind.VOID;
-            case "while" -> TokenKind.WHILE;
-            default -> TokenKind.IDENTIFIER;
-        };
+        } while (!reachedEOF && (Character.isLetterOrDigit(nextChar) || nextChar == '_'));
 
-        if (kind == TokenKind.IDENTIFIER) {
-            t.setString(value);
+        nameLength = length;
+
+        return keyword(name, length);
+    }
+
+    /**
+     * Keyword of the name or IDENTIFIER, by a perfect hash of the first letter and the length.
+     */
+    private static TokenKind keyword(char[] name, int length) {
+        char first = name[0];
+        if (first < 'a' || first > 'z' || length >= KEYWORD_LENGTHS) return TokenKind.IDENTIFIER;
+
+        int slot = (first - 'a') * KEYWORD_LENGTHS + length;
+        char[] keyword = KEYWORDS[slot];
+
+        if (keyword == null) return TokenKind.IDENTIFIER;
+
+        for (int i = 1; i < length; i++) {
+            if (name[i] != keyword[i]) return TokenKind.IDENTIFIER;
         }
 
-        t.setKind(kind);
+        return KEYWORD_KINDS[slot];
     }
 
-    private void readNumber(Token t) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(nextChar);
+    private TokenKind readNumber() {
+        int value = 0;
+        boolean tooLarge = false;
 
         do {
+            int digit = Character.digit(nextChar, 10);
+
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                tooLarge = true;
+            } else {
+                value = value * 10 + digit;
+            }
+
             getNextChar();
-            sb.append(nextChar);
         } while (!reachedEOF && Character.isDigit(nextChar));
 
-        sb.deleteCharAt(sb.length() - 1);
+        // a number that doesn't fit an int is an invalid token, the parser reports it where it expected one
+        if (tooLarge) return TokenKind.INVALID;
 
-        try {
-            t.setValue(Integer.parseInt(sb.toString()));
-        } catch (NumberFormatException ignored) {
-            // TODO: error logging
-            t.setKind(TokenKind.INVALID);
+        tokenValue = value;
+        return TokenKind.NUMBER;
+    }
+
+    int getTokenLine() {
+        return tokenLine;
+    }
+
+    int getTokenCol() {
+        return tokenCol;
+    }
+
+    /**
+     * Chars before the last token, in UTF-16 chars like a String.
+     */
+    int getTokenOffset() {
+        return tokenOffset;
+    }
+
+    /**
+     * Value of the last number or char.
+     */
+    int getTokenValue() {
+        return tokenValue;
+    }
+
+    /**
+     * Characters of the last name, up to getNameLength().
+     */
+    char[] getName() {
+        return name;
+    }
+
+    int getNameLength() {
+        return nameLength;
+    }
+
+    /**
+     * The input ended, once.
+     */
+    private void scanned() {
+        if (event == null || !event.shouldCommit()) return;
+
+        event.tokens = tokenCount;
+        event.characters = characterCount;
+        event.lines = line;
+        event.commit();
+    }
+
+    /**
+     * Where nextChar is in the input, the end of it once it's all read.
+     */
+    private int offset() {
+        return (int) (reachedEOF ? characterCount : characterCount - 1);
+    }
+
+    private void getNextChar() {
+        if (reachedEOF) return;
+
+        int in = bytes != null ? readUtf8() : read();
+        col++;
+
+        // EOF
+        if (in == -1) {
+            reachedEOF = true;
             return;
         }
 
-        t.setKind(TokenKind.NUMBER);
+        nextChar = (char) in;
+        characterCount++;
+
+        // \r is whitespace, so a \r\n is one line break like \n and the \r only takes the column after the line's last token
+        if (nextChar == '\n') {
+            line++;
+            col = 0;
+        }
     }
 
-    private void getNextChar() {
+    private int read() {
         try {
-            int in = input.read();
-            col++;
+            return input.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            // EOF
-            if (in == -1) {
-                reachedEOF = true;
-                return;
-            }
+    /**
+     * The next UTF-16 char of the bytes, or -1 at their end. Malformed sequences become U+FFFD.
+     */
+    private int readUtf8() {
+        if (pendingChar != 0) {
+            char c = pendingChar;
+            pendingChar = 0;
+            return c;
+        }
 
-            nextChar = (char) in;
+        if (!bytes.hasRemaining()) return -1;
 
-            // TODO: Deal with \r\n line separators
-            if (nextChar == '\n') {
-                line++;
-                col = 0;
-            }
-        } catch (IOException e) {
-            // TODO: Handle exception
+        int b = bytes.get();
+        return b >= 0 ? b : decodeUtf8(b);
+    }
+
+    private int decodeUtf8(int b) {
+        int continuation = (b & 0xe0) == 0xc0 ? 1 : (b & 0xf0) == 0xe0 ? 2 : (b & 0xf8) == 0xf0 ? 3 : 0;
+        if (continuation == 0 || bytes.remaining() < continuation) return 0xfffd;
+
+        int codePoint = b & (0x3f >> continuation);
+
+        for (int i = 0; i < continuation; i++) {
+            int next = bytes.get(bytes.position());
+            if ((next & 0xc0) != 0x80) return 0xfffd;
+
+            bytes.get();
+            codePoint = codePoint << 6 | next & 0x3f;
         }
+
+        if (!Character.isBmpCodePoint(codePoint)) {
+            pendingChar = Character.lowSurrogate(codePoint);
+            return Character.highSurrogate(codePoint);
+        }
+
+        return codePoint;
     }
 }
@@ -0,0 +1,286 @@
+package rs.myst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Where the references are while a program runs, for the garbage collector. Globals and locals have the
+ * types the compiler recorded in the TypeTable, the types on the expression stack are worked out here by
+ * running every method over types instead of values, the same way CodeAnalysis does it with depths.
+ * <p>
+ * The collector only runs when something gets allocated, so the expression stack is only needed where a frame
+ * can be when that happens: at new and newarr in the method that allocates and at calls in the ones below it.
+ */
+class StackMaps {
+    private final ByteBuffer codeData;
+    private final int end;
+    private final TypeTable types;
+
+    private final boolean[] globalReferences;
+
+    /**
+     * Entry of the method containing each address.
+     */
+    private final TypeTable.MethodEntry[] methodAt;
+
+    /**
+     * References among the locals of each method, indexed by the address of its enter.
+     */
+    private final boolean[][] localReferences;
+
+    /**
+     * References on the method's part of the expression stack before the allocation or call at each address.
+     */
+    private final boolean[][] stackReferences;
+
+    private StackMaps(ByteBuffer codeData, int end, TypeTable types) {
+        this.codeData = codeData;
+        this.end = end;
+        this.types = types;
+
+        globalReferences = references(types.getGlobalTypes());
+        methodAt = new TypeTable.MethodEntry[end];
+        localReferences = new boolean[end][];
+        stackReferences = new boolean[end][];
+    }
+
+    /**
+     * Throws IllegalArgumentException if the code doesn't match its types.
+     */
+    static StackMaps build(ByteBuffer codeData, int start, int end, TypeTable types) {
+        StackMaps maps = new StackMaps(codeData, end, types);
+
+        List<TypeTable.MethodEntry> methods = types.getMethods().stream()
+                .sorted((a, b) -> Integer.compare(a.getAddress(), b.getAddress()))
+                .toList();
+
+        for (int i = 0; i < methods.size(); i++) {
+            TypeTable.MethodEntry method = methods.get(i);
+            int methodEnd = i + 1 < methods.size() ? methods.get(i + 1).getAddress() : end;
+
+            if (method.getAddress() < start || methodEnd > end || method.getAddress() >= methodEnd
+                    || (codeData.get(method.getAddress()) & 0xff) != OpCode.ENTER.ordinal()) {
+                throw new IllegalArgumentException("Method " + method.getName() + " doesn't start with enter");
+            }
+
+            Arrays.fill(maps.methodAt, method.getAddress(), methodEnd, method);
+            maps.localReferences[method.getAddress()] = maps.references(method.getLocalTypes());
+        }
+
+        for (int i = 0; i < methods.size(); i++) {
+            int methodEnd = i + 1 < methods.size() ? methods.get(i + 1).getAddress() : end;
+            maps.analyze(methods.get(i), methodEnd);
+        }
+
+        return maps;
+    }
+
+    boolean[] getGlobalReferences() {
+        return globalReferences;
+    }
+
+    TypeTable.MethodEntry methodAt(int address) {
+        return address >= 0 && address < end ? methodAt[address] : null;
+    }
+
+    boolean[] localReferences(TypeTable.MethodEntry method) {
+        return localReferences[method.getAddress()];
+    }
+
+    /**
+     * Null if the address isn't a reachable allocation or call.
+     */
+    boolean[] stackReferences(int address) {
+        return address >= 0 && address < end ? stackReferences[address] : null;
+    }
+
+    /**
+     * Params the method called at address takes off the caller's stack.
+     */
+    int calleeParams(int callAddress) {
+        return callee(callAddress).getParamsCount();
+    }
+
+    private TypeTable.MethodEntry callee(int callAddress) {
+        int target = DecodedCode.getShort(codeData, callAddress + 1) & 0xffff;
+        TypeTable.MethodEntry callee = types.methodAt(target);
+
+        if (callee == null) {
+            throw new IllegalArgumentException("Call at address " + callAddress + " to " + target + " doesn't target a method");
+        }
+
+        return callee;
+    }
+
+    private void analyze(TypeTable.MethodEntry method, int methodEnd) {
+        var instructions = OpCode.values();
+
+        int[][] before = new int[methodEnd - method.getAddress()][];
+        Deque<Integer> work = new ArrayDeque<>();
+
+        flow(method, methodEnd, before, method.getAddress(), new int[0], work);
+
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            int[] stack = before[address - method.getAddress()];
+
+            int ordinal = codeData.get(address) & 0xff;
+            if (ordinal >= OpCode.BYTECODE_COUNT) {
+                throw new IllegalArgumentException("Illegal instruction " + ordinal + " at address " + address);
+            }
+
+            OpCode instruction = instructions[ordinal];
+            int next = address + instruction.getSize();
+
+            switch (instruction) {
+                case NEW, NEW_ARRAY, CALL -> stackReferences[address] = references(stack);
+                default -> {}
+            }
+
+            switch (instruction) {
+                case LOAD_0, LOAD_1, LOAD_2, LOAD_3, LOAD_4, LOAD_5 ->
+                        stack = push(stack, local(method, instruction.ordinal() - OpCode.LOAD_0.ordinal(), address));
+                case LOAD -> stack = push(stack, local(method, codeData.get(address + 1), address));
+
+                case LOAD_GLOBAL -> {
+                    int global = DecodedCode.getShort(codeData, address + 1);
+
+                    if (global < 0 || global >= types.getGlobalTypes().length) {
+                        throw new IllegalArgumentException("Illegal global " + global + " at address " + address);
+                    }
+
+                    stack = push(stack, types.getGlobalTypes()[global]);
+                }
+
+                case LOAD_FIELD -> {
+                    int object = top(stack, address);
+                    int field = codeData.get(address + 1);
+
+                    if (object < 0 || types.kindOf(object) != TypeTable.Kind.CLASS
+                            || field < 0 || field >= types.get(object).getFieldTypes().length) {
+                        throw new IllegalArgumentException("Illegal field access at address " + address);
+                    }
+
+                    stack = push(pop(stack, 1, address), types.get(object).getFieldTypes()[field]);
+                }
+
+                case ARRAY_LOAD -> {
+                    pop(stack, 2, address);
+                    int array = stack[stack.length - 2];
+
+                    if (array < 0 || types.kindOf(array) != TypeTable.Kind.ARRAY) {
+                        throw new IllegalArgumentException("Illegal array access at address " + address);
+                    }
+
+                    stack = push(pop(stack, 2, address), types.get(array).getElementType());
+                }
+
+                case NEW -> stack = push(stack, allocated(address, TypeTable.Kind.CLASS));
+                case NEW_ARRAY -> stack = push(pop(stack, 1, address), allocated(address, TypeTable.Kind.ARRAY));
+
+                case DUP -> stack = push(stack, top(stack, address));
+                case DUP2 -> {
+                    pop(stack, 2, address);
+                    stack = push(push(stack, stack[stack.length - 2]), stack[stack.length - 1]);
+                }
+
+                case JMP -> {
+                    flow(method, methodEnd, before, address + DecodedCode.getShort(codeData, address + 1), stack, work);
+                    continue;
+                }
+
+                case JEQ, JNE, JGT, JLE, JLT, JGE -> {
+                    stack = pop(stack, 2, address);
+                    flow(method, methodEnd, before, address + DecodedCode.getShort(codeData, address + 1), stack, work);
+                }
+
+                case CALL -> {
+                    TypeTable.MethodEntry callee = callee(address);
+                    stack = pop(stack, callee.getParamsCount(), address);
+                    if (callee.getReturnType() != TypeTable.NONE) stack = push(stack, callee.getReturnType());
+                }
+
+                case RETURN, TRAP -> {
+                    continue;
+                }
+
+                default -> {
+                    // everything else only produces ints
+                    stack = pop(stack, CodeAnalysis.pops(instruction), address);
+                    for (int i = 0; i < CodeAnalysis.pushes(instruction); i++) stack = push(stack, TypeTable.INT);
+                }
+            }
+
+            flow(method, methodEnd, before, next, stack, work);
+        }
+    }
+
+    private void flow(TypeTable.MethodEntry method, int methodEnd, int[][] before, int address, int[] stack, Deque<Integer> work) {
+        if (address < method.getAddress() || address >= methodEnd) {
+            throw new IllegalArgumentException("Control leaves method " + method.getName() + " to address " + address);
+        }
+
+        int[] known = before[address - method.getAddress()];
+
+        if (known == null) {
+            before[address - method.getAddress()] = stack;
+            work.push(address);
+            return;
+        }
+
+        if (known.length != stack.length) {
+            throw new IllegalArgumentException("Inconsistent stack depth at address " + address);
+        }
+
+        for (int i = 0; i < stack.length; i++) {
+            if (types.isReference(known[i]) != types.isReference(stack[i])) {
+                throw new IllegalArgumentException("Reference and int meet at address " + address);
+            }
+        }
+    }
+
+    private int local(TypeTable.MethodEntry method, int index, int address) {
+        int[] locals = method.getLocalTypes();
+
+        if (index < 0 || index >= locals.length) {
+            throw new IllegalArgumentException("Illegal local " + index + " at address " + address);
+        }
+
+        return locals[index];
+    }
+
+    private int allocated(int address, TypeTable.Kind kind) {
+        int type = codeData.get(address + 1) & 0xff;
+
+        if (type >= types.size() || types.kindOf(type) != kind) {
+            throw new IllegalArgumentException("Illegal type " + type + " at address " + address);
+        }
+
+        return type;
+    }
+
+    private static int top(int[] stack, int address) {
+        if (stack.length == 0) throw new IllegalArgumentException("Stack underflow at address " + address);
+        return stack[stack.length - 1];
+    }
+
+    private static int[] push(int[] stack, int type) {
+        int[] pushed = Arrays.copyOf(stack, stack.length + 1);
+        pushed[stack.length] = type;
+        return pushed;
+    }
+
+    private static int[] pop(int[] stack, int count, int address) {
+        if (stack.length < count) throw new IllegalArgumentException("Stack underflow at address " + address);
+        return Arrays.copyOf(stack, stack.length - count);
+    }
+
+    private boolean[] references(int[] slotTypes) {
+        boolean[] references = new boolean[slotTypes.length];
+        for (int i = 0; i < slotTypes.length; i++) references[i] = types.isReference(slotTypes[i]);
+        return references;
+    }
+}
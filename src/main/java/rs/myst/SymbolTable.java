@@ -37,12 +37,12 @@ public class SymbolTable {
 
         final Scope scope = scopes.getLast();
 
+        symbol.setScopeType(scopes.size() == 2 ? ScopeType.GLOBAL : ScopeType.LOCAL);
+
         if (symbol.getKind() == SymbolKind.VARIABLE) {
             symbol.setAddress(symbol.getScopeType() == ScopeType.GLOBAL ? nextGlobalAddress++ : nextLocalAddress++);
         }
 
-        symbol.setScopeType(scopes.size() == 2 ? ScopeType.GLOBAL : ScopeType.LOCAL);
-
         scope.addNode(symbol);
 
         return symbol;
@@ -62,6 +62,9 @@ public class SymbolTable {
     }
 
     public void openScope() {
+        // method and class scopes number their locals and fields from 0
+        if (scopes.size() == 2) nextLocalAddress = 0;
+
         Scope newS = new Scope();
         newS.setLoop(nextScopeIsLoop);
         nextScopeIsLoop = false;
@@ -0,0 +1,16 @@
+package rs.myst;
+
+/**
+ * Where a method runs in TIERED mode.
+ */
+public enum Tier {
+    /**
+     * Run by the decoded interpreter, counting calls and backward jumps.
+     */
+    INTERPRETED,
+
+    /**
+     * Compiled to JVM bytecode by JitCompiler.
+     */
+    COMPILED
+}
@@ -0,0 +1,121 @@
+package rs.myst;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which tier runs each method in TIERED mode. Every method starts out in the decoded interpreter,
+ * which reports calls and backward jumps here. Once either counter crosses its threshold from VMOptions
+ * the method is compiled by JitCompiler and later calls to it run the compiled code. A hot loop also
+ * moves its running activation over through on-stack replacement, so a loop in main that is never
+ * called again still ends up compiled.
+ * <p>
+ * Counters belong to one VM, compiled code goes to the image's CodeCache and is used by every VM from then on.
+ */
+class TierManager {
+    private final CodeCache cache;
+    private final VMOptions options;
+
+    private final int[] invocations;
+    private final int[] backedges;
+
+    private final boolean[] osrRequested;
+
+    TierManager(CodeCache cache, int codeLength, VMOptions options) {
+        this.cache = cache;
+        this.options = options;
+
+        invocations = new int[codeLength];
+        backedges = new int[codeLength];
+        osrRequested = new boolean[codeLength];
+    }
+
+    /**
+     * Called by the interpreter at a call to the method entered at the given index.
+     * Runs the compiled method and returns true if there is one, otherwise the interpreter makes the call.
+     */
+    boolean call(VM vm, int index) {
+        MethodHandle bridge = cache.bridge(index);
+
+        if (bridge == null) {
+            // only the call that crosses the threshold asks, a method that can't be compiled stays interpreted
+            if (++invocations[index] != options.getCompileThreshold()) return false;
+
+            compile(index, JitCompiler.NO_OSR);
+
+            bridge = cache.bridge(index);
+            if (bridge == null) return false;
+        }
+
+        invoke(bridge, vm);
+
+        return true;
+    }
+
+    /**
+     * Called by the interpreter at a jump back to the given index. Once the method's loops are hot this
+     * continues the running activation in compiled code through an OSR entry at the jump target, returns
+     * true if that happened and the activation is done, the interpreter then only has to pop its frame.
+     */
+    boolean backedge(VM vm, int index) {
+        int method = cache.methodAt(index);
+
+        if (method == CodeCache.NO_METHOD || ++backedges[method] < options.getBackedgeThreshold()) return false;
+
+        if (!options.isOsr()) {
+            if (backedges[method] == options.getBackedgeThreshold()) compile(method, JitCompiler.NO_OSR);
+            return false;
+        }
+
+        MethodHandle entry = cache.osrEntry(index);
+
+        if (entry == null) {
+            if (osrRequested[index]) return false;
+            osrRequested[index] = true;
+
+            compile(method, index);
+
+            entry = cache.osrEntry(index);
+            if (entry == null) return false;
+        }
+
+        invoke(entry, vm);
+
+        return true;
+    }
+
+    Tier tierOf(int index) {
+        return cache.bridge(index) != null ? Tier.COMPILED : Tier.INTERPRETED;
+    }
+
+    List<MethodStats> getStats() {
+        List<MethodStats> stats = new ArrayList<>();
+
+        for (int i = 0; i < invocations.length; i++) {
+            if (cache.methodAt(i) == i) {
+                stats.add(new MethodStats(cache.addressOf(i), invocations[i], backedges[i], tierOf(i)));
+            }
+        }
+
+        return stats;
+    }
+
+    private void compile(int method, int osrIndex) {
+        String failure = cache.compile(method, osrIndex);
+        if (failure != null && options.isVerboseJit()) System.err.printf("[%s]%n", failure);
+    }
+
+    private static void invoke(MethodHandle entry, VM vm) {
+        try {
+            entry.invokeExact(vm);
+        } catch (StackOverflowError e) {
+            // compiled calls nest on the JVM stack, which can run out before the frame stack does
+            throw new VMException("Frame stack overflow");
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package rs.myst;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A whole source scanned ahead of the parse, the tokens kept in parallel arrays instead of a Token each.
+ * The value of an identifier is its id in the interned names, two tokens of the same name have the same id
+ * and the same String. Always ends with an EOF token.
+ * <p>
+ * A buffer of a String can be edited, see edit, the tokens the edit touched are scanned again in place.
+ */
+public final class TokenBuffer {
+    private static final TokenKind[] KINDS = TokenKind.values();
+
+    // smaller inputs aren't worth splitting
+    private static final int MIN_CHUNK = 64 * 1024;
+    // chunks per thread, so a slow chunk doesn't hold the others up
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private byte[] kinds;
+    private int[] lines;
+    private int[] cols;
+    private int[] offsets;
+    private int[] values;
+    private int size;
+
+    private final Names names = new Names();
+
+    private TokenBuffer(int capacity) {
+        kinds = new byte[capacity];
+        lines = new int[capacity];
+        cols = new int[capacity];
+        offsets = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Scans everything up to the end of the input.
+     */
+    public static TokenBuffer scan(Scanner scanner) {
+        TokenBuffer tokens = new TokenBuffer(256);
+
+        TokenKind kind;
+        do {
+            kind = scanner.scan();
+            tokens.add(kind, scanner, tokens.names);
+        } while (kind != TokenKind.EOF);
+
+        return tokens;
+    }
+
+    /**
+     * The tokens changed by one edit of a source: from is the first, removed of the old ones were replaced
+     * by inserted new ones, and everything after them only moved.
+     */
+    record Change(int from, int removed, int inserted) {}
+
+    /**
+     * Applies an edit of the source these tokens were scanned from, text being the source after it, the
+     * removed chars at offset replaced by inserted chars. Scanning starts again at the last token before the
+     * edit, which could run into it, and stops at the first token after it that starts where an old one did,
+     * since from there on the text and the tokens are the same as before. The ones after it are moved.
+     */
+    Change edit(String text, int offset, int removed, int inserted) {
+        int delta = inserted - removed;
+
+        // the last token starting before the edit
+        int from = Arrays.binarySearch(offsets, 0, size, offset);
+        from = from >= 0 ? from - 1 : -from - 2;
+
+        StringReader reader = new StringReader(text);
+        Scanner scanner;
+
+        if (from < 0) {
+            from = 0;
+            scanner = new Scanner(reader);
+        } else {
+            try {
+                reader.skip(offsets[from]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            scanner = new Scanner(reader, offsets[from], lines[from], cols[from]);
+        }
+
+        TokenBuffer scanned = new TokenBuffer(16);
+        int to = from;
+
+        while (true) {
+            TokenKind kind = scanner.scan();
+            int start = scanner.getTokenOffset();
+
+            if (start >= offset + inserted) {
+                while (offsets[to] < start - delta) to++;
+
+                // EOF always ends up here
+                if (offsets[to] == start - delta) break;
+            }
+
+            scanned.add(kind, scanner, names);
+        }
+
+        // only what actually changed gets replaced, what was scanned again the same is left alone
+        int same = 0;
+        while (from + same < to && same < scanned.size && scanned.equals(same, this, from + same)) same++;
+
+        move(to, delta, scanner.getTokenLine() - lines[to], scanner.getTokenCol() - cols[to]);
+
+        Change change = new Change(from + same, to - from - same, scanned.size - same);
+        splice(change, scanned, same);
+
+        return change;
+    }
+
+    /**
+     * Moves the tokens from index on by an edit before them, the ones on the line of the first also along the line.
+     */
+    private void move(int index, int delta, int lineDelta, int colDelta) {
+        int line = lines[index];
+
+        for (int i = index; i < size && lines[i] == line; i++) cols[i] += colDelta;
+
+        for (int i = index; i < size; i++) {
+            lines[i] += lineDelta;
+            offsets[i] += delta;
+        }
+    }
+
+    private void splice(Change change, TokenBuffer scanned, int scannedFrom) {
+        int tail = size - change.from - change.removed;
+        int newSize = size - change.removed + change.inserted;
+
+        if (newSize > kinds.length) grow(Math.max(newSize, kinds.length * 2));
+
+        int from = change.from + change.removed;
+        int to = change.from + change.inserted;
+
+        System.arraycopy(kinds, from, kinds, to, tail);
+        System.arraycopy(lines, from, lines, to, tail);
+        System.arraycopy(cols, from, cols, to, tail);
+        System.arraycopy(offsets, from, offsets, to, tail);
+        System.arraycopy(values, from, values, to, tail);
+
+        System.arraycopy(scanned.kinds, scannedFrom, kinds, change.from, change.inserted);
+        System.arraycopy(scanned.lines, scannedFrom, lines, change.from, change.inserted);
+        System.arraycopy(scanned.cols, scannedFrom, cols, change.from, change.inserted);
+        System.arraycopy(scanned.offsets, scannedFrom, offsets, change.from, change.inserted);
+        System.arraycopy(scanned.values, scannedFrom, values, change.from, change.inserted);
+
+        size = newSize;
+    }
+
+    private boolean equals(int index, TokenBuffer other, int otherIndex) {
+        return kinds[index] == other.kinds[otherIndex] && values[index] == other.values[otherIndex]
+                && lines[index] == other.lines[otherIndex] && cols[index] == other.cols[otherIndex]
+                && offsets[index] == other.offsets[otherIndex];
+    }
+
+    /**
+     * Scans UTF-8 bytes in chunks on the pool and stitches the tokens back together, the same tokens the
+     * scanner gives reading it in one go. A pool of one thread just scans it in one go.
+     */
+    public static TokenBuffer scanParallel(ByteBuffer input, ForkJoinPool pool) {
+        if (pool.getParallelism() == 1) return scan(new Scanner(input.slice()));
+
+        int chunkSize = Math.max(MIN_CHUNK, input.remaining() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+
+        return scanParallel(input, pool, chunkSize);
+    }
+
+    static TokenBuffer scanParallel(ByteBuffer input, ForkJoinPool pool, int chunkSize) {
+        List<Integer> starts = chunkStarts(input, chunkSize);
+
+        if (starts.size() == 1) return scan(new Scanner(input.slice()));
+
+        List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < starts.size(); i++) {
+            int start = starts.get(i);
+            int end = i + 1 < starts.size() ? starts.get(i + 1) : input.limit();
+
+            tasks.add(pool.submit(() -> scan(new Scanner(input.slice(start, end - start)))));
+        }
+
+        List<TokenBuffer> chunks = tasks.stream().map(ForkJoinTask::join).toList();
+
+        // every chunk starts on a new line at line 1 and ends with an EOF token on its last line,
+        // and every chunk but the last drops that EOF
+        int[] offsets = new int[chunks.size()];
+        int[] lengths = new int[chunks.size()];
+        int[] lineOffsets = new int[chunks.size()];
+        int[] charOffsets = new int[chunks.size()];
+        int[][] nameIds = new int[chunks.size()][];
+
+        TokenBuffer tokens = new TokenBuffer(1);
+
+        int size = 0;
+        int lines = 0;
+        int chars = 0;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            TokenBuffer chunk = chunks.get(i);
+
+            offsets[i] = size;
+            lengths[i] = i + 1 < chunks.size() ? chunk.size - 1 : chunk.size;
+            lineOffsets[i] = lines;
+            charOffsets[i] = chars;
+            size += lengths[i];
+            lines += chunk.lines[chunk.size - 1] - 1;
+            chars += chunk.offsets[chunk.size - 1];
+
+            // interned in the order the names first appear in the input, the ids come out as in one scan
+            nameIds[i] = new int[chunk.names.size()];
+            for (int id = 0; id < nameIds[i].length; id++) {
+                nameIds[i][id] = tokens.names.intern(chunk.names.get(id));
+            }
+        }
+
+        tokens.kinds = new byte[size];
+        tokens.lines = new int[size];
+        tokens.cols = new int[size];
+        tokens.offsets = new int[size];
+        tokens.values = new int[size];
+        tokens.size = size;
+
+        List<ForkJoinTask<?>> copies = new ArrayList<>();
+
+        for (int i = 0; i < chunks.size(); i++) {
+            int chunkIndex = i;
+            copies.add(pool.submit(() -> tokens.copy(chunks.get(chunkIndex), offsets[chunkIndex], lengths[chunkIndex],
+                    lineOffsets[chunkIndex], charOffsets[chunkIndex], nameIds[chunkIndex])));
+        }
+
+        copies.forEach(ForkJoinTask::join);
+
+        return tokens;
+    }
+
+    /**
+     * Where the chunks begin, right after a newline that can't be inside a token. The only token a newline
+     * can be part of is a char, which has a quote before it.
+     */
+    private static List<Integer> chunkStarts(ByteBuffer input, int chunkSize) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(input.position());
+
+        int position = input.position() + chunkSize;
+
+        while (position < input.limit()) {
+            while (position < input.limit() && (input.get(position - 1) != '\n'
+                    || position - 2 >= input.position() && input.get(position - 2) == '\'')) {
+                position++;
+            }
+
+            if (position >= input.limit()) break;
+
+            starts.add(position);
+            position += chunkSize;
+        }
+
+        return starts;
+    }
+
+    private void copy(TokenBuffer chunk, int offset, int length, int lineOffset, int charOffset, int[] nameIds) {
+        for (int i = 0; i < length; i++) {
+            kinds[offset + i] = chunk.kinds[i];
+            lines[offset + i] = chunk.lines[i] + lineOffset;
+            cols[offset + i] = chunk.cols[i];
+            offsets[offset + i] = chunk.offsets[i] + charOffset;
+            values[offset + i] = chunk.kinds[i] == TokenKind.IDENTIFIER.ordinal() ? nameIds[chunk.values[i]] : chunk.values[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenKind kind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    public int line(int index) {
+        return lines[index];
+    }
+
+    public int col(int index) {
+        return cols[index];
+    }
+
+    /**
+     * Chars of the source before the token, the length of it for EOF.
+     */
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Int or char value, or the name id of an identifier.
+     */
+    public int value(int index) {
+        return values[index];
+    }
+
+    /**
+     * The name of an identifier, null for the other tokens.
+     */
+    public String string(int index) {
+        return kinds[index] == TokenKind.IDENTIFIER.ordinal() ? names.get(values[index]) : null;
+    }
+
+    /**
+     * Number of different identifiers, after edits including the ones that are gone.
+     */
+    public int nameCount() {
+        return names.size();
+    }
+
+    /**
+     * Adds the token the scanner just read, its name interned in names.
+     */
+    private void add(TokenKind kind, Scanner scanner, Names names) {
+        int value = 0;
+
+        if (kind == TokenKind.IDENTIFIER) {
+            value = names.intern(scanner.getName(), scanner.getNameLength());
+        } else if (kind == TokenKind.NUMBER || kind == TokenKind.CHAR) {
+            value = scanner.getTokenValue();
+        }
+
+        if (size == kinds.length) grow(size * 2);
+
+        kinds[size] = (byte) kind.ordinal();
+        lines[size] = scanner.getTokenLine();
+        cols[size] = scanner.getTokenCol();
+        offsets[size] = scanner.getTokenOffset();
+        values[size] = value;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        cols = Arrays.copyOf(cols, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}
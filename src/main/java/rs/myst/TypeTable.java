@@ -0,0 +1,261 @@
+package rs.myst;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Types of everything a program keeps in memory, written by the compiler right after the code section.
+ * The VM lays out objects and arrays by it and uses it to tell references from ints in globals,
+ * frames and the expression stack when it collects garbage, see StackMaps.
+ * <p>
+ * Types are numbered in the order they were added, int and char always come first.
+ * The operand of new is the number of the class, the operand of newarr the number of the array type.
+ */
+public class TypeTable {
+    public static final int NONE = -1;
+    public static final int INT = 0;
+    public static final int CHAR = 1;
+
+    /**
+     * Type numbers are unsigned bytes in the code.
+     */
+    public static final int MAX_TYPES = 256;
+
+    public enum Kind {
+        INT,
+        CHAR,
+        ARRAY,
+        CLASS
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class TypeEntry {
+        private final Kind kind;
+        private final String name;
+        private final int elementType;
+        private int[] fieldTypes = new int[0];
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class MethodEntry {
+        private final int address;
+        private final String name;
+        private final int returnType;
+        private final int paramsCount;
+
+        /**
+         * Params first, then the rest of the locals, in frame order.
+         */
+        private final int[] localTypes;
+    }
+
+    private final List<TypeEntry> types = new ArrayList<>();
+    private final List<MethodEntry> methods = new ArrayList<>();
+
+    @Getter
+    private int[] globalTypes = new int[0];
+
+    public TypeTable() {
+        types.add(new TypeEntry(Kind.INT, "int", NONE));
+        types.add(new TypeEntry(Kind.CHAR, "char", NONE));
+    }
+
+    /* Building, done by the compiler */
+
+    public int addClass(String name) {
+        return add(new TypeEntry(Kind.CLASS, name, NONE));
+    }
+
+    public void setFieldTypes(int classType, int[] fieldTypes) {
+        types.get(classType).fieldTypes = fieldTypes;
+    }
+
+    public int arrayOf(int elementType) {
+        for (int i = 0; i < types.size(); i++) {
+            TypeEntry type = types.get(i);
+            if (type.kind == Kind.ARRAY && type.elementType == elementType) return i;
+        }
+
+        return add(new TypeEntry(Kind.ARRAY, null, elementType));
+    }
+
+    public void setGlobalTypes(int[] globalTypes) {
+        this.globalTypes = globalTypes;
+    }
+
+    public void addMethod(int address, String name, int returnType, int paramsCount, int[] localTypes) {
+        methods.add(new MethodEntry(address, name, returnType, paramsCount, localTypes));
+    }
+
+    private int add(TypeEntry type) {
+        if (types.size() == MAX_TYPES) {
+            throw new IllegalArgumentException("More than " + MAX_TYPES + " types");
+        }
+
+        types.add(type);
+        return types.size() - 1;
+    }
+
+    /* Queries, done by the VM */
+
+    public int size() {
+        return types.size();
+    }
+
+    public TypeEntry get(int type) {
+        return types.get(type);
+    }
+
+    public Kind kindOf(int type) {
+        return types.get(type).kind;
+    }
+
+    public boolean isReference(int type) {
+        return type != NONE && (kindOf(type) == Kind.ARRAY || kindOf(type) == Kind.CLASS);
+    }
+
+    public List<MethodEntry> getMethods() {
+        return methods;
+    }
+
+    /**
+     * The method whose enter instruction is at address, null if there is none.
+     */
+    public MethodEntry methodAt(int address) {
+        for (MethodEntry method : methods) {
+            if (method.address == address) return method;
+        }
+
+        return null;
+    }
+
+    /* Object file section */
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeShort(types.size());
+
+        for (TypeEntry type : types) {
+            out.writeByte(type.kind.ordinal());
+
+            switch (type.kind) {
+                case ARRAY -> writeType(out, type.elementType);
+                case CLASS -> {
+                    out.writeUTF(type.name);
+                    out.writeByte(type.fieldTypes.length);
+                    for (int field : type.fieldTypes) writeType(out, field);
+                }
+                default -> {}
+            }
+        }
+
+        out.writeShort(globalTypes.length);
+        for (int global : globalTypes) writeType(out, global);
+
+        out.writeShort(methods.size());
+
+        for (MethodEntry method : methods) {
+            out.writeShort(method.address);
+            out.writeUTF(method.name);
+            writeType(out, method.returnType);
+            out.writeByte(method.paramsCount);
+            out.writeByte(method.localTypes.length);
+            for (int local : method.localTypes) writeType(out, local);
+        }
+    }
+
+    /**
+     * Reads the section from offset to the end of the data, throws IllegalArgumentException if it's malformed.
+     */
+    public static TypeTable read(byte[] data, int offset) {
+        TypeTable table = new TypeTable();
+        table.types.clear();
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset))) {
+            int typeCount = in.readUnsignedShort();
+            var kinds = Kind.values();
+
+            for (int i = 0; i < typeCount; i++) {
+                int kind = in.readUnsignedByte();
+                if (kind >= kinds.length) throw new IllegalArgumentException("Illegal type kind " + kind);
+
+                switch (kinds[kind]) {
+                    case INT -> table.types.add(new TypeEntry(Kind.INT, "int", NONE));
+                    case CHAR -> table.types.add(new TypeEntry(Kind.CHAR, "char", NONE));
+                    case ARRAY -> table.types.add(new TypeEntry(Kind.ARRAY, null, readType(in)));
+                    case CLASS -> {
+                        TypeEntry type = new TypeEntry(Kind.CLASS, in.readUTF(), NONE);
+                        type.fieldTypes = readTypes(in, in.readUnsignedByte());
+                        table.types.add(type);
+                    }
+                }
+            }
+
+            table.globalTypes = readTypes(in, in.readUnsignedShort());
+
+            int methodCount = in.readUnsignedShort();
+
+            for (int i = 0; i < methodCount; i++) {
+                int address = in.readUnsignedShort();
+                String name = in.readUTF();
+                int returnType = readType(in);
+                int paramsCount = in.readUnsignedByte();
+
+                table.methods.add(new MethodEntry(address, name, returnType, paramsCount, readTypes(in, in.readUnsignedByte())));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated type table", e);
+        }
+
+        table.validate();
+
+        return table;
+    }
+
+    private void validate() {
+        if (types.size() < 2 || types.get(INT).kind != Kind.INT || types.get(CHAR).kind != Kind.CHAR) {
+            throw new IllegalArgumentException("Type table doesn't start with int and char");
+        }
+
+        for (TypeEntry type : types) {
+            if (type.kind == Kind.ARRAY) checkType(type.elementType);
+            for (int field : type.fieldTypes) checkType(field);
+        }
+
+        for (int global : globalTypes) checkType(global);
+
+        for (MethodEntry method : methods) {
+            for (int local : method.localTypes) checkType(local);
+            if (method.returnType != NONE) checkType(method.returnType);
+        }
+    }
+
+    private void checkType(int type) {
+        if (type < 0 || type >= types.size()) {
+            throw new IllegalArgumentException("Illegal type " + type + " in type table");
+        }
+    }
+
+    private static void writeType(DataOutputStream out, int type) throws IOException {
+        out.writeShort(type == NONE ? 0xffff : type);
+    }
+
+    private static int readType(DataInputStream in) throws IOException {
+        int type = in.readUnsignedShort();
+        return type == 0xffff ? NONE : type;
+    }
+
+    private static int[] readTypes(DataInputStream in, int count) throws IOException {
+        int[] types = new int[count];
+        for (int i = 0; i < count; i++) types[i] = readType(in);
+        return types;
+    }
+}
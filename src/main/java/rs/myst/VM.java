@@ -1,64 +1,372 @@
 package rs.myst;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Scanner;
-
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One MicroJava machine: its stacks, heap, globals and I/O. The code comes from a CodeImage,
+ * which any number of VMs can share, so independent programs can run side by side on separate threads.
+ * A VM itself is only ever used by one thread at a time.
+ */
 public class VM {
-    private static int pc;
-    private static int fbp, fsp, esp;
-    private static int freep = 1; // 0 is reserved for null
+    /**
+     * Lookup the JIT defines its classes with, they are nestmates of VM so they can use its internals.
+     */
+    static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * The BYTECODE engine's pc. The decoded engines keep theirs in a local, and only store it here at enters,
+     * returns and jumps, for samplers.
+     */
+    private int pc;
+    private int fbp, fsp, esp;
+    private int freep = HeapLayout.HEAP_START; // top of the old generation, 0 is reserved for null
 
-    private static final int HEAP_SIZE_WORDS = 100_000;
-    private static final int FSTACK_SIZE_WORDS = 400;
-    private static final int ESTACK_SIZE_WORDS = 30;
+    // deep enough for recursion thousands of calls deep
+    private static final int FSTACK_SIZE_WORDS = 32768;
+    private static final int ESTACK_SIZE_WORDS = 4096;
 
     private static final int WORD_BYTES = 4;
     private static final int SHORT_BYTES = 2;
 
-    private static byte[] codeData;
-    private static int[]  globalData = new int[100]; // TODO
-    private static int[]  heap   = new int[HEAP_SIZE_WORDS];
-    private static final int[]  estack = new int[ESTACK_SIZE_WORDS];
-    private static final int[]  fstack = new int[FSTACK_SIZE_WORDS];
+    static final int CODE_START_ADDRESS = 10;
+
+    private static final int NO_SITE = -1;
+
+    /**
+     * Largest heap a direct buffer can hold.
+     */
+    private static final int MAX_HEAP_WORDS = Integer.MAX_VALUE / Integer.BYTES;
+
+    /**
+     * Objects bigger than this part of the nursery go straight to the old generation.
+     */
+    private static final int LARGE_OBJECT_FRACTION = 4;
+
+    private final CodeImage image;
+    private final VMOptions options;
+
+    private final ByteBuffer codeData;
+    private final int[]  globalData;
+    private IntBuffer    heap;
+    private final int[]  estack = new int[ESTACK_SIZE_WORDS];
+    private final int[]  fstack = new int[FSTACK_SIZE_WORDS];
+
+    /**
+     * The call stack of the register engine, made by its first run.
+     */
+    private int[] callReturns, callBases, callCharges;
+
+    private final ConsoleInput input;
+    private final ConsoleOutput out;
+
+    /**
+     * The loops keep their count in a local and store it here at enters and jumps, and when they finish.
+     */
+    private long instructionsExecuted;
+
+    private long allocatedWords;
+
+    /**
+     * Deepest the stacks have been at an enter, see highWater().
+     */
+    private int estackHighWater, fstackHighWater;
+
+    private final VMMetrics metrics;
+
+    private volatile Thread runningThread;
+
+    private TierManager tiers;
+
+    private long[] opcodePairs;
+
+    private Profile profile;
+
+    private SampleProfile samples;
 
-    private static Scanner input;
+    private final HeapLayout layout;
+    private final MarkCompactCollector collector;
+    private final NurseryCollector nurseryCollector;
+    private GcStats gcStats = new GcStats();
+
+    /**
+     * The nursery is the end of the heap from youngStart, small objects are bump allocated there from youngTop.
+     * Without one youngStart is the end of the heap and everything goes to the old generation.
+     */
+    private int youngStart, youngTop;
+
+    /**
+     * Old objects holding references into the nursery, see writeBarrier().
+     */
+    private int[] remembered = new int[64];
+    private int rememberedCount;
+
+    /**
+     * Byte address of each decoded index while running decoded code, null for bytecode, see addressAt().
+     */
+    private int[] addressOf;
+
+    /**
+     * The register engine keeps its own frames, which the stack maps don't describe.
+     */
+    private boolean collectable;
+
+    public VM(CodeImage image) {
+        this(image, VMOptions.DEFAULT);
+    }
+
+    public VM(CodeImage image, VMOptions options) {
+        this(image, options, System.in, System.out);
+    }
+
+    public VM(CodeImage image, VMOptions options, InputStream in, OutputStream out) {
+        this(image, options, new ConsoleInput(in), new ConsoleOutput(out));
+    }
+
+    public VM(CodeImage image, VMOptions options, ConsoleInput in, ConsoleOutput out) {
+        this.image = image;
+        this.options = options;
+        this.codeData = image.getCodeData();
+        this.layout = image.getLayout();
+        this.collector = new MarkCompactCollector(layout);
+        this.nurseryCollector = new NurseryCollector(layout);
+
+        if (options.getInitialHeapWords() <= HeapLayout.HEAP_START || options.getInitialHeapWords() > options.getMaxHeapWords()
+                || options.getMaxHeapWords() > MAX_HEAP_WORDS) {
+            throw new IllegalArgumentException("Heap of " + options.getInitialHeapWords() + " to "
+                    + options.getMaxHeapWords() + " words isn't possible");
+        }
+
+        if (options.getNurseryWords() < 0 || options.getNurseryWords() > options.getInitialHeapWords() / 2) {
+            throw new IllegalArgumentException("Nursery of " + options.getNurseryWords() + " words doesn't fit the heap");
+        }
+
+        this.globalData = new int[image.getTypes().getGlobalTypes().length];
+        this.heap = HeapMemory.allocate(options.getInitialHeapWords());
+        this.input = in;
+        this.out = out;
+        this.metrics = options.isJmx() ? new VMMetrics(this) : null;
+    }
+
+    public static VM runFromFile(String filePath) throws IOException {
+        return runFromFile(filePath, ExecutionMode.DECODED);
+    }
+
+    public static VM runFromFile(String filePath, ExecutionMode mode) throws IOException {
+        return runFromFile(filePath, mode, VMOptions.DEFAULT);
+    }
+
+    public static VM runFromFile(String filePath, ExecutionMode mode, VMOptions options) throws IOException {
+        VM vm = new VM(CodeImage.load(filePath), options);
+        vm.run(mode);
+        return vm;
+    }
+
+    /**
+     * Runs the program from main, starting with empty globals and heap. Can be called again for another run.
+     */
+    public void run(ExecutionMode mode) {
+        int mainAddress = image.getMainAddress();
 
-    public static void runFromFile(String filePath) throws IOException {
-        File inputFile = new File(filePath);
-        InputStream in = new FileInputStream(inputFile);
-        long inputFileSize = inputFile.length();
+        RegisterCode registerCode = null;
 
-        if (inputFileSize > 3000) {
-            throw new IllegalArgumentException("File too large");
+        if (mode == ExecutionMode.REGISTER) {
+            try {
+                registerCode = image.registerCode();
+            } catch (IllegalArgumentException e) {
+                if (options.isVerboseJit()) System.err.printf("[register engine unavailable, interpreting instead: %s]%n", e.getMessage());
+                mode = ExecutionMode.DECODED;
+            }
         }
 
-        codeData = new byte[(int) inputFileSize];
-        in.read(codeData);
-        in.close();
+        boolean profiling = options.isProfile() || options.isProfileOpcodePairs();
+        boolean decoding = mode == ExecutionMode.DECODED || mode == ExecutionMode.TIERED;
+
+        Verifier verifier = decoding && options.isVerify() ? verifier() : null;
+
+        // only verified code runs unchecked, the checked loop has no superinstructions
+        boolean checked = verifier == null || profiling;
+
+        DecodedCode decoded = decoding ? image.decoded(options.isSuperinstructions() && !checked) : null;
+
+        profile = decoded != null && profiling ? new Profile(image.getTypes()) : null;
+
+        tiers = mode == ExecutionMode.TIERED && profile == null
+                ? new TierManager(image.codeCache(), decoded.getCode().length, options)
+                : null;
+
+        opcodePairs = profile != null && options.isProfileOpcodePairs()
+                ? new long[OpCode.values().length * OpCode.values().length]
+                : null;
 
-        char M = (char) getByte(0);
-        char J = (char) getByte(1);
+        addressOf = decoded != null ? decoded.getAddressOf() : null;
+        collectable = mode != ExecutionMode.REGISTER && hasStackMaps();
 
-        if (M != 'M' || J != 'J') {
-            throw new IllegalArgumentException("Illegal file format");
+        reset();
+
+        samples = options.getSamplingIntervalMicros() > 0 && mode != ExecutionMode.REGISTER
+                ? new SampleProfile(image)
+                : null;
+
+        Sampler sampler = samples != null ? new Sampler(this, samples, options.getSamplingIntervalMicros()) : null;
+        boolean registered = false;
+
+        // all inside the try, whatever started is stopped again if the next one throws
+        try {
+            if (sampler != null) sampler.start();
+
+            runningThread = Thread.currentThread();
+            Events.started(this);
+
+            if (metrics != null) {
+                metrics.register();
+                registered = true;
+            }
+
+            switch (mode) {
+                case BYTECODE -> {
+                    pc = mainAddress;
+                    execute();
+                }
+                case DECODED, TIERED -> {
+                    if (checked) executeChecked(decoded.getCode(), decoded.entry(mainAddress), verifier);
+                    else executeDecoded(decoded.getCode(), decoded.entry(mainAddress), verifier);
+                }
+                case REGISTER -> executeRegisters(registerCode.getCode(), registerCode.entry(mainAddress));
+            }
+        } finally {
+            if (registered) metrics.unregister();
+            Events.stopped(this);
+            runningThread = null;
+
+            if (sampler != null) sampler.stop();
+            if (profile != null) profile.finish(System.nanoTime());
+            out.flush(); // what was printed before an error still shows up
         }
+    }
+
+    /**
+     * Number of instructions executed by the last run, in TIERED mode only the interpreted ones count.
+     */
+    public long getInstructionsExecuted() {
+        return instructionsExecuted;
+    }
+
+    /**
+     * Words of heap the last run allocated, headers included.
+     */
+    public long getAllocatedWords() {
+        return allocatedWords;
+    }
+
+    Thread getRunningThread() {
+        return runningThread;
+    }
+
+    /* For VMMetrics, read from other threads while the VM runs */
+
+    int getEstackHighWater() {
+        return estackHighWater;
+    }
+
+    int getFstackHighWater() {
+        return fstackHighWater;
+    }
 
-        pc = getWord(2);
-        getWord(4);
+    static int getEstackSize() {
+        return ESTACK_SIZE_WORDS;
+    }
+
+    static int getFstackSize() {
+        return FSTACK_SIZE_WORDS;
+    }
+
+    long getHeapUsedWords() {
+        return freep - HeapLayout.HEAP_START + (youngTop - youngStart);
+    }
+
+    long getHeapWords() {
+        return heap.capacity();
+    }
+
+    VMOptions getOptions() {
+        return options;
+    }
+
+    ConsoleInput getInput() {
+        return input;
+    }
+
+    ConsoleOutput getOut() {
+        return out;
+    }
+
+    /**
+     * How often second executed right after first in the last DECODED or TIERED run with VMOptions.profileOpcodePairs.
+     */
+    public long getOpcodePairCount(OpCode first, OpCode second) {
+        return opcodePairs != null ? opcodePairs[first.ordinal() * OpCode.values().length + second.ordinal()] : 0;
+    }
+
+    /**
+     * Counters and current tier of every method in the last TIERED run, empty for the other modes.
+     */
+    public List<MethodStats> getMethodStats() {
+        return tiers != null ? tiers.getStats() : List.of();
+    }
+
+    /**
+     * What the last DECODED or TIERED run with VMOptions.profile spent its time on, null without profiling.
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Call stacks sampled during the last run with VMOptions.samplingIntervalMicros, null without sampling.
+     */
+    public SampleProfile getSamples() {
+        return samples;
+    }
 
-        input = new Scanner(System.in);
+    /**
+     * Garbage collections of the last run.
+     */
+    public GcStats getGcStats() {
+        return gcStats;
+    }
 
-        execute();
+    private void reset() {
+        fbp = fsp = esp = 0;
+        pc = -1; // nothing for samplers until the engine starts
+        // only what the last run used needs clearing, the heap keeps the size it grew to
+        HeapMemory.clear(heap, 0, freep);
+        HeapMemory.clear(heap, youngStart, youngTop);
+
+        freep = HeapLayout.HEAP_START;
+        youngStart = youngTop = heap.capacity() - nurseryWords();
+        rememberedCount = 0;
+        instructionsExecuted = 0;
+        allocatedWords = 0;
+        estackHighWater = fstackHighWater = 0;
+        gcStats = new GcStats();
+
+        Arrays.fill(globalData, 0);
     }
 
-    private static void execute() {
+    private void execute() {
         var instructions = OpCode.values();
+        long executed = 0;
 
         while (true) {
             OpCode instruction = instructions[getByte()];
+            executed++;
 
             switch (instruction) {
                 /* Loading and storing */
@@ -67,7 +375,7 @@ public class VM {
                     epush(getWord());
                     break;
 
-                case CONST_0: case CONST_1: case CONST_2: case CONST_3: case CONST_4: case CONST_5:
+                case CONST_M1: case CONST_0: case CONST_1: case CONST_2: case CONST_3: case CONST_4: case CONST_5:
                     epush(instruction.ordinal() - OpCode.CONST_0.ordinal());
                     break;
 
@@ -83,7 +391,7 @@ public class VM {
 
 
                 case STORE:
-                    fstack[fbp + getShort()] = epop();
+                    fstack[fbp + getByte()] = epop();
                     break;
 
                 case STORE_0: case STORE_1: case STORE_2: case STORE_3: case STORE_4: case STORE_5:
@@ -106,136 +414,50 @@ public class VM {
 
                 case NEW_ARRAY:
                     int length = epop();
-                    int elementSize = getByte();
-
-                    if (length < 0) {
-                        System.err.println("Cannot initialize an array with less than 0 elements.");
-                    }
-
-                    heap[freep] = length;
-                    heap[freep + 1] = elementSize;
-
-                    epush(malloc(elementSize, length) + 2);
+                    int arrayType = getByte() & 0xff;
+                    epush(newArray(length, arrayType, pc - 2));
                     break;
 
                 case ARRAY_LOAD:
                     int index = epop();
-                    address = epop();
-
-                    if (address == 0) {
-                        System.err.println("Null pointer error");
-                    }
-
-                    length = heap[address - 2];
-
-                    if (index < 0 || index >= length) {
-                        System.err.printf("Index %d for length %d%n", index, length);
-                    }
-
-                    elementSize = heap[address - 1];
-
-                    epush(heap[address + index * elementSize]);
+                    epush(arrayLoad(epop(), index));
                     break;
 
                 case ARRAY_STORE:
                     int value = epop();
                     index = epop();
-                    address = epop();
-
-                    if (address == 0) {
-                        System.err.println("Null pointer error");
-                    }
-
-                    length = heap[address - 2];
-                    elementSize = heap[address - 1];
-
-                    if (index < 0 || index >= length) {
-                        System.err.printf("Index %d for length %d%n", index, length);
-                    }
-
-                    heap[address + index * elementSize] = value;
+                    arrayStore(epop(), index, value);
                     break;
 
                 case BARRAY_LOAD:
                     index = epop();
-                    address = epop();
-
-                    if (address == 0) {
-                        System.err.println("Null pointer error");
-                    }
-
-                    length = heap[address - 2];
-
-                    if (index < 0 || index >= length) {
-                        System.err.printf("Index %d for length %d%n", index, length);
-                    }
-
-                    int word = heap[address + index / 4];
-                    int shiftAmount = 8 * (3 - index % 4);
-                    word >>= shiftAmount;
-
-                    epush((byte) word);
+                    epush(byteArrayLoad(epop(), index));
                     break;
 
                 case BARRAY_STORE:
-                    byte b = (byte) epop();
+                    value = epop();
                     index = epop();
-                    address = epop();
-
-                    if (address == 0) {
-                        System.err.println("Null pointer error");
-                    }
-
-                    length = heap[address - 2];
-
-                    if (index < 0 || index >= length) {
-                        System.err.printf("Index %d for length %d%n", index, length);
-                    }
-
-                    word = heap[address + index / 4];
-                    shiftAmount = 8 * (3 - index % 4);
-
-                    int insertValue = b << shiftAmount;
-                    int clearByteMask = ~(0xff << shiftAmount);
-
-                    heap[address + index / 4] = word & clearByteMask | insertValue;
+                    byteArrayStore(epop(), index, value);
                     break;
 
                 case LENGTH:
-                    address = epop() - 2;
-                    if (address < 0) {
-                        System.err.println("Null pointer error");
-                    }
-                    epush(heap[address]);
+                    epush(arrayLength(epop()));
                     break;
 
                 /* Structs */
 
                 case NEW:
-                    int fieldCount = getByte() & 0xff;
-                    epush(malloc(WORD_BYTES, fieldCount));
+                    int classType = getByte() & 0xff;
+                    epush(newObject(classType, pc - 2));
                     break;
 
                 case STORE_FIELD:
                     value = epop();
-                    int structAddress = epop();
-
-                    if (structAddress == 0) {
-                        System.err.println("ERROR");
-                    }
-
-                    int fieldIndex = getByte() & 0xff;
-                    heap[structAddress + fieldIndex] = value;
+                    storeField(epop(), getByte() & 0xff, value);
                     break;
 
                 case LOAD_FIELD:
-                    structAddress = epop();
-                    if (structAddress == 0) {
-                        System.err.println("ERROR");
-                    }
-
-                    fieldIndex = getByte();
-                    epush(heap[structAddress + fieldIndex]);
+                    epush(loadField(epop(), getByte()));
                     break;
 
                 /* Operations */
@@ -251,7 +473,9 @@ public class VM {
                     break;
 
                 case DIV:
-                    epush(epop() / epop());
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2 / v1);
                     break;
 
                 case MUL:
@@ -259,12 +483,36 @@ public class VM {
                     break;
 
                 case REM:
-                    epush(epop() % epop());
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2 % v1);
+                    break;
+
+                /* Stack */
+
+                case POP:
+                    epop();
+                    break;
+
+                case DUP:
+                    v1 = epop();
+                    epush(v1);
+                    epush(v1);
+                    break;
+
+                case DUP2:
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2);
+                    epush(v1);
+                    epush(v2);
+                    epush(v1);
                     break;
 
                 /* Jumps */
 
                 case JMP:
+                    instructionsExecuted = executed;
                     int jumpAmount = getShort();
                     pc += jumpAmount - 3;
                     break;
@@ -303,33 +551,37 @@ public class VM {
                 /* IO */
 
                 case BPRINT:
-                    System.out.print((char) epop());
+                    out.printChar(epop());
                     break;
 
                 case PRINT:
-                    System.out.print(epop());
+                    out.printInt(epop());
                     break;
 
                 case READ:
-                    epush(input.nextInt());
+                    epush(read());
                     break;
 
                 case BREAD:
-                    epush(input.nextByte());
+                    epush(readByte());
                     break;
 
                 case CALL:
-                    int callAddress = getShort();
+                    int callAddress = getShort() & 0xffff;
                     fpush(pc);
                     pc = callAddress;
                     break;
 
                 case RETURN:
-                    if (fsp == 0) return; // no caller = main, exit
+                    if (fsp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
                     pc = fpop(); // get pc that was saved before calling
                     break;
 
                 case ENTER:
+                    instructionsExecuted = executed;
                     int paramsCount = getByte();
                     int localsCount = getByte();
 
@@ -340,6 +592,8 @@ public class VM {
                     for (int i = 0; i < paramsCount; i++) fpush(0);
                     for (int i = 0; i < localsCount; i++) fpush(0);
 
+                    highWater();
+
                     // Loading parameters from estack in reverse
                     for (int i = paramsCount - 1; i >= 0; i--) fstack[fbp + i] = epop();
 
@@ -353,72 +607,1370 @@ public class VM {
                 case NOP:
                     break;
 
+                case TRAP:
+                    error("Method ended without returning a value");
+                    break;
+
                 default:
                     System.err.println("Instruction not implemented: " + instruction.getNiceName());
             }
         }
     }
 
-    private static void error(String msg) {
-        System.err.println("Error: " + msg);
-        System.exit(1);
-    }
+    /**
+     * Same semantics as execute(), but runs on the stream produced by DecodedCode,
+     * so operands are read as ready ints and jumps go straight to their target index.
+     * <p>
+     * Only runs code that passed the Verifier, so the stack pushes and pops are unchecked. Each enter checks
+     * up front that everything the activation will push fits instead.
+     */
+    private void executeDecoded(int[] code, int entry, Verifier verifier) {
+        var instructions = OpCode.values();
+        long executed = 0;
 
-    private static void epush(int x) {
-        if (esp == ESTACK_SIZE_WORDS) error("Expression stack overflow");
-        estack[esp++] = x;
-    }
+        final TierManager tiers = this.tiers;
 
-    private static int epop() {
-        if (esp == 0) error("Tried to pop empty expression stack");
-        return estack[--esp];
-    }
+        int pc = entry;
 
-    private static void fpush(int x) {
-        if (fsp == FSTACK_SIZE_WORDS) error("Frame stack overflow");
-        fstack[fsp++] = x;
-    }
+        while (true) {
+            OpCode instruction = instructions[code[pc++]];
+            executed++;
 
-    private static int fpop() {
-        if (fsp == 0) error("Tried to pop empty frame stack");
-        return fstack[--fsp];
-    }
+            switch (instruction) {
+                /* Loading and storing */
 
+                case CONST:
+                    push(code[pc++]);
+                    break;
 
-    private static byte getByte() {
-        return codeData[pc++];
-    }
+                case LOAD:
+                    push(fstack[fbp + code[pc++]]);
+                    break;
 
-    private static byte getByte(int address) {
-        return codeData[address];
-    }
+                case STORE:
+                    fstack[fbp + code[pc++]] = pop();
+                    break;
 
-    private static short getShort() {
-        return (short) (((short) getByte() << 8) | (getByte() & 0b11111111));
-    }
+                case LOAD_GLOBAL:
+                    push(globalData[code[pc++]]);
+                    break;
 
-    private static short getShort(int address) {
-        return (short) (((short) getByte(address) << 8) | (getByte(address + 1) & 0b11111111));
-    }
+                case STORE_GLOBAL:
+                    globalData[code[pc++]] = pop();
+                    break;
 
-    private static int getWord() {
-        return (getShort() << 16) | (getShort() & 0b11111111_11111111);
-    }
 
-    private static int getWord(int address) {
-        return (getShort(address) << 16) | (getShort(address + 2) & 0b11111111_11111111);
-    }
+                /* Arrays */
 
-    /**
-     * Allocate n blocks of memory, size bytes each
-     */
-    private static int malloc(int size, int n) {
-        int address = freep;
-        int bytes = size * n;
-        int words = (bytes + 3) / 4;
+                case NEW_ARRAY:
+                    int length = pop();
+                    int arrayType = code[pc++];
+                    push(newArray(length, arrayType, pc - 2));
+                    break;
+
+                case ARRAY_LOAD:
+                    int index = pop();
+                    push(arrayLoad(pop(), index));
+                    break;
 
-        freep += words;
+                case ARRAY_STORE:
+                    int value = pop();
+                    index = pop();
+                    arrayStore(pop(), index, value);
+                    break;
 
-        return address;
+                case BARRAY_LOAD:
+                    index = pop();
+                    push(byteArrayLoad(pop(), index));
+                    break;
+
+                case BARRAY_STORE:
+                    value = pop();
+                    index = pop();
+                    byteArrayStore(pop(), index, value);
+                    break;
+
+                case LENGTH:
+                    push(arrayLength(pop()));
+                    break;
+
+                /* Structs */
+
+                case NEW:
+                    int classType = code[pc++];
+                    push(newObject(classType, pc - 2));
+                    break;
+
+                case STORE_FIELD:
+                    value = pop();
+                    storeField(pop(), code[pc++], value);
+                    break;
+
+                case LOAD_FIELD:
+                    push(loadField(pop(), code[pc++]));
+                    break;
+
+                /* Operations */
+
+                case ADD:
+                    push(pop() + pop());
+                    break;
+
+                case SUB:
+                    var v1 = pop();
+                    var v2 = pop();
+                    push(v2 - v1);
+                    break;
+
+                case DIV:
+                    v1 = pop();
+                    v2 = pop();
+                    push(v2 / v1);
+                    break;
+
+                case MUL:
+                    push(pop() * pop());
+                    break;
+
+                case REM:
+                    v1 = pop();
+                    v2 = pop();
+                    push(v2 % v1);
+                    break;
+
+                /* Stack */
+
+                case POP:
+                    pop();
+                    break;
+
+                case DUP:
+                    v1 = pop();
+                    push(v1);
+                    push(v1);
+                    break;
+
+                case DUP2:
+                    v1 = pop();
+                    v2 = pop();
+                    push(v2);
+                    push(v1);
+                    push(v2);
+                    push(v1);
+                    break;
+
+                /* Jumps */
+
+                case JMP:
+                    instructionsExecuted = executed;
+                    int target = code[pc];
+
+                    if (tiers != null && target < pc && tiers.backedge(this, target)) {
+                        // the rest of the activation ran compiled, finish it like exit and return
+                        exit();
+
+                        if (fsp == 0) { // no caller = main, exit
+                            instructionsExecuted = executed;
+                            return;
+                        }
+
+                        pc = fstack[--fsp];
+                        this.pc = pc;
+                        break;
+                    }
+
+                    pc = target;
+                    this.pc = pc;
+                    break;
+
+                case JEQ:
+                    if (pop() == pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+                case JNE:
+                    if (pop() != pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+                case JGE:
+                    if (pop() <= pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+                case JGT:
+                    if (pop() < pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+                case JLE:
+                    if (pop() >= pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+                case JLT:
+                    if (pop() > pop()) pc = code[pc];
+                    else pc++;
+                    break;
+
+
+                /* IO */
+
+                case BPRINT:
+                    out.printChar(pop());
+                    break;
+
+                case PRINT:
+                    out.printInt(pop());
+                    break;
+
+                case READ:
+                    push(read());
+                    break;
+
+                case BREAD:
+                    push(readByte());
+                    break;
+
+                case CALL:
+                    int callIndex = code[pc++];
+                    if (callIndex == DecodedCode.INVALID_TARGET) error("Invalid call target");
+                    fstack[fsp++] = pc;
+                    if (tiers != null && tiers.call(this, callIndex)) break; // ran compiled, which took pc off
+                    pc = callIndex;
+                    break;
+
+                case RETURN:
+                    if (fsp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
+                    pc = fstack[--fsp]; // get pc that was saved before calling
+                    this.pc = pc;
+                    break;
+
+                case ENTER:
+                    instructionsExecuted = executed;
+                    pc = enter(code, pc, verifier);
+                    break;
+
+                case EXIT:
+                    exit();
+                    break;
+
+                case NOP:
+                    break;
+
+                /* Superinstructions, operands first and then the slots of the fused sequence to skip */
+
+                case LOAD_LOAD:
+                    push(fstack[fbp + code[pc]]);
+                    push(fstack[fbp + code[pc + 1]]);
+                    pc += 3;
+                    break;
+
+                case LOAD_CONST_ADD:
+                    push(fstack[fbp + code[pc]] + code[pc + 1]);
+                    pc += 4;
+                    break;
+
+                case LOAD_CONST_ADD_STORE:
+                    fstack[fbp + code[pc + 2]] = fstack[fbp + code[pc]] + code[pc + 1];
+                    pc += 6;
+                    break;
+
+                case LOAD_CONST_JEQ:
+                    pc = fstack[fbp + code[pc]] == code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case LOAD_CONST_JNE:
+                    pc = fstack[fbp + code[pc]] != code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case LOAD_CONST_JGT:
+                    pc = fstack[fbp + code[pc]] > code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case LOAD_CONST_JLE:
+                    pc = fstack[fbp + code[pc]] <= code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case LOAD_CONST_JLT:
+                    pc = fstack[fbp + code[pc]] < code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case LOAD_CONST_JGE:
+                    pc = fstack[fbp + code[pc]] >= code[pc + 1] ? code[pc + 2] : pc + 5;
+                    break;
+
+                case EXIT_RETURN:
+                    exit();
+
+                    if (fsp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
+
+                    pc = fstack[--fsp];
+                    this.pc = pc;
+                    break;
+
+                case TRAP:
+                    error("Method ended without returning a value");
+                    break;
+
+                default:
+                    error("Instruction not implemented: " + instruction.getNiceName());
+            }
+        }
+    }
+
+    /**
+     * executeDecoded() checking every stack push and pop, for code that didn't pass the Verifier. Runs the stream
+     * without superinstructions. Profiled runs go through here too, verified or not, so the opcodes they count
+     * into the profile are the ones in the object file, see VMOptions.profile, and opcode pairs with
+     * VMOptions.profileOpcodePairs. Profiled runs compile nothing.
+     */
+    private void executeChecked(int[] code, int entry, Verifier verifier) {
+        var instructions = OpCode.values();
+        long executed = 0;
+
+        final TierManager tiers = this.tiers;
+        final Profile profile = this.profile;
+        final long[] opcodeCounts = profile != null ? profile.getOpcodeCounts() : null;
+        final long[] pairs = opcodePairs;
+        int previous = -1;
+
+        int pc = entry;
+
+        while (true) {
+            OpCode instruction = instructions[code[pc++]];
+            executed++;
+
+            if (opcodeCounts != null) opcodeCounts[instruction.ordinal()]++;
+
+            if (pairs != null) {
+                if (previous >= 0) pairs[previous * instructions.length + instruction.ordinal()]++;
+                previous = instruction.ordinal();
+            }
+
+            switch (instruction) {
+                /* Loading and storing */
+
+                case CONST:
+                    epush(code[pc++]);
+                    break;
+
+                case LOAD:
+                    epush(fstack[fbp + code[pc++]]);
+                    break;
+
+                case STORE:
+                    fstack[fbp + code[pc++]] = epop();
+                    break;
+
+                case LOAD_GLOBAL:
+                    epush(globalData[code[pc++]]);
+                    break;
+
+                case STORE_GLOBAL:
+                    globalData[code[pc++]] = epop();
+                    break;
+
+
+                /* Arrays */
+
+                case NEW_ARRAY:
+                    int length = epop();
+                    int arrayType = code[pc++];
+                    epush(newArray(length, arrayType, pc - 2));
+                    break;
+
+                case ARRAY_LOAD:
+                    int index = epop();
+                    epush(arrayLoad(epop(), index));
+                    break;
+
+                case ARRAY_STORE:
+                    int value = epop();
+                    index = epop();
+                    arrayStore(epop(), index, value);
+                    break;
+
+                case BARRAY_LOAD:
+                    index = epop();
+                    epush(byteArrayLoad(epop(), index));
+                    break;
+
+                case BARRAY_STORE:
+                    value = epop();
+                    index = epop();
+                    byteArrayStore(epop(), index, value);
+                    break;
+
+                case LENGTH:
+                    epush(arrayLength(epop()));
+                    break;
+
+                /* Structs */
+
+                case NEW:
+                    int classType = code[pc++];
+                    epush(newObject(classType, pc - 2));
+                    break;
+
+                case STORE_FIELD:
+                    value = epop();
+                    storeField(epop(), code[pc++], value);
+                    break;
+
+                case LOAD_FIELD:
+                    epush(loadField(epop(), code[pc++]));
+                    break;
+
+                /* Operations */
+
+                case ADD:
+                    epush(epop() + epop());
+                    break;
+
+                case SUB:
+                    var v1 = epop();
+                    var v2 = epop();
+                    epush(v2 - v1);
+                    break;
+
+                case DIV:
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2 / v1);
+                    break;
+
+                case MUL:
+                    epush(epop() * epop());
+                    break;
+
+                case REM:
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2 % v1);
+                    break;
+
+                /* Stack */
+
+                case POP:
+                    epop();
+                    break;
+
+                case DUP:
+                    v1 = epop();
+                    epush(v1);
+                    epush(v1);
+                    break;
+
+                case DUP2:
+                    v1 = epop();
+                    v2 = epop();
+                    epush(v2);
+                    epush(v1);
+                    epush(v2);
+                    epush(v1);
+                    break;
+
+                /* Jumps, backward ones are counted by jump() while profiling */
+
+                case JMP:
+                    instructionsExecuted = executed;
+                    int target = jump(code, pc);
+
+                    if (tiers != null && target < pc && tiers.backedge(this, target)) {
+                        // the rest of the activation ran compiled, finish it like exit and return
+                        exit();
+
+                        if (fsp == 0) { // no caller = main, exit
+                            instructionsExecuted = executed;
+                            return;
+                        }
+
+                        pc = fstack[--fsp];
+                        this.pc = pc;
+                        break;
+                    }
+
+                    pc = target;
+                    this.pc = pc;
+                    break;
+
+                case JEQ:
+                    if (epop() == epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+                case JNE:
+                    if (epop() != epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+                case JGE:
+                    if (epop() <= epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+                case JGT:
+                    if (epop() < epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+                case JLE:
+                    if (epop() >= epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+                case JLT:
+                    if (epop() > epop()) pc = jump(code, pc);
+                    else pc++;
+                    break;
+
+
+                /* IO */
+
+                case BPRINT:
+                    out.printChar(epop());
+                    break;
+
+                case PRINT:
+                    out.printInt(epop());
+                    break;
+
+                case READ:
+                    epush(read());
+                    break;
+
+                case BREAD:
+                    epush(readByte());
+                    break;
+
+                case CALL:
+                    int callIndex = code[pc++];
+                    if (callIndex == DecodedCode.INVALID_TARGET) error("Invalid call target");
+                    fpush(pc);
+                    if (tiers != null && tiers.call(this, callIndex)) break; // ran compiled, which took pc off
+                    pc = callIndex;
+                    break;
+
+                case RETURN:
+                    if (profile != null) profile.exit(System.nanoTime(), executed);
+
+                    if (fsp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
+                    pc = fstack[--fsp]; // get pc that was saved before calling
+                    this.pc = pc;
+                    break;
+
+                case ENTER:
+                    instructionsExecuted = executed;
+                    if (profile != null) profile.enter(addressOf[pc - 1], System.nanoTime(), executed - 1); // the enter counts for the method
+                    pc = enter(code, pc, verifier);
+                    break;
+
+                case EXIT:
+                    exit();
+                    break;
+
+                case NOP:
+                    break;
+
+                case TRAP:
+                    error("Method ended without returning a value");
+                    break;
+
+                default:
+                    error("Instruction not implemented: " + instruction.getNiceName());
+            }
+        }
+    }
+
+    /**
+     * Runs code translated by RegisterCode. The frame stack is used as the register file,
+     * return addresses and saved frame bases are kept on a separate call stack.
+     */
+    private void executeRegisters(int[] code, int entry) {
+        var instructions = RegisterOpCode.values();
+        long executed = 0;
+
+        if (callReturns == null) {
+            callReturns = new int[FSTACK_SIZE_WORDS];
+            callBases = new int[FSTACK_SIZE_WORDS];
+            callCharges = new int[FSTACK_SIZE_WORDS];
+        }
+
+        final int[] regs = fstack;
+        final int[] returnStack = callReturns;
+        final int[] baseStack = callBases;
+        final int[] chargeStack = callCharges;
+        int csp = 0;
+
+        // frame stack words the other engines would be using, so recursion overflows at the same depth
+        int charged = 0;
+
+        int fbp = 0;
+        int pc = entry;
+
+        while (true) {
+            RegisterOpCode instruction = instructions[code[pc]];
+            executed++;
+
+            switch (instruction) {
+                case MOV:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case MOVI:
+                    regs[fbp + code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                    break;
+
+                case LOAD_GLOBAL:
+                    regs[fbp + code[pc + 1]] = globalData[code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case STORE_GLOBAL:
+                    globalData[code[pc + 1]] = regs[fbp + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case LOAD_FIELD:
+                    regs[fbp + code[pc + 1]] = loadField(regs[fbp + code[pc + 2]], code[pc + 3]);
+                    pc += 4;
+                    break;
+
+                case STORE_FIELD:
+                    storeField(regs[fbp + code[pc + 1]], code[pc + 2], regs[fbp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                /* Operations */
+
+                case ADD:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] + regs[fbp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case SUB:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] - regs[fbp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case MUL:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] * regs[fbp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case DIV:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] / regs[fbp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case REM:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] % regs[fbp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case ADDI:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] + code[pc + 3];
+                    pc += 4;
+                    break;
+
+                case SUBI:
+                    regs[fbp + code[pc + 1]] = regs[fbp + code[pc + 2]] - code[pc + 3];
+                    pc += 4;
+                    break;
+
+                /* Heap */
+
+                case NEW:
+                    regs[fbp + code[pc + 1]] = newObject(code[pc + 2], NO_SITE);
+                    pc += 3;
+                    break;
+
+                case NEW_ARRAY:
+                    regs[fbp + code[pc + 1]] = newArray(regs[fbp + code[pc + 2]], code[pc + 3], NO_SITE);
+                    pc += 4;
+                    break;
+
+                case ARRAY_LOAD:
+                    regs[fbp + code[pc + 1]] = arrayLoad(regs[fbp + code[pc + 2]], regs[fbp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                case ARRAY_STORE:
+                    arrayStore(regs[fbp + code[pc + 1]], regs[fbp + code[pc + 2]], regs[fbp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                case BARRAY_LOAD:
+                    regs[fbp + code[pc + 1]] = byteArrayLoad(regs[fbp + code[pc + 2]], regs[fbp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                case BARRAY_STORE:
+                    byteArrayStore(regs[fbp + code[pc + 1]], regs[fbp + code[pc + 2]], regs[fbp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                case LENGTH:
+                    regs[fbp + code[pc + 1]] = arrayLength(regs[fbp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+
+                /* Jumps */
+
+                case JMP:
+                    instructionsExecuted = executed;
+                    pc = code[pc + 1];
+                    break;
+
+                case JEQ:
+                    pc = regs[fbp + code[pc + 1]] == regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JNE:
+                    pc = regs[fbp + code[pc + 1]] != regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JGT:
+                    pc = regs[fbp + code[pc + 1]] > regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JLE:
+                    pc = regs[fbp + code[pc + 1]] <= regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JLT:
+                    pc = regs[fbp + code[pc + 1]] < regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JGE:
+                    pc = regs[fbp + code[pc + 1]] >= regs[fbp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JEQI:
+                    pc = regs[fbp + code[pc + 1]] == code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JNEI:
+                    pc = regs[fbp + code[pc + 1]] != code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JGTI:
+                    pc = regs[fbp + code[pc + 1]] > code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JLEI:
+                    pc = regs[fbp + code[pc + 1]] <= code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JLTI:
+                    pc = regs[fbp + code[pc + 1]] < code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case JGEI:
+                    pc = regs[fbp + code[pc + 1]] >= code[pc + 2] ? code[pc + 3] : pc + 4;
+                    break;
+
+                /* Calls */
+
+                case CALL:
+                    if (csp == returnStack.length) error("Frame stack overflow");
+
+                    returnStack[csp] = pc + 3;
+                    baseStack[csp] = fbp;
+                    chargeStack[csp] = charged;
+                    csp++;
+
+                    charged++; // the return address
+
+                    fbp += code[pc + 2];
+                    pc = code[pc + 1];
+                    break;
+
+                case ENTER:
+                    instructionsExecuted = executed;
+                    int paramsCount = code[pc + 1];
+                    int localsCount = code[pc + 2];
+
+                    charged += code[pc + 4];
+
+                    if (fbp + code[pc + 3] > FSTACK_SIZE_WORDS || charged > FSTACK_SIZE_WORDS) {
+                        error("Frame stack overflow");
+                    }
+
+                    // params are already in place, the rest of the locals start out as 0
+                    for (int i = paramsCount; i < localsCount; i++) regs[fbp + i] = 0;
+
+                    pc += 5;
+                    break;
+
+                case RETURN:
+                    int result = regs[fbp + code[pc + 1]];
+
+                    if (csp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
+
+                    regs[fbp] = result;
+
+                    csp--;
+                    pc = returnStack[csp];
+                    fbp = baseStack[csp];
+                    charged = chargeStack[csp];
+                    break;
+
+                case RETURN_VOID:
+                    if (csp == 0) { // no caller = main, exit
+                        instructionsExecuted = executed;
+                        return;
+                    }
+
+                    csp--;
+                    pc = returnStack[csp];
+                    fbp = baseStack[csp];
+                    charged = chargeStack[csp];
+                    break;
+
+                /* IO */
+
+                case READ:
+                    regs[fbp + code[pc + 1]] = read();
+                    pc += 2;
+                    break;
+
+                case BREAD:
+                    regs[fbp + code[pc + 1]] = readByte();
+                    pc += 2;
+                    break;
+
+                case PRINT:
+                    out.printInt(regs[fbp + code[pc + 1]]);
+                    pc += 2;
+                    break;
+
+                case BPRINT:
+                    out.printChar(regs[fbp + code[pc + 1]]);
+                    pc += 2;
+                    break;
+
+                case TRAP:
+                    error("Method ended without returning a value");
+                    break;
+
+                default:
+                    System.err.println("Instruction not implemented: " + instruction.getNiceName());
+                    pc += 1 + instruction.getOperandCount();
+            }
+        }
+    }
+
+    /**
+     * Allocates an array of the array type, site is the pc of the allocating instruction, see addressAt().
+     */
+    private int newArray(int length, int type, int site) {
+        if (length < 0) error("Cannot initialize an array with less than 0 elements");
+        if (!layout.isArray(type)) error("Illegal array type " + type);
+
+        return allocate(type, length, site);
+    }
+
+    private int newObject(int type, int site) {
+        if (!layout.isClass(type)) error("Illegal class type " + type);
+
+        return allocate(type, layout.fieldCount(type), site);
+    }
+
+    /**
+     * Bump allocates a zeroed block, small ones in the nursery and the rest in the old generation,
+     * collecting garbage first if there's no room.
+     */
+    private int allocate(int type, int length, int site) {
+        int words = HeapLayout.HEADER_WORDS + layout.payloadWords(type, length);
+        int address;
+
+        if (words <= (heap.capacity() - youngStart) / LARGE_OBJECT_FRACTION && words > heap.capacity() - youngTop) {
+            collect(site, false);
+        }
+
+        // a full collection can leave less of a nursery
+        if (words <= (heap.capacity() - youngStart) / LARGE_OBJECT_FRACTION && words <= heap.capacity() - youngTop) {
+            address = youngTop + HeapLayout.HEADER_WORDS;
+            youngTop += words;
+        } else {
+            if (words > youngStart - freep) collect(site, true);
+            if (words > youngStart - freep && !grow(words)) error("Out of memory");
+
+            address = freep + HeapLayout.HEADER_WORDS;
+            freep += words;
+        }
+
+        heap.put(address + HeapLayout.LENGTH_WORD, length);
+        heap.put(address + HeapLayout.TYPE_WORD, type);
+
+        allocatedWords += words;
+
+        return address;
+    }
+
+    /**
+     * Remembers an old object when a reference into the nursery gets stored in it.
+     */
+    private void writeBarrier(int address, int value) {
+        if (value >= youngStart && value < youngTop && address < youngStart
+                && heap.get(address + HeapLayout.GC_WORD) == 0) {
+            heap.put(address + HeapLayout.GC_WORD, NurseryCollector.REMEMBERED);
+
+            if (rememberedCount == remembered.length) remembered = Arrays.copyOf(remembered, rememberedCount * 2);
+            remembered[rememberedCount++] = address;
+        }
+    }
+
+    /**
+     * Grows the heap so the old generation has room for words more, up to VMOptions.maxHeapWords.
+     * Only called while the nursery is empty, it moves to the new end of the heap.
+     */
+    private boolean grow(int words) {
+        long size = Math.min(options.getMaxHeapWords(),
+                Math.max(2L * heap.capacity(), (long) freep + words + nurseryWords()));
+
+        if (size <= heap.capacity() || size - nurseryWords() < (long) freep + words) return false;
+
+        Events.HeapGrowth event = new Events.HeapGrowth();
+        event.begin();
+
+        int oldWords = heap.capacity();
+
+        try {
+            heap = HeapMemory.grow(heap, (int) size);
+        } catch (OutOfMemoryError e) {
+            return false; // direct memory is limited by -XX:MaxDirectMemorySize, the JVM's max heap by default
+        }
+
+        youngStart = youngTop = (int) size - nurseryWords();
+
+        if (event.shouldCommit()) {
+            event.oldSize = Events.bytes(oldWords);
+            event.newSize = Events.bytes(size);
+            event.commit();
+        }
+
+        if (options.isVerboseGc()) System.err.printf("[heap grown to %d words]%n", size);
+
+        return true;
+    }
+
+    private int nurseryWords() {
+        return collectable ? options.getNurseryWords() : 0;
+    }
+
+    /**
+     * Null if the code didn't pass the verifier, it runs checked then.
+     */
+    private Verifier verifier() {
+        try {
+            return image.verifier();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Programs the stack maps can't be built for run without collecting, until the heap is full.
+     */
+    private boolean hasStackMaps() {
+        try {
+            image.stackMaps();
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Collects the nursery alone if the old generation has room for everything in it, otherwise the whole heap.
+     * Both leave the nursery empty.
+     */
+    private void collect(int site, boolean full) {
+        if (!collectable || site == NO_SITE) return;
+
+        StackMaps maps = image.stackMaps();
+        MarkCompactCollector.Roots roots = visitor -> visitRoots(maps, site, visitor);
+
+        Events.GarbageCollection event = new Events.GarbageCollection();
+        event.begin();
+
+        long start = System.nanoTime();
+        int used = freep + (youngTop - youngStart);
+        boolean young = !full && youngTop - youngStart <= youngStart - freep;
+
+        if (young) {
+            freep = nurseryCollector.collect(heap, freep, youngStart, youngTop, roots, remembered, rememberedCount);
+        } else {
+            for (int i = 0; i < rememberedCount; i++) heap.put(remembered[i] + HeapLayout.GC_WORD, 0);
+
+            freep = collector.collect(heap, freep, youngStart, youngTop, roots);
+
+            // live data that didn't fit the old generation takes over the start of the nursery
+            youngStart = Math.max(youngStart, freep);
+        }
+
+        youngTop = youngStart;
+        rememberedCount = 0;
+
+        // more than half full after a full collection, grow before the next one comes right away
+        if (!young && freep - HeapLayout.HEAP_START > (youngStart - HeapLayout.HEAP_START) / 2) grow(0);
+
+        long pause = System.nanoTime() - start;
+        gcStats.record(pause, used - freep, young);
+
+        if (event.shouldCommit()) {
+            event.young = young;
+            event.usedBefore = Events.bytes(used);
+            event.usedAfter = Events.bytes(freep);
+            event.heapSize = Events.bytes(heap.capacity());
+            event.commit();
+        }
+
+        if (options.isVerboseGc()) {
+            System.err.printf("[gc %d%s] %d -> %d words, %.3f ms%n", gcStats.getCollections(), young ? " young" : "",
+                    used, freep, pause / 1e6);
+        }
+    }
+
+    /**
+     * Visits every slot outside the heap that holds a reference: the globals, the locals of every frame,
+     * and the expression stack. Frames are found by following the saved frame bases, the stack maps
+     * say which of their slots are references at the point where each frame is stopped.
+     */
+    private void visitRoots(StackMaps maps, int site, MarkCompactCollector.RootVisitor visitor) {
+        boolean[] globals = maps.getGlobalReferences();
+
+        for (int i = 0; i < globals.length; i++) {
+            if (globals[i]) visitor.visit(globalData, i);
+        }
+
+        // frames from the top down, each stopped at an allocation or a call
+        // every frame takes at least a word
+        int[] sites = new int[fsp + 1];
+        int[] bases = new int[fsp + 1];
+        int frames = 0;
+
+        int address = addressAt(site);
+        int base = fbp;
+
+        while (true) {
+            sites[frames] = address;
+            bases[frames] = base;
+            frames++;
+
+            if (base < 2) break; // main, nothing called it
+
+            address = addressAt(fstack[base - 2]) - OpCode.CALL.getSize();
+            base = fstack[base - 1];
+        }
+
+        for (int f = 0; f < frames; f++) {
+            TypeTable.MethodEntry method = maps.methodAt(sites[f]);
+            boolean[] locals = maps.localReferences(method);
+
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i]) visitor.visit(fstack, bases[f] + i);
+            }
+        }
+
+        // the expression stack holds the pending values of each frame, the bottom one's first
+        int slot = 0;
+
+        for (int f = frames - 1; f >= 0; f--) {
+            boolean[] stack = maps.stackReferences(sites[f]);
+
+            if (stack == null) throw new IllegalStateException("No stack map at address " + sites[f]);
+
+            // the callee took its arguments, the allocating frame may have popped operands already
+            int count = f > 0 ? stack.length - maps.calleeParams(sites[f]) : esp - slot;
+
+            for (int i = 0; i < count && i < stack.length; i++) {
+                if (stack[i]) visitor.visit(estack, slot + i);
+            }
+
+            slot += count;
+        }
+    }
+
+    /**
+     * Called by the Sampler from its own thread while this VM runs, so the fields are read as they happen to be
+     * and can change halfway. Fills addresses with the byte address of the pc and then the call site in each
+     * caller, walking the saved frame bases like visitRoots(). Returns how many, 0 if the walk didn't add up.
+     */
+    int sampleStack(int[] addresses) {
+        final int[] addressOf = this.addressOf;
+        final int limit = addressOf != null ? addressOf.length : codeData.limit();
+
+        int pc = this.pc;
+        int base = fbp;
+        int count = 0;
+
+        if (pc < 0 || pc >= limit) return 0;
+        addresses[count++] = addressOf != null ? addressOf[pc] : pc;
+
+        while (base >= 2) {
+            if (count == addresses.length || base >= FSTACK_SIZE_WORDS) return 0;
+
+            int ret = fstack[base - 2];
+            int caller = fstack[base - 1];
+
+            // frames below are older, so their bases are lower
+            if (ret < 0 || ret >= limit || caller >= base) return 0;
+
+            addresses[count++] = (addressOf != null ? addressOf[ret] : ret) - OpCode.CALL.getSize();
+            base = caller;
+        }
+
+        return count;
+    }
+
+    /**
+     * Byte address of a pc of the running engine, bytecode runs on addresses and decoded code on indexes.
+     */
+    private int addressAt(int pc) {
+        return addressOf != null ? addressOf[pc] : pc;
+    }
+
+    /*
+     * Every array and field access of every engine goes through these, they throw before the heap is touched.
+     */
+
+    private int arrayLoad(int address, int index) {
+        checkIndex(address, index);
+        return heap.get(address + index);
+    }
+
+    private void arrayStore(int address, int index, int value) {
+        checkIndex(address, index);
+
+        heap.put(address + index, value);
+        writeBarrier(address, value);
+    }
+
+    private int byteArrayLoad(int address, int index) {
+        checkIndex(address, index);
+        return (byte) (heap.get(address + index / 4) >> 8 * (3 - index % 4));
+    }
+
+    private void byteArrayStore(int address, int index, int value) {
+        checkIndex(address, index);
+
+        int shiftAmount = 8 * (3 - index % 4);
+        int word = heap.get(address + index / 4);
+
+        heap.put(address + index / 4, word & ~(0xff << shiftAmount) | (byte) value << shiftAmount);
+    }
+
+    private int arrayLength(int address) {
+        checkNull(address);
+        return heap.get(address - 2);
+    }
+
+    private int loadField(int address, int field) {
+        checkNull(address);
+        return heap.get(address + field);
+    }
+
+    private void storeField(int address, int field, int value) {
+        checkNull(address);
+
+        heap.put(address + field, value);
+        writeBarrier(address, value);
+    }
+
+    private void checkNull(int address) {
+        if (address == 0) error("Null pointer error");
+    }
+
+    private void checkIndex(int address, int index) {
+        checkNull(address);
+
+        int length = heap.get(address - 2);
+        if (index < 0 || index >= length) error("Index " + index + " for length " + length);
+    }
+
+    private int read() {
+        return input.readInt();
+    }
+
+    private int readByte() {
+        return input.readByte();
+    }
+
+    private void print(int value) {
+        out.printInt(value);
+    }
+
+    private void printChar(int value) {
+        out.printChar(value);
+    }
+
+    private void error(String msg) {
+        throw new VMException(msg);
+    }
+
+    private void epush(int x) {
+        if (esp == ESTACK_SIZE_WORDS) error("Expression stack overflow");
+        estack[esp++] = x;
+    }
+
+    private int epop() {
+        if (esp == 0) error("Tried to pop empty expression stack");
+        return estack[--esp];
+    }
+
+    /**
+     * Makes the frame of the method whose enter's operands start at pc, returns the pc after them. Verified code
+     * checks here that everything the activation will push fits, executeDecoded() pushes and pops unchecked
+     * after that. Otherwise only the frame and the params are checked here, the pushes are checked one by one.
+     */
+    private int enter(int[] code, int pc, Verifier verifier) {
+        int enterAddress = addressOf[pc - 1];
+        int paramsCount = code[pc++];
+        int localsCount = code[pc++];
+
+        if (verifier != null) {
+            if (esp + verifier.stackGrowth(enterAddress) > ESTACK_SIZE_WORDS) error("Expression stack overflow");
+            if (fsp + verifier.frameWords(enterAddress) > FSTACK_SIZE_WORDS) error("Frame stack overflow");
+        } else {
+            if (fsp + 1 + paramsCount + localsCount > FSTACK_SIZE_WORDS) error("Frame stack overflow");
+            if (esp < paramsCount) error("Tried to pop empty expression stack");
+        }
+
+        fstack[fsp++] = fbp;  // save base pointer
+        fbp = fsp;            // base pointer is at top of old stack frame
+        this.pc = pc - 3;     // samplers see the activation once its frame is there, see sampleStack()
+
+        // Space for locals and parameters
+        for (int i = 0; i < paramsCount + localsCount; i++) fstack[fsp++] = 0;
+
+        highWater();
+
+        // Loading parameters from estack in reverse
+        for (int i = paramsCount - 1; i >= 0; i--) fstack[fbp + i] = pop();
+
+        return pc;
+    }
+
+    private void exit() {
+        fsp = fbp;            // base is old stack top
+        fbp = fstack[--fsp];  // retrieve previously saved base pointer
+    }
+
+    /**
+     * Compiled code counts the frame stack words its frames would take in the interpreters itself, top is
+     * that count with a new frame on. It runs out where enter() would, at the same depth in every tier.
+     */
+    private void chargeFrame(int top) {
+        if (top > FSTACK_SIZE_WORDS) error("Frame stack overflow");
+    }
+
+    /**
+     * Frame of a compiled method the collector has to see into, laid out like enter() lays it out, the caller
+     * has pushed the return address. Words is params and locals, returns the frame's base.
+     */
+    private int enterCompiled(int words) {
+        if (fsp + 1 + words > FSTACK_SIZE_WORDS) error("Frame stack overflow");
+
+        fstack[fsp++] = fbp;
+        fbp = fsp;
+
+        Arrays.fill(fstack, fsp, fsp + words, 0);
+        fsp += words;
+
+        highWater();
+
+        return fbp;
+    }
+
+    /**
+     * Pops a frame made by enterCompiled() along with the return address under it.
+     */
+    private void leave() {
+        int caller = fstack[fbp - 1];
+        fsp = fbp - 2;
+        fbp = caller;
+    }
+
+    /**
+     * Target of the jump whose operand is at pc, counting it in the profile if it goes backward.
+     */
+    private int jump(int[] code, int pc) {
+        int target = code[pc];
+        if (target < pc && profile != null) profile.backedge(addressOf[pc - 1]);
+        return target;
+    }
+
+    /**
+     * Records the stack depths at an enter, after the frame is there and before the params come off the
+     * expression stack. Only enters get counted, so the pushes don't pay for it, and the deepest point
+     * of a call chain is at the enter of its last call.
+     */
+    private void highWater() {
+        if (esp > estackHighWater) estackHighWater = esp;
+        if (fsp > fstackHighWater) fstackHighWater = fsp;
+    }
+
+    /**
+     * Unchecked push and pop, see executeDecoded().
+     */
+    private void push(int x) {
+        estack[esp++] = x;
+    }
+
+    private int pop() {
+        return estack[--esp];
+    }
+
+    private void fpush(int x) {
+        if (fsp == FSTACK_SIZE_WORDS) error("Frame stack overflow");
+        fstack[fsp++] = x;
+    }
+
+    private int fpop() {
+        if (fsp == 0) error("Tried to pop empty frame stack");
+        return fstack[--fsp];
+    }
+
+
+    private byte getByte() {
+        return codeData.get(pc++);
+    }
+
+    private byte getByte(int address) {
+        return codeData.get(address);
+    }
+
+    private short getShort() {
+        return (short) (((short) getByte() << 8) | (getByte() & 0b11111111));
+    }
+
+    private short getShort(int address) {
+        return (short) (((short) getByte(address) << 8) | (getByte(address + 1) & 0b11111111));
+    }
+
+    private int getWord() {
+        return (getShort() << 16) | (getShort() & 0b11111111_11111111);
+    }
+
+    private int getWord(int address) {
+        return (getShort(address) << 16) | (getShort(address + 2) & 0b11111111_11111111);
     }
 }
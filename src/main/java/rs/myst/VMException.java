@@ -0,0 +1,12 @@
+package rs.myst;
+
+/**
+ * A runtime error in the running program, like a stack overflow. Ends the run of that VM only.
+ */
+public class VMException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public VMException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,54 @@
+package rs.myst;
+
+/**
+ * Live metrics of a running VM over JMX. Registered as rs.myst:type=VM,name=vm-N while the VM runs
+ * with VMOptions.jmx, the values are of the current run.
+ */
+public interface VMMXBean {
+    /**
+     * Updated at calls and jumps, compiled code in TIERED mode isn't counted.
+     */
+    long getInstructionsExecuted();
+
+    /**
+     * Deepest the expression stack has been at a call, in words.
+     */
+    int getExpressionStackHighWater();
+
+    int getExpressionStackSize();
+
+    /**
+     * Deepest the frame stack has been at a call, in words.
+     */
+    int getFrameStackHighWater();
+
+    int getFrameStackSize();
+
+    long getHeapUsedWords();
+
+    /**
+     * Current size of the heap, it grows up to getMaxHeapWords().
+     */
+    long getHeapSizeWords();
+
+    long getMaxHeapWords();
+
+    long getAllocatedBytes();
+
+    /**
+     * Bytes allocated per second since the previous call, or since the run started for the first one.
+     */
+    double getAllocationRate();
+
+    /**
+     * Time read spent waiting for input.
+     */
+    long getReadBlockedMillis();
+
+    /**
+     * Bytes print wrote, including what's still buffered.
+     */
+    long getPrintBytesWritten();
+
+    int getGcCollections();
+}
@@ -0,0 +1,134 @@
+package rs.myst;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The VMMXBean of one VM. Nothing here is on the VM's path: every counter is a plain field of the VM,
+ * its stacks or its console, written only by the thread running it, so VMs running side by side never
+ * share a counter. This reads them from the JMX thread as they happen to be, which is fine for monitoring.
+ */
+class VMMetrics implements VMMXBean {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final VM vm;
+    private final ObjectName name;
+
+    private long lastRateNanos;
+    private long lastRateBytes;
+
+    VMMetrics(VM vm) {
+        this.vm = vm;
+
+        try {
+            name = new ObjectName("rs.myst:type=VM,name=vm-" + NEXT_ID.incrementAndGet());
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    ObjectName getName() {
+        return name;
+    }
+
+    synchronized void register() {
+        lastRateNanos = System.nanoTime();
+        lastRateBytes = 0;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.registerMBean(this, name);
+        } catch (InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        return vm.getInstructionsExecuted();
+    }
+
+    @Override
+    public int getExpressionStackHighWater() {
+        return vm.getEstackHighWater();
+    }
+
+    @Override
+    public int getExpressionStackSize() {
+        return VM.getEstackSize();
+    }
+
+    @Override
+    public int getFrameStackHighWater() {
+        return vm.getFstackHighWater();
+    }
+
+    @Override
+    public int getFrameStackSize() {
+        return VM.getFstackSize();
+    }
+
+    @Override
+    public long getHeapUsedWords() {
+        return vm.getHeapUsedWords();
+    }
+
+    @Override
+    public long getHeapSizeWords() {
+        return vm.getHeapWords();
+    }
+
+    @Override
+    public long getMaxHeapWords() {
+        return vm.getOptions().getMaxHeapWords();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return Events.bytes(vm.getAllocatedWords());
+    }
+
+    @Override
+    public synchronized double getAllocationRate() {
+        long now = System.nanoTime();
+        long bytes = getAllocatedBytes();
+
+        double rate = now > lastRateNanos ? (bytes - lastRateBytes) * 1e9 / (now - lastRateNanos) : 0;
+
+        lastRateNanos = now;
+        lastRateBytes = bytes;
+
+        return rate;
+    }
+
+    @Override
+    public long getReadBlockedMillis() {
+        return vm.getInput().getBlockedNanos() / 1_000_000;
+    }
+
+    @Override
+    public long getPrintBytesWritten() {
+        return vm.getOut().getBytesWritten();
+    }
+
+    @Override
+    public int getGcCollections() {
+        return vm.getGcStats().getCollections();
+    }
+}
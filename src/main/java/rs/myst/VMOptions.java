@@ -0,0 +1,99 @@
+package rs.myst;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Tunables for a VM run, see VMOptions.builder().
+ */
+@Getter
+@Builder
+public class VMOptions {
+    public static final VMOptions DEFAULT = VMOptions.builder().build();
+
+    /**
+     * Calls after which a method gets compiled in TIERED mode.
+     */
+    @Builder.Default
+    private final int compileThreshold = 1000;
+
+    /**
+     * Backward jumps inside a method after which it gets compiled in TIERED mode, so loops
+     * in methods that aren't called often still reach compiled code on their next call.
+     */
+    @Builder.Default
+    private final int backedgeThreshold = 10_000;
+
+    /**
+     * Whether a hot loop moves the running activation to compiled code in TIERED mode,
+     * instead of waiting for the method's next call.
+     */
+    @Builder.Default
+    private final boolean osr = true;
+
+    /**
+     * Whether the decoded stream fuses common instruction sequences into superinstructions, see DecodedCode.
+     */
+    @Builder.Default
+    private final boolean superinstructions = true;
+
+    /**
+     * Whether DECODED and TIERED runs verify the code once and then run it without checking every stack push
+     * and pop, see Verifier. Code that doesn't verify runs checked either way.
+     */
+    @Builder.Default
+    private final boolean verify = true;
+
+    /**
+     * Whether DECODED and TIERED runs count opcodes, calls, backward jumps and time per method, see VM.getProfile().
+     * The profiled interpreter runs everything, without superinstructions or compiling.
+     */
+    private final boolean profile;
+
+    /**
+     * Microseconds between samples of the call stack taken from another thread, see VM.getSamples(). 0 takes none.
+     * Not for REGISTER mode, which keeps its frames elsewhere.
+     */
+    private final int samplingIntervalMicros;
+
+    /**
+     * Register a VMMXBean for the VM on the platform MBean server while it runs, see VMMetrics.
+     */
+    private final boolean jmx;
+
+    /**
+     * Count which instructions follow each other in DECODED and TIERED mode, see VM.getOpcodePairCount(). The run
+     * is profiled as with profile, the loops that don't profile never pay for it.
+     */
+    private final boolean profileOpcodePairs;
+
+    /**
+     * Words of heap a VM starts with, it grows as needed up to maxHeapWords.
+     */
+    @Builder.Default
+    private final int initialHeapWords = 64 * 1024;
+
+    /**
+     * Words of heap a VM can grow to before allocation fails with "Out of memory", 256 MB by default.
+     */
+    @Builder.Default
+    private final int maxHeapWords = 64 * 1024 * 1024;
+
+    /**
+     * Size of the nursery new objects are allocated in, collected on its own while the old generation has room
+     * for its survivors. 0 turns it off so every collection is of the whole heap.
+     */
+    @Builder.Default
+    private final int nurseryWords = 16 * 1024;
+
+    /**
+     * Print a line to stderr for every garbage collection, see VM.getGcStats().
+     */
+    private final boolean verboseGc;
+
+    /**
+     * Print a line to stderr when a method can't be compiled, or the program can't run in the JIT or the
+     * register engine and is interpreted instead.
+     */
+    private final boolean verboseJit;
+}
@@ -0,0 +1,149 @@
+package rs.myst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Proves once at load time that the decoded interpreter's pushes and pops stay inside the stacks, so verified
+ * code can run without checking each of them. CodeAnalysis already proves every method's
+ * stack depths: no instruction pops more than the method pushed, every jump lands on an instruction boundary
+ * inside the method, and every path reaching an instruction has the same depth there. On top of that this
+ * checks that enter and exit are balanced, every method enters its frame once at the start and leaves it once
+ * before returning, with everything in between inside the frame.
+ * <p>
+ * The expression and frame stacks are shared by every activation and recursion has no bound, so what
+ * overflows can't be decided up front. Instead each method gets the words it needs on both stacks at most,
+ * and the interpreter checks them once at its enter.
+ * <p>
+ * Throws IllegalArgumentException for code it can't prove, that code keeps running in the checked interpreter.
+ */
+class Verifier {
+    /**
+     * Words the frame stack holds besides params and locals: the saved frame base, and the return
+     * address of a call the method makes.
+     */
+    private static final int SAVED_BASE_WORDS = 1;
+    private static final int RETURN_ADDRESS_WORDS = 1;
+
+    private final CodeAnalysis analysis;
+
+    /**
+     * At the address of each method's enter, how far the expression stack grows past its depth at
+     * the enter, which includes the params about to be taken off.
+     */
+    private final int[] stackGrowth;
+
+    /**
+     * At the address of each method's enter, the frame stack words its activation needs.
+     */
+    private final int[] frameWords;
+
+    private Verifier(CodeAnalysis analysis) {
+        this.analysis = analysis;
+
+        stackGrowth = new int[analysis.getEnd()];
+        frameWords = new int[analysis.getEnd()];
+    }
+
+    static Verifier verify(ByteBuffer codeData, int start, int end, int mainAddress) {
+        Verifier verifier = new Verifier(CodeAnalysis.analyze(codeData, start, end));
+
+        MethodInfo main = verifier.analysis.methodAt(mainAddress);
+        if (main == null || main.getStart() != mainAddress) {
+            throw new IllegalArgumentException("Main address " + mainAddress + " doesn't start a method");
+        }
+
+        for (MethodInfo method : verifier.analysis.getMethods()) {
+            verifier.verifyMethod(method);
+        }
+
+        return verifier;
+    }
+
+    int stackGrowth(int enterAddress) {
+        return stackGrowth[enterAddress];
+    }
+
+    int frameWords(int enterAddress) {
+        return frameWords[enterAddress];
+    }
+
+    private void verifyMethod(MethodInfo method) {
+        int size = method.getEnd() - method.getStart();
+
+        // whether the frame is entered before each instruction, null until a path reaches it
+        Boolean[] entered = new Boolean[size];
+        Deque<Integer> work = new ArrayDeque<>();
+
+        boolean calls = false;
+
+        flow(method, method.getStart(), false, entered, work);
+
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            boolean inFrame = entered[address - method.getStart()];
+
+            OpCode instruction = analysis.instructionAt(address);
+            int next = address + instruction.getSize();
+
+            switch (instruction) {
+                case ENTER -> {
+                    if (inFrame) throw new IllegalArgumentException("Enter inside a frame at address " + address);
+                    flow(method, next, true, entered, work);
+                }
+
+                case EXIT -> {
+                    if (!inFrame) throw new IllegalArgumentException("Exit without a frame at address " + address);
+                    flow(method, next, false, entered, work);
+                }
+
+                case RETURN -> {
+                    if (inFrame) throw new IllegalArgumentException("Return without exit at address " + address);
+                }
+
+                case TRAP -> {}
+
+                // the interpreters don't implement these, skipping them would leave the stack off from what was proved
+                case NEG, SHL, SHR, INC ->
+                        throw new IllegalArgumentException("Unsupported instruction " + instruction.getNiceName() + " at address " + address);
+
+                default -> {
+                    if (!inFrame) throw new IllegalArgumentException("Instruction outside the frame at address " + address);
+
+                    switch (instruction) {
+                        case JMP -> flow(method, analysis.jumpTargetAt(address), true, entered, work);
+
+                        case JEQ, JNE, JGT, JLE, JLT, JGE -> {
+                            flow(method, analysis.jumpTargetAt(address), true, entered, work);
+                            flow(method, next, true, entered, work);
+                        }
+
+                        case CALL -> {
+                            calls = true;
+                            flow(method, next, true, entered, work);
+                        }
+
+                        default -> flow(method, next, true, entered, work);
+                    }
+                }
+            }
+        }
+
+        stackGrowth[method.getStart()] = method.getMaxStack() - method.getParamsCount();
+        frameWords[method.getStart()] = SAVED_BASE_WORDS + method.getParamsCount() + method.getLocalsCount()
+                + (calls ? RETURN_ADDRESS_WORDS : 0);
+    }
+
+    private void flow(MethodInfo method, int address, boolean inFrame, Boolean[] entered, Deque<Integer> work) {
+        // CodeAnalysis made sure every reachable address is an instruction in the method
+        int offset = address - method.getStart();
+
+        if (entered[offset] == null) {
+            entered[offset] = inFrame;
+            work.push(address);
+        } else if (entered[offset] != inFrame) {
+            throw new IllegalArgumentException("Unbalanced enter and exit at address " + address);
+        }
+    }
+}
@@ -4,9 +4,15 @@ import org.junit.jupiter.api.Test;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -35,4 +41,107 @@ class ParserTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void tokenBufferParsesLikeScanner() throws IOException {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        final Path dir = Files.createTempDirectory("microj");
+
+        for (String program : List.of("Fib.mj", "Sample0.mj", "Sample2.mj", "Sample4.mj", "Invalid0.mj", "QuickSort.mj", "LinkedList.mj")) {
+            final String source;
+            try (InputStream in = classLoader.getResourceAsStream(program)) {
+                assertNotNull(in, program);
+                source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            Parser scanned = new Parser(new Scanner(new StringReader(source)));
+            OpCodeBuffer.reset();
+            scanned.parse();
+            OpCodeBuffer.createObjectFile(dir.resolve("scanned.mj").toString());
+
+            Parser buffered = new Parser(TokenBuffer.scan(new Scanner(new StringReader(source))));
+            OpCodeBuffer.reset();
+            buffered.parse();
+            OpCodeBuffer.createObjectFile(dir.resolve("buffered.mj").toString());
+
+            assertEquals(scanned.getErrorCount(), buffered.getErrorCount(), program);
+            assertArrayEquals(Files.readAllBytes(dir.resolve("scanned.obj")), Files.readAllBytes(dir.resolve("buffered.obj")), program);
+        }
+
+        TokenBuffer tokens = TokenBuffer.scan(new Scanner(new StringReader("a = b + a1 + a;")));
+
+        assertEquals(3, tokens.nameCount());
+        assertEquals(tokens.value(0), tokens.value(6));
+        assertSame(tokens.string(0), tokens.string(6));
+        assertEquals(TokenKind.EOF, tokens.kind(tokens.size() - 1));
+    }
+
+    @Test
+    void incrementalEditsReportLikeFullParse() throws IOException {
+        final String source;
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream("QuickSort.mj")) {
+            assertNotNull(in, "QuickSort.mj");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        IncrementalParser parser = new IncrementalParser(source);
+        assertTrue(parser.getDiagnostics().isEmpty());
+
+        // inside a method body only that method is parsed again
+        int expression = source.indexOf("random() % 100000");
+        parser.edit(expression, 0, "1");
+        assertFalse(parser.getDiagnostics().isEmpty());
+        assertEquals(new IncrementalParser(parser.getText()).getDiagnostics(), parser.getDiagnostics());
+        assertEquals(1, parser.getFullParses());
+
+        // whitespace only moves the error along
+        parser.edit(0, 0, "\n\n");
+        assertEquals(new IncrementalParser(parser.getText()).getDiagnostics(), parser.getDiagnostics());
+        assertEquals(1, parser.getFullParses());
+
+        parser.edit(expression + 2, 1, "");
+        assertTrue(parser.getDiagnostics().isEmpty());
+        assertEquals(1, parser.getFullParses());
+
+        // a brace more and the methods end somewhere else
+        parser.edit(source.indexOf("a[i] = random()") + 2, 0, "{");
+        assertEquals(new IncrementalParser(parser.getText()).getDiagnostics(), parser.getDiagnostics());
+        assertEquals(2, parser.getFullParses());
+
+        Random random = new Random(42);
+        String[] pieces = { "x", " ", "\n", ";", "{", "}", "(", ")", "1", "=", "//", "'", "if", "/", "y = x + 1;" };
+
+        for (int i = 0; i < 500; i++) {
+            String text = parser.getText();
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(4), text.length() - offset) : 0;
+            String inserted = pieces[random.nextInt(pieces.length)];
+            String edited = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+            // the parser still throws on some broken programs, it has to throw for both
+            List<Diagnostic> expected = null;
+            try {
+                expected = new IncrementalParser(edited).getDiagnostics();
+            } catch (RuntimeException ignored) {
+            }
+
+            boolean threw = false;
+            try {
+                parser.edit(offset, removed, inserted);
+            } catch (RuntimeException e) {
+                threw = true;
+            }
+
+            assertEquals(expected == null, threw, edited);
+
+            if (threw) {
+                parser = new IncrementalParser(source);
+                continue;
+            }
+
+            assertEquals(edited, parser.getText());
+            assertEquals(expected, parser.getDiagnostics(), edited);
+        }
+    }
+}
@@ -4,9 +4,14 @@ import org.junit.jupiter.api.Test;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -58,4 +63,101 @@ class ScannerTest {
             assertEquals(TokenKind.INVALID, token.getKind());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void bytesScanLikeReader() throws IOException {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        final List<String> sources = new ArrayList<>();
+
+        for (String program : List.of("Sample0.mj", "Sample1.mj", "Sample2.mj", "Sample3.mj", "Invalid0.mj", "Sieve.mj", "Strings.mj")) {
+            try (InputStream in = classLoader.getResourceAsStream(program)) {
+                assertNotNull(in, program);
+                sources.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        sources.add("int gr\u00f6\u00dfe, \ud835\udc651; x_1 = 2147483647 + 2147483648 + 00012; c = '\u00e4'; // kommentar\n'\n' ='");
+        sources.add("x1");
+        sources.add("a //");
+
+        for (String source : sources) {
+            assertEquals(tokens(new Scanner(new StringReader(source))),
+                    tokens(new Scanner(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)))));
+        }
+    }
+
+    @Test
+    void parallelScanLikeSequential() throws IOException {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        final StringBuilder source = new StringBuilder();
+
+        for (String program : List.of("Sample0.mj", "Invalid0.mj", "Strings.mj", "LinkedList.mj")) {
+            try (InputStream in = classLoader.getResourceAsStream(program)) {
+                assertNotNull(in, program);
+                source.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        // newlines inside chars and after stray quotes, and comments, can't be split at
+        source.append("c = '\n';\nc = '\n'\n'\n\n''\n// comment '\n x = 1; // \u00e4\n\n\ny");
+
+        final byte[] bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+
+        final TokenBuffer sequential = TokenBuffer.scan(new Scanner(ByteBuffer.wrap(bytes)));
+
+        for (int chunkSize : new int[] { 1, 7, 64, 1000, bytes.length }) {
+            final TokenBuffer parallel = TokenBuffer.scanParallel(ByteBuffer.wrap(bytes), ForkJoinPool.commonPool(), chunkSize);
+
+            assertEquals(sequential.size(), parallel.size());
+            assertEquals(sequential.nameCount(), parallel.nameCount());
+
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.kind(i), parallel.kind(i));
+                assertEquals(sequential.line(i), parallel.line(i));
+                assertEquals(sequential.col(i), parallel.col(i));
+                assertEquals(sequential.value(i), parallel.value(i));
+                assertEquals(sequential.string(i), parallel.string(i));
+            }
+        }
+    }
+
+    @Test
+    void crlfLineSeparatorsCountOnce() {
+        final String unix = "int x;\n\nx = 1;\n// comment\ny";
+        final String windows = unix.replace("\n", "\r\n");
+
+        assertEquals(tokens(new Scanner(new StringReader(unix))), tokens(new Scanner(new StringReader(windows))));
+        assertEquals(tokens(new Scanner(new StringReader(unix))),
+                tokens(new Scanner(ByteBuffer.wrap(windows.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    @Test
+    void numbersPastIntAreInvalid() {
+        final Scanner scanner = new Scanner(new StringReader("2147483647 2147483648 99999999999999999999"));
+
+        final Token max = scanner.next();
+        assertEquals(TokenKind.NUMBER, max.getKind());
+        assertEquals(Integer.MAX_VALUE, max.getValue());
+
+        final Token tooLarge = scanner.next();
+        assertEquals(TokenKind.INVALID, tooLarge.getKind());
+        assertEquals(12, tooLarge.getCol());
+
+        assertEquals(TokenKind.INVALID, scanner.next().getKind());
+        assertEquals(TokenKind.EOF, scanner.next().getKind());
+    }
+
+    private static List<String> tokens(Scanner scanner) {
+        final List<String> tokens = new ArrayList<>();
+
+        Token token;
+        do {
+            token = scanner.next();
+            tokens.add(token.toString());
+        } while (token.getKind() != TokenKind.EOF);
+
+        return tokens;
+    }
+}
@@ -0,0 +1,1012 @@
+package rs.myst;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VMTest {
+    private static final String[] PROGRAMS = { "Fib.mj", "Sample0.mj", "Sample2.mj", "Sample4.mj" };
+
+    private static final String[] WORKLOADS = { "Sieve", "MatMul", "QuickSort", "Strings", "Histogram", "DeepRecursion", "LinkedList" };
+
+    @Test
+    void decodedMatchesBytecode() throws IOException {
+        for (String program : PROGRAMS) {
+            String objFile = compile(program);
+
+            Result expected = execute(objFile, ExecutionMode.BYTECODE, VMOptions.DEFAULT);
+            Result actual = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().superinstructions(false).build());
+
+            assertEquals(expected.output(), actual.output(), program);
+            assertEquals(expected.vm().getInstructionsExecuted(), actual.vm().getInstructionsExecuted(), program);
+        }
+    }
+
+    @Test
+    void superinstructionsCutDispatches() throws IOException {
+        for (String program : PROGRAMS) {
+            String objFile = compile(program);
+
+            Result expected = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().superinstructions(false).build());
+            Result actual = execute(objFile, ExecutionMode.DECODED, VMOptions.DEFAULT);
+
+            assertEquals(expected.output(), actual.output(), program);
+            assertTrue(actual.vm().getInstructionsExecuted() < expected.vm().getInstructionsExecuted(), program);
+        }
+    }
+
+    @Test
+    void registerMatchesDecoded() throws IOException {
+        for (String program : PROGRAMS) {
+            String objFile = compile(program);
+
+            Result expected = execute(objFile, ExecutionMode.DECODED, VMOptions.DEFAULT);
+            Result actual = execute(objFile, ExecutionMode.REGISTER, VMOptions.DEFAULT);
+
+            assertEquals(expected.output(), actual.output(), program);
+            assertTrue(actual.vm().getInstructionsExecuted() < expected.vm().getInstructionsExecuted(), program);
+        }
+    }
+
+    @Test
+    void tieredMatchesDecoded() throws IOException {
+        for (String program : PROGRAMS) {
+            String objFile = compile(program);
+
+            assertEquals(run(objFile, ExecutionMode.DECODED), run(objFile, ExecutionMode.TIERED), program);
+        }
+    }
+
+    @Test
+    void hotMethodsGetCompiled() throws IOException {
+        String objFile = compile("Fib.mj");
+
+        long interpreted = execute(objFile, ExecutionMode.DECODED, VMOptions.DEFAULT).vm().getInstructionsExecuted();
+
+        VM vm = execute(objFile, ExecutionMode.TIERED, VMOptions.DEFAULT).vm();
+
+        // once fib is compiled its calls no longer go through the interpreter
+        assertTrue(vm.getInstructionsExecuted() < interpreted / 10);
+
+        List<MethodStats> stats = vm.getMethodStats();
+
+        assertEquals(2, stats.size());
+        assertEquals(Tier.COMPILED, stats.get(0).getTier());
+        assertEquals(VMOptions.DEFAULT.getCompileThreshold(), stats.get(0).getInvocations());
+        assertEquals(Tier.INTERPRETED, stats.get(1).getTier());
+    }
+
+    @Test
+    void thresholdsAreConfigurable() throws IOException {
+        String objFile = compile("Fib.mj");
+
+        VM vm = execute(objFile, ExecutionMode.TIERED, VMOptions.builder().compileThreshold(Integer.MAX_VALUE).build()).vm();
+
+        assertEquals(Tier.INTERPRETED, vm.getMethodStats().get(0).getTier());
+
+        objFile = compile("Sample0.mj");
+
+        vm = execute(objFile, ExecutionMode.TIERED, VMOptions.builder().backedgeThreshold(3).osr(false).build()).vm();
+
+        MethodStats main = vm.getMethodStats().get(0);
+
+        // compiled for the next call, the running loop keeps going in the interpreter
+        assertEquals(Tier.COMPILED, main.getTier());
+        assertEquals(5, main.getBackedges());
+    }
+
+    @Test
+    void hotLoopsMoveToCompiledCode() throws IOException {
+        String objFile = compile("Loops.mj");
+
+        String expected = run(objFile, ExecutionMode.DECODED);
+
+        VMOptions noOsr = VMOptions.builder().compileThreshold(Integer.MAX_VALUE).backedgeThreshold(1000).osr(false).build();
+
+        Result interpreted = execute(objFile, ExecutionMode.TIERED, noOsr);
+        assertEquals(expected, interpreted.output());
+
+        // both loops, one in main and one in a method called with a value already on the expression stack
+        VMOptions osr = VMOptions.builder().compileThreshold(Integer.MAX_VALUE).backedgeThreshold(1000).build();
+
+        Result compiled = execute(objFile, ExecutionMode.TIERED, osr);
+        assertEquals(expected, compiled.output());
+        assertTrue(compiled.vm().getInstructionsExecuted() < interpreted.vm().getInstructionsExecuted() / 10);
+    }
+
+    @Test
+    void allocatingCodeGetsCompiled() throws IOException {
+        String objFile = compile("Garbage.mj");
+
+        VMOptions hot = VMOptions.builder().compileThreshold(1).backedgeThreshold(100).build();
+        // a collection every few hundred allocations, nearly all of them with compiled frames live
+        VMOptions small = VMOptions.builder().compileThreshold(1).backedgeThreshold(100)
+                .initialHeapWords(16 * 1024).nurseryWords(1024).build();
+
+        for (VMOptions options : List.of(hot, small)) {
+            Result expected = execute(objFile, ExecutionMode.BYTECODE, options);
+            Result actual = execute(objFile, ExecutionMode.TIERED, options);
+
+            assertEquals(expected.output(), actual.output());
+            assertTrue(actual.vm().getGcStats().getCollections() > 0);
+            assertEquals(expected.vm().getGcStats().getCollections(), actual.vm().getGcStats().getCollections());
+
+            // main through its loop, list and sum at their first call
+            for (MethodStats method : actual.vm().getMethodStats()) {
+                assertEquals(Tier.COMPILED, method.getTier(), method.toString());
+            }
+        }
+    }
+
+    @Test
+    void concurrentRunsShareOneImage() throws Exception {
+        String objFile = compile("Fib.mj");
+        String expected = run(objFile, ExecutionMode.DECODED);
+
+        CodeImage image = CodeImage.load(objFile);
+
+        // low threshold so compiling happens while other runs are going
+        VMOptions options = VMOptions.builder().compileThreshold(50).build();
+        ExecutionMode[] modes = ExecutionMode.values();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<String>> runs = new ArrayList<>();
+
+            for (int i = 0; i < 64; i++) {
+                ExecutionMode mode = modes[i % modes.length];
+                runs.add(pool.submit(() -> execute(image, mode, options).output()));
+            }
+
+            for (Future<String> run : runs) {
+                assertEquals(expected, run.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void garbageGetsCollected() throws IOException {
+        String objFile = compile("Garbage.mj");
+
+        Result expected = execute(objFile, ExecutionMode.BYTECODE, VMOptions.DEFAULT);
+
+        assertTrue(expected.vm().getGcStats().getCollections() > 0);
+        assertEquals("49950045g49950095!499500145c499500195g1998000gc!", expected.output());
+
+        for (ExecutionMode mode : new ExecutionMode[] { ExecutionMode.DECODED, ExecutionMode.TIERED }) {
+            Result actual = execute(objFile, mode, VMOptions.DEFAULT);
+
+            assertEquals(expected.output(), actual.output(), mode.name());
+            assertEquals(expected.vm().getGcStats().getCollections(), actual.vm().getGcStats().getCollections(), mode.name());
+        }
+    }
+
+    @Test
+    void nurseryMatchesFullHeapCollector() throws IOException {
+        String objFile = compile("Garbage.mj");
+
+        Result fullHeap = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().nurseryWords(0).build());
+        assertEquals(0, fullHeap.vm().getGcStats().getYoungCollections());
+
+        for (ExecutionMode mode : new ExecutionMode[] { ExecutionMode.BYTECODE, ExecutionMode.DECODED, ExecutionMode.TIERED }) {
+            // small enough that old objects keep getting references to young ones between collections
+            Result generational = execute(objFile, mode, VMOptions.builder().nurseryWords(4096).build());
+
+            assertEquals(fullHeap.output(), generational.output(), mode.name());
+            assertTrue(generational.vm().getGcStats().getYoungCollections() > 0, mode.name());
+        }
+    }
+
+    @Test
+    void heapGrowsUpToItsLimit() throws IOException {
+        String objFile = compile("BigArray.mj");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            assertEquals("4500000", run(objFile, mode), mode.name());
+        }
+
+        VMOptions small = VMOptions.builder().maxHeapWords(500_000).build();
+
+        VMException e = assertThrows(VMException.class, () -> run(objFile, ExecutionMode.DECODED, small));
+        assertEquals("Out of memory", e.getMessage());
+    }
+
+    @Test
+    void readsNumbersAndBytes() throws IOException {
+        String objFile = compile("Echo.mj");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            assertEquals("5x", execute(CodeImage.load(objFile), mode, VMOptions.DEFAULT, "  12\n-7x").output(), mode.name());
+        }
+
+        VMException e = assertThrows(VMException.class,
+                () -> execute(CodeImage.load(objFile), ExecutionMode.DECODED, VMOptions.DEFAULT, "12 x"));
+        assertEquals("Expected a number, got 'x'", e.getMessage());
+    }
+
+    @Test
+    void loadsProgramsOverThreeThousandBytes(@TempDir Path dir) throws IOException {
+        StringBuilder source = new StringBuilder("program Big\n{\n");
+        StringBuilder calls = new StringBuilder();
+
+        for (int i = 0; i < 300; i++) {
+            source.append("    int f").append(i).append("(int x) { return x + ").append(i).append("; }\n");
+            calls.append("        sum = f").append(i).append("(sum);\n");
+        }
+
+        source.append("    void main() int sum; {\n        sum = 0;\n").append(calls).append("        print(sum);\n    }\n}\n");
+
+        Path sourceFile = dir.resolve("Big.mj");
+        Files.writeString(sourceFile, source);
+
+        String objFile = Main.compile(sourceFile.toString());
+        assertNotNull(objFile);
+        assertTrue(Files.size(Path.of(objFile)) > 3000);
+
+        assertEquals("44850", run(objFile, ExecutionMode.DECODED));
+        assertEquals("44850", run(objFile, ExecutionMode.BYTECODE));
+    }
+
+    @Test
+    void recompilingLeavesLoadedImagesAsTheyWere(@TempDir Path dir) throws IOException {
+        Path sourceFile = dir.resolve("Again.mj");
+
+        Files.writeString(sourceFile, """
+                program Again
+                {
+                    void main() int i; {
+                        i = 0;
+                        while (i < 5) { print(i); i = i + 1; }
+                    }
+                }
+                """);
+        CodeImage loaded = CodeImage.load(Main.compile(sourceFile.toString()));
+
+        // shorter than the first, writing it in place would truncate the mapped file under the loaded image
+        Files.writeString(sourceFile, "program Again\n{\n    void main() { print(7); }\n}\n");
+        String objFile = Main.compile(sourceFile.toString());
+
+        assertEquals("01234", execute(loaded, ExecutionMode.BYTECODE, VMOptions.DEFAULT).output());
+        assertEquals("7", run(objFile, ExecutionMode.BYTECODE));
+
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of("Again.mj", "Again.obj"), files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+    }
+
+    @Test
+    void rejectsHeadersThatDontMatchTheFile(@TempDir Path dir) throws IOException {
+        byte[] data = Files.readAllBytes(Path.of(compile("Fib.mj")));
+
+        Path truncated = dir.resolve("Truncated.obj");
+        Files.write(truncated, Arrays.copyOf(data, 20));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> CodeImage.load(truncated.toString()));
+        assertTrue(e.getMessage().startsWith("Code size"), e.getMessage());
+
+        Path noMagic = dir.resolve("NoMagic.obj");
+        data[0] = 'X';
+        Files.write(noMagic, data);
+
+        assertThrows(IllegalArgumentException.class, () -> CodeImage.load(noMagic.toString()));
+    }
+
+    @Test
+    void verifiedCodeRunsUnchecked() throws IOException {
+        VMOptions checked = VMOptions.builder().verify(false).build();
+        // the checked loop runs without superinstructions, so counts only match against the plain stream
+        VMOptions unchecked = VMOptions.builder().superinstructions(false).build();
+
+        for (String program : PROGRAMS) {
+            CodeImage image = CodeImage.load(compile(program));
+            assertDoesNotThrow(image::verifier, program);
+
+            Result expected = execute(image, ExecutionMode.DECODED, checked);
+            Result actual = execute(image, ExecutionMode.DECODED, unchecked);
+
+            assertEquals(expected.output(), actual.output(), program);
+            assertEquals(expected.vm().getInstructionsExecuted(), actual.vm().getInstructionsExecuted(), program);
+        }
+
+        // unbounded recursion still overflows, caught at the enter instead of the push
+        String objFile = compile("Recursion.mj");
+
+        for (VMOptions options : List.of(checked, VMOptions.DEFAULT)) {
+            VMException e = assertThrows(VMException.class, () -> run(objFile, ExecutionMode.DECODED, options));
+            assertEquals("Expression stack overflow", e.getMessage());
+        }
+    }
+
+    @Test
+    void profiledRunsOverflowLikeTheOthers() throws IOException {
+        // the profiled loop checks its pushes, verified or not
+        String objFile = compile("Recursion.mj");
+
+        for (boolean verify : new boolean[] { true, false }) {
+            VMOptions options = VMOptions.builder().profile(true).verify(verify).build();
+
+            VMException e = assertThrows(VMException.class, () -> run(objFile, ExecutionMode.DECODED, options));
+            assertEquals("Expression stack overflow", e.getMessage(), "verify " + verify);
+        }
+    }
+
+    @Test
+    void unverifiableCodeRunsChecked() {
+        byte[] code = {
+                'M', 'J', 0, 0, 0, 10, 0, 0, 0, 29,
+                (byte) OpCode.ENTER.ordinal(), 0, 1,
+                (byte) OpCode.CONST_3.ordinal(),
+                (byte) OpCode.STORE_0.ordinal(),
+                // each time around the loop leaves another 1 on the stack
+                (byte) OpCode.CONST_1.ordinal(),
+                (byte) OpCode.LOAD_0.ordinal(),
+                (byte) OpCode.CONST_M1.ordinal(),
+                (byte) OpCode.ADD.ordinal(),
+                (byte) OpCode.STORE_0.ordinal(),
+                (byte) OpCode.LOAD_0.ordinal(),
+                (byte) OpCode.CONST_0.ordinal(),
+                (byte) OpCode.JNE.ordinal(), (byte) 0xff, (byte) -7,
+                (byte) OpCode.PRINT.ordinal(),
+                (byte) OpCode.PRINT.ordinal(),
+                (byte) OpCode.PRINT.ordinal(),
+                (byte) OpCode.EXIT.ordinal(),
+                (byte) OpCode.RETURN.ordinal(),
+                // type table with only int and char, no globals and no methods
+                0, 2, (byte) TypeTable.Kind.INT.ordinal(), (byte) TypeTable.Kind.CHAR.ordinal(), 0, 0, 0, 0
+        };
+
+        CodeImage image = new CodeImage(ByteBuffer.wrap(code));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, image::verifier);
+        assertEquals("Inconsistent stack depth at address 15", e.getMessage());
+
+        for (ExecutionMode mode : List.of(ExecutionMode.DECODED, ExecutionMode.TIERED)) {
+            assertEquals("111", execute(image, mode, VMOptions.DEFAULT).output(), mode.name());
+        }
+
+        // a fourth print in place of the exit pops the empty stack, and is stopped there
+        code[code.length - 10] = (byte) OpCode.PRINT.ordinal();
+        CodeImage underflow = new CodeImage(ByteBuffer.wrap(code));
+
+        for (ExecutionMode mode : List.of(ExecutionMode.DECODED, ExecutionMode.TIERED)) {
+            VMException thrown = assertThrows(VMException.class, () -> execute(underflow, mode, VMOptions.DEFAULT));
+            assertEquals("Tried to pop empty expression stack", thrown.getMessage(), mode.name());
+        }
+    }
+
+    @Test
+    void profileCountsOpcodesCallsAndLoops() throws IOException {
+        String objFile = compile("Fib.mj");
+
+        Result plain = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().superinstructions(false).build());
+        Result profiled = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().profile(true).build());
+
+        assertNull(plain.vm().getProfile());
+        assertEquals(plain.output(), profiled.output());
+
+        Profile profile = profiled.vm().getProfile();
+
+        long opcodes = Arrays.stream(OpCode.values()).mapToLong(profile::getOpcodeCount).sum();
+        assertEquals(plain.vm().getInstructionsExecuted(), opcodes);
+        assertEquals(0, profile.getOpcodeCount(OpCode.LOAD_LOAD));
+
+        Profile.MethodProfile main = profile.getMethods().stream().filter(m -> m.getName().equals("main")).findFirst().orElseThrow();
+        Profile.MethodProfile fib = profile.getMethods().stream().filter(m -> m.getName().equals("fib")).findFirst().orElseThrow();
+
+        assertEquals(1, main.getCalls());
+        assertEquals(35400, fib.getCalls());
+        assertEquals(opcodes, main.getInstructions() + fib.getInstructions());
+        assertTrue(main.getInclusiveNanos() >= fib.getInclusiveNanos());
+
+        // the while loop in main jumps back once per number
+        assertEquals(List.of(20L), List.copyOf(profile.getBackedges().values()));
+
+        assertTrue(profile.report().contains("fib"));
+        assertTrue(profile.collapsedStacks().lines().allMatch(line -> line.matches("main(;fib)* \\d+")), profile.collapsedStacks());
+    }
+
+    @Test
+    void opcodePairsAreCountedInTheProfiledLoop() throws IOException {
+        String objFile = compile("Fib.mj");
+
+        Result plain = execute(objFile, ExecutionMode.DECODED, VMOptions.DEFAULT);
+        Result counted = execute(objFile, ExecutionMode.DECODED, VMOptions.builder().profileOpcodePairs(true).build());
+
+        assertEquals(plain.output(), counted.output());
+        assertEquals(0, plain.vm().getOpcodePairCount(OpCode.EXIT, OpCode.RETURN));
+
+        // every instruction but the first follows another, and the superinstructions aren't fused
+        long pairs = 0;
+        for (OpCode first : OpCode.values()) {
+            for (OpCode second : OpCode.values()) pairs += counted.vm().getOpcodePairCount(first, second);
+        }
+
+        assertEquals(counted.vm().getInstructionsExecuted() - 1, pairs);
+        assertEquals(35401, counted.vm().getOpcodePairCount(OpCode.EXIT, OpCode.RETURN));
+    }
+
+    @Test
+    void samplerWalksTheCallStack() throws IOException {
+        String objFile = compile("Loops.mj");
+        VMOptions sampled = VMOptions.builder().samplingIntervalMicros(100).build();
+
+        for (ExecutionMode mode : List.of(ExecutionMode.BYTECODE, ExecutionMode.DECODED)) {
+            Result result = execute(objFile, mode, sampled);
+            SampleProfile samples = result.vm().getSamples();
+
+            assertEquals(run(objFile, mode), result.output(), mode.name());
+            assertTrue(samples.getSamples() > 0, mode.name());
+
+            // every stack starts at main, and only main calls sum
+            assertEquals(samples.getSamples(), samples.getTotalSamples("main"), mode.name());
+            assertEquals(samples.getSamples(), samples.getSelfSamples("main") + samples.getSelfSamples("sum"), mode.name());
+            assertTrue(samples.collapsedStacks().lines().allMatch(line -> line.matches("main(;sum)? \\d+")), samples.collapsedStacks());
+        }
+
+        assertNull(execute(objFile, ExecutionMode.REGISTER, sampled).vm().getSamples());
+    }
+
+    @Test
+    void recordsJfrEvents(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("run.jfr");
+
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Scan", "Parse", "ObjectFile", "Load", "GarbageCollection", "HeapGrowth")) {
+                recording.enable("rs.myst." + event);
+            }
+            recording.enable("rs.myst.Counters").withPeriod(Duration.ofMillis(10));
+            recording.start();
+
+            execute(compile("Garbage.mj"), ExecutionMode.DECODED, VMOptions.builder().initialHeapWords(4096).nurseryWords(1024).build());
+            execute(compile("Loops.mj"), ExecutionMode.DECODED, VMOptions.DEFAULT);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Map<String, Long> counts = events.stream()
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName(), Collectors.counting()));
+
+        assertEquals(2, counts.get("rs.myst.Scan"), counts.toString());
+        assertEquals(2, counts.get("rs.myst.Parse"), counts.toString());
+        assertEquals(2, counts.get("rs.myst.ObjectFile"), counts.toString());
+        assertEquals(2, counts.get("rs.myst.Load"), counts.toString());
+        assertTrue(counts.getOrDefault("rs.myst.GarbageCollection", 0L) > 0, counts.toString());
+        assertTrue(counts.getOrDefault("rs.myst.Counters", 0L) > 0, counts.toString());
+
+        assertTrue(events.stream().filter(e -> e.getEventType().getName().equals("rs.myst.Scan"))
+                .allMatch(e -> e.getInt("tokens") > 0 && e.getLong("characters") > 0));
+    }
+
+    @Test
+    void runningVMsShowUpInJmx() throws Exception {
+        CodeImage image = CodeImage.load(compile("Echo.mj"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("rs.myst:type=VM,*");
+
+        PipedOutputStream input = new PipedOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VM vm = new VM(image, VMOptions.builder().jmx(true).build(), new PipedInputStream(input), out);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<?> run = executor.submit(() -> vm.run(ExecutionMode.DECODED));
+
+            input.write("12 ".getBytes());
+            input.flush();
+
+            while (server.queryNames(pattern, null).isEmpty()) Thread.sleep(1);
+            ObjectName name = server.queryNames(pattern, null).iterator().next();
+
+            // the second read waits for more input
+            Thread.sleep(100);
+
+            assertTrue((Long) server.getAttribute(name, "ReadBlockedMillis") >= 50);
+            assertTrue((Integer) server.getAttribute(name, "FrameStackHighWater") > 0);
+            assertEquals(VM.getEstackSize(), server.getAttribute(name, "ExpressionStackSize"));
+
+            input.write("-7x".getBytes());
+            input.close();
+            run.get();
+
+            assertEquals("5x", out.toString());
+            assertTrue(server.queryNames(pattern, null).isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void functionCalledAsStatementDropsItsValue() throws IOException {
+        // a call of its own leaves the value behind for pop, enough of them would overflow the expression stack
+        assertEquals("4950", runEverywhere("""
+                program Pop
+                    int sum;
+                {
+                    int add(int x) {
+                        sum = sum + x;
+                        return sum;
+                    }
+
+                    void main()
+                        int i;
+                    {
+                        i = 0;
+                        while (i < 100) {
+                            add(i);
+                            i = i + 1;
+                        }
+                        print(sum);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void greaterAndGreaterEqualCompareTheRightWayRound() throws IOException {
+        assertEquals("23", runEverywhere("""
+                program Compare
+                {
+                    void main() {
+                        if (2 > 2) print(1);
+                        if (2 >= 2) print(2);
+                        if (3 > 2) print(3);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void callsWithoutArgumentsAndBuiltins() throws IOException {
+        assertEquals("11A97", runEverywhere("""
+                program Calls
+                    int n;
+                {
+                    int next() {
+                        n = n + 1;
+                        return n;
+                    }
+
+                    void bump() {
+                        n = n + 10;
+                    }
+
+                    void main() {
+                        bump();
+                        print(next());
+                        print(chr(65));
+                        print(ord('a'));
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void incrementAndDecrement() throws IOException {
+        // locals, globals, fields and array elements, the last two duplicate what the store needs under the value
+        assertEquals("6 -1 9 2", runEverywhere("""
+                program Increment
+                    class C {
+                        int f;
+                    }
+                    int g;
+                {
+                    void main()
+                        int x;
+                        int[] a;
+                        C c;
+                    {
+                        x = 5;
+                        x++;
+                        x++;
+                        x--;
+
+                        g = 1;
+                        g--;
+                        g--;
+
+                        a = new int[3];
+                        a[1] = 7;
+                        a[1]++;
+                        a[1]++;
+
+                        c = new C;
+                        c.f = 3;
+                        c.f--;
+
+                        print(x);
+                        print(' ');
+                        print(g);
+                        print(' ');
+                        print(a[1]);
+                        print(' ');
+                        print(c.f);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void negationAndConstants() throws IOException {
+        assertEquals("-7 3 -10 x", runEverywhere("""
+                program Negate
+                    final int N = 10;
+                    final char C = 'x';
+                {
+                    void main()
+                        int x;
+                    {
+                        x = 7;
+                        print(-x);
+                        print(' ');
+                        print(-x + N);
+                        print(' ');
+                        print(-N);
+                        print(' ');
+                        print(C);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void fieldsOfArrayElements() throws IOException {
+        // new C[n] is a C[], and a[i].f looks the field up on C
+        assertEquals("12", runEverywhere("""
+                program Elements
+                    class C {
+                        int f;
+                    }
+                {
+                    void main()
+                        C[] a;
+                        int i;
+                    {
+                        a = new C[3];
+                        i = 0;
+                        while (i < 3) {
+                            a[i] = new C;
+                            a[i].f = i * 4;
+                            i++;
+                        }
+
+                        print(a[1].f + a[2].f);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void ifElseBreakAndBareReturn() throws IOException {
+        // the else is skipped after the then branch, break leaves the innermost loop, return leaves a void method
+        assertEquals("odd even odd 2 6 4", runEverywhere("""
+                program Flow
+                    int calls;
+                {
+                    void count(int n)
+                    {
+                        calls++;
+                        if (n > 1) return;
+                        calls++;
+                    }
+
+                    void main()
+                        int i, j, inner;
+                    {
+                        i = 1;
+                        while (i < 4) {
+                            if (i % 2 == 0) {
+                                print('e');
+                                print('v');
+                                print('e');
+                                print('n');
+                            } else {
+                                print('o');
+                                print('d');
+                                print('d');
+                            }
+                            print(' ');
+                            i++;
+                        }
+
+                        i = 0;
+                        inner = 0;
+                        while (i < 10) {
+                            j = 0;
+                            while (1 == 1) {
+                                if (j == 2) break;
+                                j++;
+                                inner++;
+                            }
+                            if (i == 2) break;
+                            i++;
+                        }
+                        print(i);
+                        print(' ');
+                        print(inner);
+                        print(' ');
+
+                        count(5);
+                        count(0);
+                        count(9);
+                        print(calls);
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void deepRecursion() throws IOException {
+        // a few thousand frames, past what the old stacks held
+        assertEquals("5000", runEverywhere("""
+                program Deep
+                {
+                    int depth(int n)
+                    {
+                        if (n == 0) return 0;
+                        return depth(n - 1) + 1;
+                    }
+
+                    void main()
+                    {
+                        print(depth(5000));
+                    }
+                }
+                """));
+    }
+
+    @Test
+    void recursionRunsOutOfFrameStackAtTheSameDepthEverywhere() throws IOException {
+        // 13 frame stack words a call, so 2000 fit and 3000 don't
+        CodeImage image = CodeImage.load(compileSource("""
+                program Deep
+                {
+                    int depth(int n, int a, int b, int c)
+                        int x, y, z;
+                    {
+                        if (n == 0) return 0;
+                        x = a; y = b; z = c;
+                        return depth(n - 1, x, y, z) + 1;
+                    }
+
+                    void main()
+                        int n;
+                    {
+                        read(n);
+                        print(depth(n, 1, 2, 3));
+                    }
+                }
+                """));
+
+        List<VMOptions> configurations = List.of(VMOptions.DEFAULT,
+                VMOptions.builder().verify(false).build(),
+                VMOptions.builder().compileThreshold(1).build());
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            for (int i = 0; i < configurations.size(); i++) {
+                VMOptions options = configurations.get(i);
+                String where = mode + " with options " + i;
+
+                assertEquals("2000", execute(image, mode, options, "2000").output(), where);
+
+                for (String depth : List.of("3000", "100000")) {
+                    VMException e = assertThrows(VMException.class, () -> execute(image, mode, options, depth), where);
+                    assertEquals("Frame stack overflow", e.getMessage(), where + " at depth " + depth);
+                }
+            }
+        }
+    }
+
+    @Test
+    void workloadsPrintTheirExpectedOutput() throws IOException {
+        for (String workload : WORKLOADS) {
+            CodeImage image = CodeImage.load(compile(workload + ".mj"));
+            String input = resource(workload + ".in");
+            String expected = resource(workload + ".out");
+
+            assertNotNull(image.verifier(), workload);
+            assertNotNull(image.stackMaps(), workload);
+
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                assertEquals(expected, execute(image, mode, VMOptions.DEFAULT, input).output(), workload + " in " + mode);
+            }
+        }
+    }
+
+    @Test
+    void outOfBoundsAndNullAccessesStopTheProgram() throws IOException {
+        // one past the end is the header of the object allocated after it, the collections that follow would trip over it
+        CodeImage pastTheEnd = CodeImage.load(compileSource("""
+                program PastTheEnd
+                    class C {
+                        int f;
+                    }
+                {
+                    void main()
+                        int[] a;
+                        C c;
+                        int i;
+                    {
+                        a = new int[3];
+                        c = new C;
+                        a[3] = 99;
+
+                        i = 0;
+                        while (i < 2000) {
+                            c = new C;
+                            i++;
+                        }
+                        print(i);
+                    }
+                }
+                """));
+
+        CodeImage nullField = CodeImage.load(compileSource("""
+                program NullField
+                    class C {
+                        int f;
+                    }
+                {
+                    void main()
+                        C c;
+                    {
+                        print(c.f);
+                    }
+                }
+                """));
+
+        VMOptions small = VMOptions.builder().initialHeapWords(4096).nurseryWords(1024).build();
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            VMException e = assertThrows(VMException.class, () -> execute(pastTheEnd, mode, small), mode.name());
+            assertEquals("Index 3 for length 3", e.getMessage(), mode.name());
+
+            e = assertThrows(VMException.class, () -> execute(nullField, mode, small), mode.name());
+            assertEquals("Null pointer error", e.getMessage(), mode.name());
+        }
+    }
+
+    @Test
+    void fallingOffTheEndOfAMethodTraps() throws IOException {
+        // the verified loop isn't the only one that has to stop there
+        CodeImage image = CodeImage.load(compileSource("""
+                program Trap
+                {
+                    int sign(int x)
+                    {
+                        if (x > 0) return 1;
+                    }
+
+                    void main()
+                    {
+                        print(sign(5));
+                        print(sign(-5));
+                    }
+                }
+                """));
+
+        for (boolean verify : new boolean[] { true, false }) {
+            VMOptions options = VMOptions.builder().verify(verify).build();
+
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                VMException e = assertThrows(VMException.class, () -> execute(image, mode, options), mode + ", verify " + verify);
+                assertEquals("Method ended without returning a value", e.getMessage(), mode + ", verify " + verify);
+            }
+        }
+    }
+
+    @Test
+    void fib() throws IOException {
+        String objFile = compile("Fib.mj");
+
+        assertEquals("0 1 1 2 3 5 8 13 21 34 55 89 144 233 377 610 987 1597 2584 4181 ", run(objFile, ExecutionMode.DECODED));
+    }
+
+    static String compile(String program) throws IOException {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final URL sampleUrl = classLoader.getResource(program);
+
+        assertNotNull(sampleUrl);
+
+        String objFile = Main.compile(sampleUrl.getPath());
+
+        assertNotNull(objFile);
+
+        return objFile;
+    }
+
+    static String compileSource(String source) throws IOException {
+        Path file = Files.createTempDirectory("microj").resolve("Test.mj");
+        Files.writeString(file, source);
+
+        String objFile = Main.compile(file.toString());
+
+        assertNotNull(objFile);
+
+        return objFile;
+    }
+
+    /**
+     * Compiles and runs the source in every mode, and in TIERED once more compiling every method when it's
+     * first called. They all have to print the same, which is returned.
+     */
+    static String runEverywhere(String source) throws IOException {
+        CodeImage image = CodeImage.load(compileSource(source));
+        String output = execute(image, ExecutionMode.BYTECODE, VMOptions.DEFAULT).output();
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            assertEquals(output, execute(image, mode, VMOptions.DEFAULT).output(), mode.toString());
+        }
+
+        assertEquals(output, execute(image, ExecutionMode.TIERED, VMOptions.builder().compileThreshold(1).build()).output(), "compiled");
+
+        return output;
+    }
+
+    static String resource(String name) throws IOException {
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static String run(String objFile, ExecutionMode mode) throws IOException {
+        return run(objFile, mode, VMOptions.DEFAULT);
+    }
+
+    static String run(String objFile, ExecutionMode mode, VMOptions options) throws IOException {
+        return execute(objFile, mode, options).output();
+    }
+
+    static Result execute(String objFile, ExecutionMode mode, VMOptions options) throws IOException {
+        return execute(CodeImage.load(objFile), mode, options);
+    }
+
+    static Result execute(CodeImage image, ExecutionMode mode, VMOptions options) {
+        return execute(image, mode, options, "");
+    }
+
+    static Result execute(CodeImage image, ExecutionMode mode, VMOptions options, String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        VM vm = new VM(image, options, new ByteArrayInputStream(input.getBytes()), out);
+        vm.run(mode);
+
+        return new Result(out.toString(), vm);
+    }
+
+    record Result(String output, VM vm) {}
+}